@@ -0,0 +1,128 @@
+package org.avaje.k8s.discovery;
+
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Full load of the members (HTTPS request, token, parse) from a local stand-in for the kubernetes master.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadMembersBenchmark {
+
+	private static final String STORE_PASSWORD = "changeit";
+
+	@Param({"10", "1000", "10000"})
+	int addresses;
+
+	/**
+	 * When false the resourceVersion does not change between loads.
+	 */
+	@Param({"true", "false"})
+	boolean changing;
+
+	private HttpsServer server;
+
+	private File keyStore;
+
+	private File token;
+
+	private K8sMemberDiscovery discovery;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+
+		token = File.createTempFile("k8s-token", ".txt");
+		Files.write(token.toPath(), "benchmark-token".getBytes(StandardCharsets.UTF_8));
+
+		byte[][] payloads = {Payloads.endpoints(addresses, "1"), Payloads.endpoints(addresses, "2")};
+		AtomicInteger requests = new AtomicInteger();
+
+		server = HttpsServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.setHttpsConfigurator(new HttpsConfigurator(sslContext()));
+		server.createContext("/api/v1/namespaces/dev/endpoints/foo-service", exchange -> {
+			byte[] payload = changing ? payloads[requests.getAndIncrement() & 1] : payloads[0];
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, payload.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(payload);
+			}
+		});
+		server.start();
+
+		discovery = new K8sMemberDiscovery("foo-service", "dev")
+				.setMasterUrl("https://localhost:" + server.getAddress().getPort())
+				.setAccountToken(token.getAbsolutePath())
+				// measure the reload rather than the rate limit
+				.setRateLimit(0, 1);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		server.stop(0);
+		keyStore.delete();
+		token.delete();
+	}
+
+	@Benchmark
+	public K8sServiceMembers reload() {
+		discovery.reload();
+		return discovery.getMembers();
+	}
+
+	/**
+	 * Self signed certificate for localhost generated with keytool (the JDK has no API for this).
+	 */
+	private SSLContext sslContext() throws Exception {
+		keyStore = File.createTempFile("k8s-jmh", ".p12");
+		keyStore.delete();
+		String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+		Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "localhost", "-keyalg", "RSA", "-keysize", "2048",
+				"-dname", "CN=localhost", "-validity", "2", "-storetype", "PKCS12",
+				"-keystore", keyStore.getAbsolutePath(), "-storepass", STORE_PASSWORD, "-keypass", STORE_PASSWORD)
+				.inheritIO().start();
+		if (process.waitFor() != 0) {
+			throw new IOException("keytool failed to generate the key store");
+		}
+		KeyStore store = KeyStore.getInstance("PKCS12");
+		try (InputStream in = new FileInputStream(keyStore)) {
+			store.load(in, STORE_PASSWORD.toCharArray());
+		}
+		KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		kmf.init(store, STORE_PASSWORD.toCharArray());
+		SSLContext context = SSLContext.getInstance("TLS");
+		context.init(kmf.getKeyManagers(), null, null);
+		return context;
+	}
+}
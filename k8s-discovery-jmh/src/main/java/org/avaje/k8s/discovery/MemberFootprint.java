@@ -0,0 +1,98 @@
+package org.avaje.k8s.discovery;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reports the retained heap bytes per member of parsed snapshots.
+ * <p>
+ * Compares the snapshot as parsed (interned strings, exactly sized arrays and int table
+ * indexes) with the same members held as before: a String instance per field of each
+ * member, ArrayLists and HashMap indexes by pod name, IP and node name.
+ * <pre>
+ *   java -cp target/benchmarks.jar org.avaje.k8s.discovery.MemberFootprint 20000
+ * </pre>
+ */
+public class MemberFootprint {
+
+	private static final int COPIES = 10;
+
+	public static void main(String[] args) throws IOException {
+		int addresses = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+		byte[] payload = Payloads.endpoints(addresses, "1");
+
+		MemberParser parser = new MemberParser();
+		long before = usedHeap();
+		Object[] compact = new Object[COPIES];
+		for (int i = 0; i < COPIES; i++) {
+			compact[i] = parser.parse(new ByteArrayInputStream(payload));
+		}
+		long compactBytes = usedHeap() - before;
+
+		before = usedHeap();
+		Object[] previous = new Object[COPIES];
+		for (int i = 0; i < COPIES; i++) {
+			previous[i] = new PreviousLayout((K8sServiceMembers) compact[i]);
+		}
+		long previousBytes = usedHeap() - before;
+
+		double members = (double) addresses * COPIES;
+		System.out.printf("members:%d compact:%.1f bytes/member previous:%.1f bytes/member saved:%.1f bytes/member%n",
+				addresses, compactBytes / members, previousBytes / members, (previousBytes - compactBytes) / members);
+		// keep the snapshots reachable until measured
+		System.out.println(compact.length + previous.length);
+	}
+
+	private static long usedHeap() {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+	/**
+	 * The members with the layout used before compaction.
+	 */
+	private static final class PreviousLayout {
+
+		final List<K8sServiceMember> members = new ArrayList<>();
+		final List<K8sServiceMember> notReady = new ArrayList<>();
+		final List<String> ips = new ArrayList<>();
+		final Map<String, K8sServiceMember> byPodName = new HashMap<>();
+		final Map<String, K8sServiceMember> byIp = new HashMap<>();
+		final Map<String, List<K8sServiceMember>> byNodeName = new HashMap<>();
+
+		PreviousLayout(K8sServiceMembers snapshot) {
+			copy(snapshot.getMembers(), members);
+			copy(snapshot.getNotReady(), notReady);
+			for (K8sServiceMember member : members) {
+				ips.add(member.getIpAddress());
+			}
+		}
+
+		private void copy(List<K8sServiceMember> source, List<K8sServiceMember> target) {
+			for (K8sServiceMember member : source) {
+				// a String per field as parsed without the dictionary
+				K8sServiceMember copied = new K8sServiceMember(copy(member.getIpAddress()), copy(member.getNodeName()),
+						copy(member.getPodName()), member.isReady(), member.isServing(), member.isTerminating(),
+						member.getLabels(), member.getZone(), member.getHostname(), member.getPorts());
+				target.add(copied);
+				byPodName.putIfAbsent(copied.getPodName(), copied);
+				byIp.putIfAbsent(copied.getIpAddress(), copied);
+				byNodeName.computeIfAbsent(copied.getNodeName(), name -> new ArrayList<>()).add(copied);
+			}
+		}
+
+		private static String copy(String value) {
+			// new String(String) would share the content
+			return new String(value.toCharArray());
+		}
+	}
+}
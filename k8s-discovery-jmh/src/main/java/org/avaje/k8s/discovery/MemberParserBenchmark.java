@@ -0,0 +1,107 @@
+package org.avaje.k8s.discovery;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Parsing of endpoints payloads of various sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MemberParserBenchmark {
+
+	@Param({"10", "100", "1000", "10000", "50000"})
+	int addresses;
+
+	private byte[] payload;
+
+	private String payloadString;
+
+	private byte[] payloadGzip;
+
+	private byte[] protobuf;
+
+	private byte[] protobufGzip;
+
+	private MemberParser parser;
+
+	private ProtobufMemberParser protobufParser;
+
+	@Setup
+	public void setup() {
+		payload = Payloads.endpoints(addresses, "1");
+		payloadString = new String(payload, StandardCharsets.UTF_8);
+		payloadGzip = Payloads.gzip(payload);
+		protobuf = Payloads.endpointsProtobuf(addresses, "1");
+		protobufGzip = Payloads.gzip(protobuf);
+		parser = new MemberParser();
+		protobufParser = new ProtobufMemberParser();
+	}
+
+	/**
+	 * Parse from the raw bytes reusing the parser buffers (as a reload does).
+	 */
+	@Benchmark
+	public K8sServiceMembers parseStream() throws IOException {
+		return parser.parse(new ByteArrayInputStream(payload));
+	}
+
+	/**
+	 * Parse from a String with a new parser.
+	 */
+	@Benchmark
+	public K8sServiceMembers parseJson() {
+		return new MemberParser(payloadString).parseJson();
+	}
+
+	/**
+	 * Parse where the resourceVersion is unchanged.
+	 */
+	@Benchmark
+	public K8sServiceMembers parseUnchanged() throws IOException {
+		return parser.parse(new ByteArrayInputStream(payload), "1");
+	}
+
+	/**
+	 * Parse the same endpoints in the kubernetes protobuf encoding.
+	 */
+	@Benchmark
+	public K8sServiceMembers parseProtobuf() throws IOException {
+		return protobufParser.parse(new ByteArrayInputStream(protobuf));
+	}
+
+	/**
+	 * Decompress and parse gzip encoded JSON (as served for large responses).
+	 */
+	@Benchmark
+	public K8sServiceMembers parseGzipJson() throws IOException {
+		return parser.parse(new GZIPInputStream(new ByteArrayInputStream(payloadGzip), 8192));
+	}
+
+	/**
+	 * Decompress and parse gzip encoded protobuf.
+	 */
+	@Benchmark
+	public K8sServiceMembers parseGzipProtobuf() throws IOException {
+		return protobufParser.parse(new GZIPInputStream(new ByteArrayInputStream(protobufGzip), 8192));
+	}
+}
@@ -0,0 +1,74 @@
+package org.avaje.k8s.discovery;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups on a snapshot of members as done on request paths.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MembersLookupBenchmark {
+
+	@Param({"10", "1000", "50000"})
+	int addresses;
+
+	private K8sServiceMembers snapshot;
+
+	private K8sMemberDiscovery discovery;
+
+	private String podName;
+
+	private String ip;
+
+	@Setup
+	public void setup() throws IOException {
+		snapshot = new MemberParser().parse(new ByteArrayInputStream(Payloads.endpoints(addresses, "1")));
+		podName = Payloads.podName(addresses / 2);
+		ip = Payloads.ip(addresses / 2);
+		discovery = new K8sMemberDiscovery("foo-service", "dev") {
+			@Override
+			protected K8sServiceMembers loadAllMembers() {
+				return snapshot;
+			}
+		}.setPodName(podName);
+	}
+
+	@Benchmark
+	public K8sServiceMember findPod() {
+		return snapshot.findPod(podName);
+	}
+
+	@Benchmark
+	public K8sServiceMember findByIp() {
+		return snapshot.findByIp(ip);
+	}
+
+	@Benchmark
+	public List<K8sServiceMember> getOtherMembers() {
+		return discovery.getOtherMembers();
+	}
+
+	@Benchmark
+	public List<String> getOtherIps() {
+		return discovery.getOtherIps();
+	}
+}
@@ -0,0 +1,147 @@
+package org.avaje.k8s.discovery;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Generated endpoints payloads in the form returned by the kubernetes master.
+ */
+final class Payloads {
+
+	private Payloads() {
+	}
+
+	/**
+	 * Return the endpoints JSON with the given number of addresses (one in ten not ready).
+	 */
+	static byte[] endpoints(int addresses, String resourceVersion) {
+		StringBuilder sb = new StringBuilder(addresses * 300 + 1000);
+		sb.append("{\"kind\":\"Endpoints\",\"apiVersion\":\"v1\",\"metadata\":{\"name\":\"foo-service\",\"namespace\":\"dev\",")
+				.append("\"selfLink\":\"/api/v1/namespaces/dev/endpoints/foo-service\",\"uid\":\"f2fa8d37-c2d9-11e7-b9c2-02424c321446\",")
+				.append("\"resourceVersion\":\"").append(resourceVersion).append("\",\"creationTimestamp\":\"2017-11-06T10:04:59Z\",")
+				.append("\"labels\":{\"run\":\"foo-service\"}},\"subsets\":[{\"addresses\":[");
+		appendAddresses(sb, 0, addresses - addresses / 10);
+		sb.append("],\"notReadyAddresses\":[");
+		appendAddresses(sb, addresses - addresses / 10, addresses);
+		sb.append("],\"ports\":[{\"name\":\"app\",\"port\":8370,\"protocol\":\"TCP\"}]}]}");
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void appendAddresses(StringBuilder sb, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (i > from) {
+				sb.append(',');
+			}
+			sb.append("{\"ip\":\"").append(ip(i)).append("\",")
+					.append("\"nodeName\":\"").append(nodeName(i)).append("\",")
+					.append("\"targetRef\":{\"kind\":\"Pod\",\"namespace\":\"dev\",\"name\":\"").append(podName(i))
+					.append("\",\"uid\":\"5741bf67-dba7-11e7-a4ff-").append(String.format("%012d", i))
+					.append("\",\"resourceVersion\":\"").append(101315368 + i).append("\"}}");
+		}
+	}
+
+	/**
+	 * Return the same endpoints in the kubernetes protobuf encoding (k8s magic and runtime.Unknown envelope).
+	 */
+	static byte[] endpointsProtobuf(int addresses, String resourceVersion) {
+		Message subset = new Message();
+		for (int i = 0; i < addresses; i++) {
+			Message targetRef = new Message()
+					.string(1, "Pod")
+					.string(2, "dev")
+					.string(3, podName(i))
+					.string(4, "5741bf67-dba7-11e7-a4ff-" + String.format("%012d", i))
+					.string(6, String.valueOf(101315368 + i));
+			Message address = new Message()
+					.string(1, ip(i))
+					.message(2, targetRef)
+					.string(4, nodeName(i));
+			subset.message(i < addresses - addresses / 10 ? 1 : 2, address);
+		}
+		subset.message(3, new Message().string(1, "app").varint(2, 8370).string(3, "TCP"));
+		Message metadata = new Message()
+				.string(1, "foo-service")
+				.string(3, "dev")
+				.string(4, "/api/v1/namespaces/dev/endpoints/foo-service")
+				.string(5, "f2fa8d37-c2d9-11e7-b9c2-02424c321446")
+				.string(6, resourceVersion);
+		Message unknown = new Message()
+				.message(1, new Message().string(1, "v1").string(2, "Endpoints"))
+				.message(2, new Message().message(1, metadata).message(2, subset))
+				.string(3, "")
+				.string(4, "");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write('k');
+		out.write('8');
+		out.write('s');
+		out.write(0);
+		byte[] content = unknown.out.toByteArray();
+		out.write(content, 0, content.length);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Return the content gzip encoded.
+	 */
+	static byte[] gzip(byte[] content) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+			gzip.write(content);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return out.toByteArray();
+	}
+
+	static String ip(int i) {
+		return "10." + ((i >> 16) & 0xFF) + "." + ((i >> 8) & 0xFF) + "." + (i & 0xFF);
+	}
+
+	static String nodeName(int i) {
+		return "ip-172-19-72-" + (i % 50) + ".ap-southeast-2.compute.internal";
+	}
+
+	static String podName(int i) {
+		return "foo-service-6788ccd559-" + Integer.toString(100000 + i, 36);
+	}
+
+	/**
+	 * Protobuf message writer.
+	 */
+	private static final class Message {
+
+		private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		Message string(int field, String value) {
+			return bytes(field, value.getBytes(StandardCharsets.UTF_8));
+		}
+
+		Message message(int field, Message message) {
+			return bytes(field, message.out.toByteArray());
+		}
+
+		Message varint(int field, long value) {
+			writeVarint(field << 3);
+			writeVarint(value);
+			return this;
+		}
+
+		private Message bytes(int field, byte[] value) {
+			writeVarint((field << 3) | 2);
+			writeVarint(value.length);
+			out.write(value, 0, value.length);
+			return this;
+		}
+
+		private void writeVarint(long value) {
+			while ((value & ~0x7FL) != 0) {
+				out.write((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			out.write((int) value);
+		}
+	}
+}
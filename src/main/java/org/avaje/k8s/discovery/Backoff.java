@@ -0,0 +1,42 @@
+package org.avaje.k8s.discovery;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decorrelated jitter backoff, each delay is random between the base and 3 times the
+ * previous delay capped at the maximum.
+ * <p>
+ * Spreads the retries of many clients failing at the same time (such as all the pods of a
+ * deployment when the kubernetes master is unavailable) rather than having them retry in step.
+ * Not thread safe.
+ */
+class Backoff {
+
+	private final long baseMillis;
+
+	private final long maxMillis;
+
+	private long delayMillis;
+
+	Backoff(long baseMillis, long maxMillis) {
+		this.baseMillis = baseMillis;
+		this.maxMillis = Math.max(baseMillis, maxMillis);
+		this.delayMillis = baseMillis;
+	}
+
+	/**
+	 * Return the next delay.
+	 */
+	long next() {
+		long upper = Math.min(maxMillis, delayMillis * 3);
+		delayMillis = (upper <= baseMillis) ? baseMillis : ThreadLocalRandom.current().nextLong(baseMillis, upper + 1);
+		return delayMillis;
+	}
+
+	/**
+	 * Reset after a success.
+	 */
+	void reset() {
+		delayMillis = baseMillis;
+	}
+}
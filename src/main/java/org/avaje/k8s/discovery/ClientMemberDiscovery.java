@@ -0,0 +1,162 @@
+package org.avaje.k8s.discovery;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Discovery of a service backed by the shared cache of a {@link K8sDiscoveryClient}.
+ * <p>
+ * The members are always loaded from the JSON list of the endpoints of the namespace using
+ * the connection and refresh of the client. The settings of those (master url, account token,
+ * rate limit, page size, refresh interval and so on) are set on the client and changing them
+ * on the view fails, as does changing the mode, protobuf and namespace or watching.
+ * {@link #startRefresh()} starts the refresh of the client.
+ */
+class ClientMemberDiscovery extends K8sMemberDiscovery {
+
+	private final K8sDiscoveryClient client;
+
+	private volatile boolean closed;
+
+	ClientMemberDiscovery(K8sDiscoveryClient client, String serviceName, String namespace) {
+		super(serviceName, namespace);
+		this.client = client;
+		this.masterUrl = client.getMasterUrl();
+		this.protobuf = false;
+	}
+
+	private static IllegalStateException setOnClient(String setting) {
+		return new IllegalStateException("The " + setting + " of a discovery of a K8sDiscoveryClient is set on the client");
+	}
+
+	@Override
+	public K8sMemberDiscovery setNamespace(String namespace) {
+		throw new IllegalStateException("The namespace of a discovery of a K8sDiscoveryClient can not be changed");
+	}
+
+	@Override
+	public K8sMemberDiscovery setMasterUrl(String masterUrl) {
+		throw setOnClient("masterUrl");
+	}
+
+	@Override
+	public K8sMemberDiscovery setAccountToken(String accountToken) {
+		throw setOnClient("account token");
+	}
+
+	@Override
+	public K8sMemberDiscovery setMode(K8sDiscoveryMode mode) {
+		if (mode != null && mode != K8sDiscoveryMode.ENDPOINTS) {
+			throw new IllegalStateException("Discovery of a K8sDiscoveryClient only supports mode ENDPOINTS");
+		}
+		return this;
+	}
+
+	@Override
+	public K8sMemberDiscovery setLabelSelector(String labelSelector) {
+		throw new IllegalStateException("Discovery of a K8sDiscoveryClient does not support a label selector (mode PODS)");
+	}
+
+	@Override
+	public K8sMemberDiscovery setAddressType(String addressType) {
+		throw new IllegalStateException("Discovery of a K8sDiscoveryClient does not support an address type (mode ENDPOINT_SLICES)");
+	}
+
+	@Override
+	public K8sMemberDiscovery setPageSize(int pageSize) {
+		throw setOnClient("page size");
+	}
+
+	@Override
+	public K8sMemberDiscovery setWatchTimeoutSeconds(int watchTimeoutSeconds) {
+		throw new IllegalStateException("Discovery of a K8sDiscoveryClient does not support watch");
+	}
+
+	@Override
+	public K8sMemberDiscovery setRefreshInterval(long interval, TimeUnit unit) {
+		throw setOnClient("refresh interval");
+	}
+
+	@Override
+	public K8sMemberDiscovery setRefreshJitter(double refreshJitter) {
+		throw setOnClient("refresh jitter");
+	}
+
+	@Override
+	public K8sMemberDiscovery setProtobuf(boolean protobuf) {
+		if (protobuf) {
+			throw new IllegalStateException("Discovery of a K8sDiscoveryClient does not support protobuf");
+		}
+		return this;
+	}
+
+	@Override
+	public K8sMemberDiscovery setRateLimit(double requestsPerSecond, int burst) {
+		throw setOnClient("rate limit");
+	}
+
+	@Override
+	public K8sMemberDiscovery setShared(boolean shared) {
+		if (shared) {
+			throw new IllegalStateException("Discovery of a K8sDiscoveryClient is already shared by the client");
+		}
+		return this;
+	}
+
+	/**
+	 * Not supported, the client refreshes the services with one list per namespace.
+	 */
+	@Override
+	public K8sMemberDiscovery startWatch() {
+		throw new IllegalStateException("Discovery of a K8sDiscoveryClient does not support watch, use startRefresh()");
+	}
+
+	/**
+	 * Start the refresh of the client (of all its services).
+	 */
+	@Override
+	public K8sMemberDiscovery startRefresh() {
+		client.startRefresh();
+		return this;
+	}
+
+	/**
+	 * Close removing this service from the shared cache of the client.
+	 */
+	@Override
+	public synchronized void close() {
+		super.close();
+		if (!closed) {
+			closed = true;
+			client.remove(this);
+		}
+	}
+
+	@Override
+	protected K8sServiceMembers currentMembers() {
+		K8sServiceMembers current = members.get();
+		if (current != null && client.isRefreshing()) {
+			// serve the last good members while the client refreshes in the background
+			checkStaleness();
+			return current;
+		}
+		return super.currentMembers();
+	}
+
+	@Override
+	protected void startUpdates() {
+		client.startRefresh();
+	}
+
+	@Override
+	protected K8sServiceMembers loadAllMembers() {
+		if (closed) {
+			throw new IllegalStateException("Discovery of service " + serviceName + " is closed");
+		}
+		return client.load(namespace, serviceName);
+	}
+
+	@Override
+	K8sTransport transport() {
+		return client.transport();
+	}
+}
@@ -0,0 +1,127 @@
+package org.avaje.k8s.discovery;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The IPs of a headless service resolved from DNS and cached for the record TTL.
+ * <p>
+ * Once expired the cached IPs continue to be served while they are re-resolved in the
+ * background (concurrent callers sharing the one query). When they have been expired for
+ * longer than the max stale time the query is made inline and a failure is thrown.
+ * <p>
+ * A failure is remembered for a cooldown during which it is thrown without querying, such
+ * that callers falling back to the kubernetes master do not wait on the DNS timeouts each call.
+ */
+final class DnsIps {
+
+	private static final Logger log = LoggerFactory.getLogger(DnsIps.class);
+
+	/**
+	 * The minimum time IPs are cached for (avoid querying for every call with a 0 TTL).
+	 */
+	private static final long MIN_TTL_MILLIS = 1000;
+
+	private static final long MAX_STALE_MILLIS = 30_000;
+
+	private static final long FAILURE_COOLDOWN_MILLIS = 5_000;
+
+	private final DnsResolver resolver;
+
+	private final String name;
+
+	private final SingleFlight<List<String>> singleFlight = new SingleFlight<>();
+
+	private final AtomicReference<Entry> entry = new AtomicReference<>();
+
+	DnsIps(DnsResolver resolver, String name) {
+		this.resolver = resolver;
+		this.name = name;
+	}
+
+	/**
+	 * Return the DNS name resolved.
+	 */
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * Return the IPs resolving them when not cached or stale.
+	 *
+	 * @throws UncheckedIOException when the DNS query fails or failed within the cooldown
+	 */
+	List<String> get(Executor executor) {
+		Entry current = entry.get();
+		long now = System.currentTimeMillis();
+		if (current != null) {
+			if (now < current.expiresAt) {
+				if (current.failure != null) {
+					throw current.failure;
+				}
+				return current.ips;
+			}
+			if (current.failure == null && now < current.expiresAt + MAX_STALE_MILLIS) {
+				singleFlight.runAsync(this::resolve, executor).whenComplete((ips, e) -> {
+					if (e != null) {
+						log.warn("Failed to refresh IPs of {} from DNS", name, e);
+					}
+				});
+				return current.ips;
+			}
+		}
+		return singleFlight.run(this::resolve);
+	}
+
+	private List<String> resolve() {
+		try {
+			DnsResolver.Result result = resolver.resolve(name);
+			long ttlMillis = Math.max(MIN_TTL_MILLIS, result.ttlSeconds * 1000);
+			entry.set(new Entry(result.ips, System.currentTimeMillis() + ttlMillis));
+			log.trace("resolved {} ips:{} ttl:{}s", name, result.ips, result.ttlSeconds);
+			return result.ips;
+		} catch (IOException e) {
+			UncheckedIOException failure = new UncheckedIOException("Failed to resolve " + name + " using DNS server " + resolver.getServer(), e);
+			failed(failure);
+			throw failure;
+		}
+	}
+
+	/**
+	 * Remember the failure for the cooldown unless there are IPs that can still be served.
+	 */
+	private void failed(UncheckedIOException failure) {
+		long now = System.currentTimeMillis();
+		Entry current = entry.get();
+		if (current == null || current.failure != null || now >= current.expiresAt + MAX_STALE_MILLIS) {
+			entry.set(new Entry(failure, now + FAILURE_COOLDOWN_MILLIS));
+		}
+	}
+
+	private static final class Entry {
+
+		private final List<String> ips;
+
+		private final UncheckedIOException failure;
+
+		private final long expiresAt;
+
+		private Entry(List<String> ips, long expiresAt) {
+			this.ips = ips;
+			this.failure = null;
+			this.expiresAt = expiresAt;
+		}
+
+		private Entry(UncheckedIOException failure, long expiresAt) {
+			this.ips = null;
+			this.failure = failure;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
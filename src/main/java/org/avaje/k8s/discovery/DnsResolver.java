@@ -0,0 +1,317 @@
+package org.avaje.k8s.discovery;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Minimal DNS client resolving the A records of a name (the pod IPs of a headless service).
+ * When there are no A records (an IPv6 only cluster) the AAAA records are resolved.
+ * <p>
+ * Queries are sent over UDP (with EDNS0 advertising a 4096 byte payload) and retried over
+ * TCP when the response is truncated, which happens for services with many pods. Only what
+ * is needed for A and AAAA records is supported such that there is no dependency on a DNS library
+ * and, unlike InetAddress, the record TTL is known and nothing is cached by the JVM.
+ */
+final class DnsResolver {
+
+	private static final int TYPE_A = 1;
+	private static final int TYPE_AAAA = 28;
+	private static final int TYPE_OPT = 41;
+	private static final int CLASS_IN = 1;
+
+	private static final int FLAG_RESPONSE = 0x8000;
+	private static final int FLAG_TRUNCATED = 0x0200;
+	private static final int FLAG_RECURSION_DESIRED = 0x0100;
+
+	private static final int RCODE_NAME_ERROR = 3;
+
+	private static final int UDP_PAYLOAD_SIZE = 4096;
+
+	private static final int ATTEMPTS = 2;
+
+	/**
+	 * TTL used when the name does not exist (no ready pods).
+	 */
+	static final long NEGATIVE_TTL_SECONDS = 5;
+
+	private static final Result NAME_ERROR = new Result(Collections.emptyList(), NEGATIVE_TTL_SECONDS);
+
+	private final InetSocketAddress server;
+
+	private final int timeoutMillis;
+
+	DnsResolver(InetSocketAddress server, int timeoutMillis) {
+		this.server = server;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Return the first nameserver of /etc/resolv.conf (the cluster DNS in a pod).
+	 */
+	static InetSocketAddress systemNameserver() {
+		Path resolvConf = Paths.get("/etc/resolv.conf");
+		try {
+			for (String line : Files.readAllLines(resolvConf, StandardCharsets.UTF_8)) {
+				String[] tokens = line.trim().split("\\s+");
+				if (tokens.length >= 2 && "nameserver".equals(tokens[0])) {
+					return new InetSocketAddress(tokens[1], 53);
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to read nameserver from " + resolvConf, e);
+		}
+		throw new IllegalStateException("No nameserver in " + resolvConf);
+	}
+
+	/**
+	 * Return the server queried.
+	 */
+	InetSocketAddress getServer() {
+		return server;
+	}
+
+	/**
+	 * Resolve the A records of the given (fully qualified) name or the AAAA records when
+	 * the name has no A records.
+	 */
+	Result resolve(String name) throws IOException {
+		Result result = resolve(name, TYPE_A);
+		if (result.ips.isEmpty() && result != NAME_ERROR) {
+			// the name exists without IPv4 addresses
+			result = resolve(name, TYPE_AAAA);
+		}
+		return result;
+	}
+
+	private Result resolve(String name, int type) throws IOException {
+		int id = ThreadLocalRandom.current().nextInt(0x10000);
+		byte[] query = query(id, name, type);
+		byte[] response = queryUdp(id, query);
+		if ((readShort(response, 2) & FLAG_TRUNCATED) != 0) {
+			response = queryTcp(id, query);
+		}
+		return parse(id, name, response);
+	}
+
+	private byte[] queryUdp(int id, byte[] query) throws IOException {
+		try (DatagramSocket socket = new DatagramSocket()) {
+			socket.setSoTimeout(timeoutMillis);
+			byte[] buffer = new byte[UDP_PAYLOAD_SIZE];
+			for (int attempt = 1; ; attempt++) {
+				socket.send(new DatagramPacket(query, query.length, server));
+				try {
+					while (true) {
+						DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+						socket.receive(packet);
+						if (packet.getLength() >= 12 && readShort(buffer, 0) == id) {
+							byte[] response = new byte[packet.getLength()];
+							System.arraycopy(buffer, 0, response, 0, response.length);
+							return response;
+						}
+						// ignore late responses to a previous attempt
+					}
+				} catch (SocketTimeoutException e) {
+					if (attempt == ATTEMPTS) {
+						throw new SocketTimeoutException("No response from DNS server " + server + " after " + ATTEMPTS + " attempts");
+					}
+				}
+			}
+		}
+	}
+
+	private byte[] queryTcp(int id, byte[] query) throws IOException {
+		try (Socket socket = new Socket()) {
+			socket.connect(server, timeoutMillis);
+			socket.setSoTimeout(timeoutMillis);
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			out.writeShort(query.length);
+			out.write(query);
+			out.flush();
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			byte[] response = new byte[in.readUnsignedShort()];
+			in.readFully(response);
+			if (response.length < 12 || readShort(response, 0) != id) {
+				throw new IOException("Invalid DNS response from " + server);
+			}
+			return response;
+		}
+	}
+
+	/**
+	 * Build the query for the A or AAAA records of the name with an EDNS0 OPT record.
+	 */
+	static byte[] query(int id, String name, int type) {
+		ByteBuffer buffer = ByteBuffer.allocate(12 + name.length() + 2 + 4 + 11);
+		buffer.putShort((short) id);
+		buffer.putShort((short) FLAG_RECURSION_DESIRED);
+		buffer.putShort((short) 1);
+		buffer.putShort((short) 0);
+		buffer.putShort((short) 0);
+		buffer.putShort((short) 1);
+		for (String label : name.split("\\.")) {
+			if (label.isEmpty()) {
+				continue;
+			}
+			if (label.length() > 63) {
+				throw new IllegalArgumentException("Invalid DNS name " + name);
+			}
+			buffer.put((byte) label.length());
+			buffer.put(label.getBytes(StandardCharsets.US_ASCII));
+		}
+		buffer.put((byte) 0);
+		buffer.putShort((short) type);
+		buffer.putShort((short) CLASS_IN);
+		// OPT pseudo record: root name, type, payload size, extended rcode and flags, no data
+		buffer.put((byte) 0);
+		buffer.putShort((short) TYPE_OPT);
+		buffer.putShort((short) UDP_PAYLOAD_SIZE);
+		buffer.putInt(0);
+		buffer.putShort((short) 0);
+		byte[] query = new byte[buffer.position()];
+		buffer.flip();
+		buffer.get(query);
+		return query;
+	}
+
+	/**
+	 * Parse the response returning the A or AAAA record addresses and the minimum TTL.
+	 */
+	static Result parse(int id, String name, byte[] response) throws IOException {
+		if (response.length < 12 || readShort(response, 0) != id) {
+			throw new IOException("Invalid DNS response for " + name);
+		}
+		int flags = readShort(response, 2);
+		int rcode = flags & 0xF;
+		if ((flags & FLAG_RESPONSE) == 0) {
+			throw new IOException("Invalid DNS response for " + name);
+		}
+		if (rcode == RCODE_NAME_ERROR) {
+			return NAME_ERROR;
+		}
+		if (rcode != 0) {
+			throw new IOException("DNS query for " + name + " failed with rcode " + rcode);
+		}
+		int questions = readShort(response, 4);
+		int answers = readShort(response, 6);
+		int pos = 12;
+		for (int i = 0; i < questions; i++) {
+			pos = skipName(response, pos) + 4;
+		}
+		List<String> ips = new ArrayList<>(answers);
+		long ttl = Long.MAX_VALUE;
+		for (int i = 0; i < answers; i++) {
+			pos = skipName(response, pos);
+			if (pos + 10 > response.length) {
+				throw new IOException("Truncated DNS response for " + name);
+			}
+			int type = readShort(response, pos);
+			int recordClass = readShort(response, pos + 2);
+			long recordTtl = ((long) readShort(response, pos + 4) << 16) | readShort(response, pos + 6);
+			int length = readShort(response, pos + 8);
+			pos += 10;
+			if (pos + length > response.length) {
+				throw new IOException("Truncated DNS response for " + name);
+			}
+			if (type == TYPE_A && recordClass == CLASS_IN && length == 4) {
+				ips.add((response[pos] & 0xFF) + "." + (response[pos + 1] & 0xFF) + "." + (response[pos + 2] & 0xFF) + "." + (response[pos + 3] & 0xFF));
+				ttl = Math.min(ttl, recordTtl);
+			} else if (type == TYPE_AAAA && recordClass == CLASS_IN && length == 16) {
+				ips.add(ipv6(response, pos));
+				ttl = Math.min(ttl, recordTtl);
+			}
+			pos += length;
+		}
+		if (ips.isEmpty()) {
+			return new Result(Collections.emptyList(), NEGATIVE_TTL_SECONDS);
+		}
+		return new Result(Collections.unmodifiableList(ips), ttl);
+	}
+
+	/**
+	 * Format the IPv6 address in the canonical text form (RFC 5952) used by kubernetes,
+	 * lower case without leading zeros and the longest run of zero groups as ::.
+	 */
+	static String ipv6(byte[] bytes, int pos) {
+		int[] groups = new int[8];
+		for (int i = 0; i < 8; i++) {
+			groups[i] = readShort(bytes, pos + i * 2);
+		}
+		int zerosStart = -1;
+		int zerosLength = 1;
+		for (int i = 0; i < 8; i++) {
+			int start = i;
+			while (i < 8 && groups[i] == 0) {
+				i++;
+			}
+			if (i - start > zerosLength) {
+				zerosStart = start;
+				zerosLength = i - start;
+			}
+		}
+		StringBuilder sb = new StringBuilder(39);
+		for (int i = 0; i < 8; i++) {
+			if (i == zerosStart) {
+				sb.append("::");
+				i += zerosLength - 1;
+			} else {
+				if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ':') {
+					sb.append(':');
+				}
+				sb.append(Integer.toHexString(groups[i]));
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Skip a (possibly compressed) name returning the position after it.
+	 */
+	private static int skipName(byte[] response, int pos) throws IOException {
+		while (pos < response.length) {
+			int length = response[pos] & 0xFF;
+			if (length == 0) {
+				return pos + 1;
+			}
+			if ((length & 0xC0) == 0xC0) {
+				// a pointer ends the name
+				return pos + 2;
+			}
+			pos += length + 1;
+		}
+		throw new IOException("Truncated DNS response");
+	}
+
+	private static int readShort(byte[] bytes, int pos) {
+		return ((bytes[pos] & 0xFF) << 8) | (bytes[pos + 1] & 0xFF);
+	}
+
+	/**
+	 * The addresses resolved with the minimum TTL of the records.
+	 */
+	static final class Result {
+
+		final List<String> ips;
+
+		final long ttlSeconds;
+
+		Result(List<String> ips, long ttlSeconds) {
+			this.ips = ips;
+			this.ttlSeconds = ttlSeconds;
+		}
+	}
+}
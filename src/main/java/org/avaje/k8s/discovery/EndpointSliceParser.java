@@ -0,0 +1,240 @@
+package org.avaje.k8s.discovery;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parses pages of an EndpointSliceList merging the endpoints of all the slices into members.
+ * <p>
+ * Only the slices of one address type are used such that the pods of a dual-stack service
+ * are not members twice (once per IP family). FQDN slices are ignored. By default the IPv4
+ * slices are used, or the IPv6 slices when the service has no IPv4 slices (IPv6 only clusters).
+ * <p>
+ * Endpoints that appear in more than one slice (while slices are rebalanced) are merged by IP
+ * address and pod name.
+ */
+class EndpointSliceParser extends ListParser {
+
+	static final String IPV4 = "IPv4";
+	static final String IPV6 = "IPv6";
+
+	private static final int SLICE_ENDPOINTS = 0;
+	private static final int SLICE_PORTS = 1;
+	private static final int SLICE_ADDRESS_TYPE = 2;
+	private static final byte[][] SLICE = JsonReader.names("endpoints", "ports", "addressType");
+
+	private static final int ENDPOINT_ADDRESSES = 0;
+	private static final int ENDPOINT_CONDITIONS = 1;
+	private static final int ENDPOINT_NODE_NAME = 2;
+	private static final int ENDPOINT_TARGET_REF = 3;
+	private static final int ENDPOINT_ZONE = 4;
+	private static final int ENDPOINT_HOSTNAME = 5;
+	private static final byte[][] ENDPOINT = JsonReader.names("addresses", "conditions", "nodeName", "targetRef", "zone", "hostname");
+
+	private static final int CONDITION_READY = 0;
+	private static final int CONDITION_SERVING = 1;
+	private static final int CONDITION_TERMINATING = 2;
+	private static final byte[][] CONDITIONS = JsonReader.names("ready", "serving", "terminating");
+
+	private static final int TARGET_REF_NAME = 0;
+	private static final byte[][] TARGET_REF = JsonReader.names("name");
+
+	/**
+	 * The endpoints of the current slice (built with the ports once the slice is read).
+	 */
+	private final PendingAddresses slice = new PendingAddresses();
+
+	/**
+	 * The address type used or null for IPv4 falling back to IPv6.
+	 */
+	private final String addressType;
+
+	/**
+	 * The members of IPv6 slices used when there are no IPv4 slices (default address type).
+	 */
+	private final List<K8sServiceMember> ipv6Members = new ArrayList<>();
+
+	private boolean ipv4Slices;
+
+	/**
+	 * Create using the IPv4 slices or the IPv6 slices when there are no IPv4 slices.
+	 */
+	EndpointSliceParser() {
+		this(null);
+	}
+
+	/**
+	 * Create using the slices of the given address type (IPv4 or IPv6, null for the default).
+	 */
+	EndpointSliceParser(String addressType) {
+		this.addressType = addressType;
+	}
+
+	@Override
+	void start() {
+		super.start();
+		ipv6Members.clear();
+		ipv4Slices = false;
+	}
+
+	@Override
+	K8sServiceMembers members() {
+		if (addressType == null && !ipv4Slices) {
+			for (K8sServiceMember member : ipv6Members) {
+				add(member);
+			}
+		}
+		ipv6Members.clear();
+		return super.members();
+	}
+
+	/**
+	 * Read a slice where the ports typically follow the endpoints.
+	 */
+	@Override
+	protected void readItem() throws IOException {
+		if (!reader.beginObject()) {
+			return;
+		}
+		slice.clear();
+		List<K8sServicePort> ports = Collections.emptyList();
+		// slices without an address type are treated as IPv4
+		String type = IPV4;
+		while (reader.hasNext()) {
+			switch (reader.nextName(SLICE)) {
+				case SLICE_ENDPOINTS:
+					readEndpoints();
+					break;
+				case SLICE_PORTS:
+					ports = PortsReader.immutable(PortsReader.read(reader, dictionary, ports));
+					break;
+				case SLICE_ADDRESS_TYPE:
+					type = reader.nextString();
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+		if (addressType != null ? addressType.equals(type) : IPV4.equals(type)) {
+			ipv4Slices |= IPV4.equals(type);
+			for (int i = 0; i < slice.size(); i++) {
+				add(slice.member(i, ports));
+			}
+		} else if (addressType == null && IPV6.equals(type) && !ipv4Slices) {
+			for (int i = 0; i < slice.size(); i++) {
+				ipv6Members.add(slice.member(i, ports));
+			}
+		}
+		slice.clear();
+	}
+
+	private void readEndpoints() throws IOException {
+		if (reader.beginArray()) {
+			while (reader.hasNext()) {
+				readEndpoint();
+			}
+			reader.endArray();
+		}
+	}
+
+	/**
+	 * Read an endpoint with properties in any order.
+	 */
+	private void readEndpoint() throws IOException {
+		if (!reader.beginObject()) {
+			return;
+		}
+		String ipAddress = null;
+		String nodeName = null;
+		String podName = null;
+		String zone = null;
+		String hostname = null;
+		// unknown conditions are interpreted as ready, serving the same as ready
+		Boolean ready = null;
+		Boolean serving = null;
+		boolean terminating = false;
+		while (reader.hasNext()) {
+			switch (reader.nextName(ENDPOINT)) {
+				case ENDPOINT_ADDRESSES:
+					ipAddress = readFirstAddress();
+					break;
+				case ENDPOINT_CONDITIONS:
+					if (reader.beginObject()) {
+						while (reader.hasNext()) {
+							switch (reader.nextName(CONDITIONS)) {
+								case CONDITION_READY:
+									ready = reader.nextBoolean(true);
+									break;
+								case CONDITION_SERVING:
+									serving = readBoolean();
+									break;
+								case CONDITION_TERMINATING:
+									terminating = reader.nextBoolean(false);
+									break;
+								default:
+									reader.skipValue();
+							}
+						}
+						reader.endObject();
+					}
+					break;
+				case ENDPOINT_NODE_NAME:
+					nodeName = reader.nextString(dictionary);
+					break;
+				case ENDPOINT_TARGET_REF:
+					podName = readTargetRefName();
+					break;
+				case ENDPOINT_ZONE:
+					zone = reader.nextString(dictionary);
+					break;
+				case ENDPOINT_HOSTNAME:
+					hostname = reader.nextString();
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+		if (ipAddress != null) {
+			boolean isReady = ready == null || ready;
+			boolean isServing = serving == null ? isReady : serving;
+			slice.add(ipAddress, nodeName, podName, isReady, isServing, terminating, zone, hostname);
+		}
+	}
+
+	/**
+	 * Return the first address (the addresses of an endpoint are interchangeable).
+	 */
+	private String readFirstAddress() throws IOException {
+		String address = null;
+		if (reader.beginArray()) {
+			while (reader.hasNext()) {
+				if (address == null) {
+					address = reader.nextString();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endArray();
+		}
+		return address;
+	}
+
+	private String readTargetRefName() throws IOException {
+		String name = null;
+		if (reader.beginObject()) {
+			while (reader.hasNext()) {
+				if (reader.nextName(TARGET_REF) == TARGET_REF_NAME) {
+					name = reader.nextString();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+		return name;
+	}
+}
@@ -0,0 +1,99 @@
+package org.avaje.k8s.discovery;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Consistent hash ring over the current members with virtual nodes.
+ * <p>
+ * The ring is rebuilt only when the members change (a new list instance) and picking
+ * is a binary search that does not allocate. Members are placed by pod name (stable for
+ * StatefulSets) falling back to IP address.
+ */
+final class HashRingPicker implements K8sKeyedPicker {
+
+	private static final int VIRTUAL_NODES = 128;
+
+	private final Supplier<List<K8sServiceMember>> members;
+
+	private volatile Ring ring;
+
+	HashRingPicker(Supplier<List<K8sServiceMember>> members) {
+		this.members = members;
+	}
+
+	@Override
+	public K8sServiceMember pick(String key) {
+		List<K8sServiceMember> list = members.get();
+		if (list.isEmpty()) {
+			return null;
+		}
+		Ring current = ring;
+		if (current == null || current.source != list) {
+			current = new Ring(list);
+			ring = current;
+		}
+		return current.pick(hash(key));
+	}
+
+	/**
+	 * FNV-1a over the chars with a final avalanche (murmur3 fmix64).
+	 */
+	static long hash(String value) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			h ^= value.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static final class Ring {
+
+		private final List<K8sServiceMember> source;
+		private final long[] hashes;
+		private final K8sServiceMember[] owners;
+
+		Ring(List<K8sServiceMember> source) {
+			this.source = source;
+			int size = source.size() * VIRTUAL_NODES;
+			long[] points = new long[size];
+			K8sServiceMember[] pointOwners = new K8sServiceMember[size];
+			// (hash, member index) pairs sorted by hash
+			long[][] entries = new long[size][];
+			int n = 0;
+			for (int m = 0; m < source.size(); m++) {
+				K8sServiceMember member = source.get(m);
+				String id = member.getPodName() != null ? member.getPodName() : member.getIpAddress();
+				for (int v = 0; v < VIRTUAL_NODES; v++) {
+					entries[n++] = new long[]{hash(id + '#' + v), m};
+				}
+			}
+			Arrays.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+			for (int i = 0; i < size; i++) {
+				points[i] = entries[i][0];
+				pointOwners[i] = source.get((int) entries[i][1]);
+			}
+			this.hashes = points;
+			this.owners = pointOwners;
+		}
+
+		K8sServiceMember pick(long hash) {
+			int index = Arrays.binarySearch(hashes, hash);
+			if (index < 0) {
+				index = -index - 1;
+				if (index == hashes.length) {
+					// wrap around the ring
+					index = 0;
+				}
+			}
+			return owners[index];
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package org.avaje.k8s.discovery;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Discovery metrics registered as an MXBean (no dependencies beyond the JDK).
+ * <p>
+ * <pre>{@code
+ *
+ *   K8sMemberDiscovery discovery = new K8sMemberDiscovery("my-service");
+ *   JmxDiscoveryMetrics.register(discovery);
+ *
+ * }</pre>
+ * <p>
+ * Registered with the name {@code org.avaje.k8s.discovery:type=Discovery,namespace=<ns>,service=<svc>}.
+ */
+public class JmxDiscoveryMetrics implements K8sDiscoveryMetrics, JmxDiscoveryMetricsMXBean {
+
+	private final K8sMemberDiscovery discovery;
+
+	private final LatencyHistogram fetchLatency = new LatencyHistogram();
+	private final LatencyHistogram parseTime = new LatencyHistogram();
+
+	private final AtomicLong payloadBytesTotal = new AtomicLong();
+	private final AtomicLong refreshSuccess = new AtomicLong();
+	private final AtomicLong refreshFailure = new AtomicLong();
+	private final AtomicLong refreshSkip = new AtomicLong();
+
+	private volatile long payloadBytesLast;
+	private volatile int ready;
+	private volatile int notReady;
+
+	/**
+	 * Create for the given discovery (use {@link #register(K8sMemberDiscovery)} to register with JMX).
+	 */
+	public JmxDiscoveryMetrics(K8sMemberDiscovery discovery) {
+		this.discovery = discovery;
+	}
+
+	/**
+	 * Create the metrics, set them on the discovery and register them with the platform MBean server.
+	 */
+	public static JmxDiscoveryMetrics register(K8sMemberDiscovery discovery) {
+		JmxDiscoveryMetrics metrics = new JmxDiscoveryMetrics(discovery);
+		discovery.setMetrics(metrics);
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = metrics.objectName();
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(metrics, name);
+		} catch (JMException e) {
+			throw new IllegalStateException("Failed to register discovery metrics with JMX", e);
+		}
+		return metrics;
+	}
+
+	/**
+	 * Return the JMX object name.
+	 */
+	public ObjectName objectName() throws JMException {
+		return new ObjectName("org.avaje.k8s.discovery:type=Discovery,namespace="
+				+ ObjectName.quote(String.valueOf(discovery.getNamespace()))
+				+ ",service=" + ObjectName.quote(String.valueOf(discovery.getServiceName())));
+	}
+
+	@Override
+	public void fetched(long fetchNanos, long parseNanos, long bytes) {
+		fetchLatency.record(fetchNanos);
+		parseTime.record(parseNanos);
+		payloadBytesTotal.addAndGet(bytes);
+		payloadBytesLast = bytes;
+	}
+
+	@Override
+	public void refreshed() {
+		refreshSuccess.incrementAndGet();
+	}
+
+	@Override
+	public void skipped() {
+		refreshSkip.incrementAndGet();
+	}
+
+	@Override
+	public void failed(Exception e) {
+		refreshFailure.incrementAndGet();
+	}
+
+	@Override
+	public void members(int ready, int notReady) {
+		this.ready = ready;
+		this.notReady = notReady;
+	}
+
+	@Override
+	public long getFetchCount() {
+		return fetchLatency.count();
+	}
+
+	@Override
+	public long getFetchLatencyP50Micros() {
+		return fetchLatency.percentileMicros(50);
+	}
+
+	@Override
+	public long getFetchLatencyP99Micros() {
+		return fetchLatency.percentileMicros(99);
+	}
+
+	@Override
+	public long getParseTimeP50Micros() {
+		return parseTime.percentileMicros(50);
+	}
+
+	@Override
+	public long getParseTimeP99Micros() {
+		return parseTime.percentileMicros(99);
+	}
+
+	@Override
+	public long getPayloadBytesTotal() {
+		return payloadBytesTotal.get();
+	}
+
+	@Override
+	public long getPayloadBytesLast() {
+		return payloadBytesLast;
+	}
+
+	@Override
+	public long getRefreshSuccessCount() {
+		return refreshSuccess.get();
+	}
+
+	@Override
+	public long getRefreshFailureCount() {
+		return refreshFailure.get();
+	}
+
+	@Override
+	public long getRefreshSkipCount() {
+		return refreshSkip.get();
+	}
+
+	@Override
+	public int getReadyMembers() {
+		return ready;
+	}
+
+	@Override
+	public int getNotReadyMembers() {
+		return notReady;
+	}
+
+	@Override
+	public long getSnapshotAgeMillis() {
+		return discovery.getSnapshotAgeMillis();
+	}
+}
@@ -0,0 +1,72 @@
+package org.avaje.k8s.discovery;
+
+/**
+ * JMX view of the discovery metrics of a service.
+ */
+public interface JmxDiscoveryMetricsMXBean {
+
+	/**
+	 * Return the number of fetches from the kubernetes master.
+	 */
+	long getFetchCount();
+
+	/**
+	 * Return the 50th percentile fetch latency (until response headers) in microseconds.
+	 */
+	long getFetchLatencyP50Micros();
+
+	/**
+	 * Return the 99th percentile fetch latency in microseconds.
+	 */
+	long getFetchLatencyP99Micros();
+
+	/**
+	 * Return the 50th percentile parse time in microseconds.
+	 */
+	long getParseTimeP50Micros();
+
+	/**
+	 * Return the 99th percentile parse time in microseconds.
+	 */
+	long getParseTimeP99Micros();
+
+	/**
+	 * Return the total payload bytes read.
+	 */
+	long getPayloadBytesTotal();
+
+	/**
+	 * Return the payload bytes of the last fetch.
+	 */
+	long getPayloadBytesLast();
+
+	/**
+	 * Return the number of successful refreshes.
+	 */
+	long getRefreshSuccessCount();
+
+	/**
+	 * Return the number of failed refreshes.
+	 */
+	long getRefreshFailureCount();
+
+	/**
+	 * Return the number of refreshes skipped as the resourceVersion was unchanged.
+	 */
+	long getRefreshSkipCount();
+
+	/**
+	 * Return the number of ready members.
+	 */
+	int getReadyMembers();
+
+	/**
+	 * Return the number of not ready members.
+	 */
+	int getNotReadyMembers();
+
+	/**
+	 * Return the age of the members in millis (-1 when not loaded).
+	 */
+	long getSnapshotAgeMillis();
+}
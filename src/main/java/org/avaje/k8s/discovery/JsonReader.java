@@ -0,0 +1,385 @@
+package org.avaje.k8s.discovery;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Minimal single pass pull tokenizer reading JSON straight from the raw bytes.
+ * <p>
+ * Supports just what is needed to read the kubernetes API responses. Property names are
+ * matched against known names without creating Strings and values that are not needed are
+ * skipped without allocation. Separators (comma and colon) are treated as whitespace.
+ * <p>
+ * The buffers are reused when the reader is {@link #reset(InputStream)} for the next response.
+ * Not thread safe.
+ */
+final class JsonReader {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	private byte[] name = new byte[64];
+
+	private char[] chars = new char[128];
+
+	private InputStream in;
+
+	private int pos;
+
+	private int limit;
+
+	private long bytesRead;
+
+	/**
+	 * Reset to read from the given input stream reusing the buffers.
+	 */
+	JsonReader reset(InputStream in) {
+		this.in = in;
+		this.pos = 0;
+		this.limit = 0;
+		this.bytesRead = 0;
+		return this;
+	}
+
+	/**
+	 * Return the property names as UTF-8 bytes for use with {@link #nextName(byte[][])}.
+	 */
+	static byte[][] names(String... names) {
+		byte[][] bytes = new byte[names.length][];
+		for (int i = 0; i < names.length; i++) {
+			bytes[i] = names[i].getBytes(StandardCharsets.UTF_8);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Return the number of bytes read from the input stream.
+	 */
+	long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * Return the next significant character without consuming it or -1 at the end of the content.
+	 */
+	int peek() throws IOException {
+		while (true) {
+			if (pos == limit && !fill()) {
+				return -1;
+			}
+			switch (buffer[pos]) {
+				case ' ':
+				case '\n':
+				case '\r':
+				case '\t':
+				case ',':
+				case ':':
+					pos++;
+					break;
+				default:
+					return buffer[pos];
+			}
+		}
+	}
+
+	/**
+	 * Return true if there is another value or property in the current object or array.
+	 */
+	boolean hasNext() throws IOException {
+		int c = peek();
+		return c != '}' && c != ']' && c != -1;
+	}
+
+	/**
+	 * Begin an object returning false if the value is null.
+	 */
+	boolean beginObject() throws IOException {
+		return begin('{');
+	}
+
+	/**
+	 * Begin an array returning false if the value is null.
+	 */
+	boolean beginArray() throws IOException {
+		return begin('[');
+	}
+
+	void endObject() throws IOException {
+		expect('}');
+	}
+
+	void endArray() throws IOException {
+		expect(']');
+	}
+
+	/**
+	 * Read the next property name returning the index of the matching name or -1 when it is not one of the given names.
+	 */
+	int nextName(byte[][] names) throws IOException {
+		expect('"');
+		int len = 0;
+		int b;
+		while ((b = read()) != '"') {
+			if (b == '\\') {
+				// kept escaped, will not match any of the names
+				b = read();
+				if (len == name.length) {
+					name = Arrays.copyOf(name, len * 2);
+				}
+				name[len++] = '\\';
+			}
+			if (len == name.length) {
+				name = Arrays.copyOf(name, len * 2);
+			}
+			name[len++] = (byte) b;
+		}
+		for (int i = 0; i < names.length; i++) {
+			if (matches(names[i], len)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Read a string value (decoding escapes). Other literals are returned as their text and null as null.
+	 */
+	String nextString() throws IOException {
+		int c = peek();
+		if (c != '"') {
+			return nextLiteral();
+		}
+		pos++;
+		return new String(chars, 0, readChars());
+	}
+
+	/**
+	 * Read a string value returning the dictionary instance when it is a repeated value.
+	 */
+	String nextString(StringDictionary dictionary) throws IOException {
+		int c = peek();
+		if (c != '"') {
+			return nextLiteral();
+		}
+		pos++;
+		return dictionary.intern(chars, readChars());
+	}
+
+	/**
+	 * Decode the chars of a string (after the opening quote) returning the length.
+	 */
+	private int readChars() throws IOException {
+		int len = 0;
+		int b;
+		while ((b = read()) != '"') {
+			if (len + 2 > chars.length) {
+				chars = Arrays.copyOf(chars, chars.length * 2);
+			}
+			if (b == '\\') {
+				chars[len++] = escaped(read());
+			} else if (b < 0x80) {
+				chars[len++] = (char) b;
+			} else {
+				len = decodeUtf8(b, len);
+			}
+		}
+		return len;
+	}
+
+	/**
+	 * Read an int value (which can also be a quoted string).
+	 */
+	int nextInt() throws IOException {
+		String value = nextString();
+		return value == null ? 0 : Integer.parseInt(value);
+	}
+
+	/**
+	 * Read a boolean value returning the default value when null.
+	 */
+	boolean nextBoolean(boolean defaultValue) throws IOException {
+		String value = nextString();
+		return value == null ? defaultValue : Boolean.parseBoolean(value);
+	}
+
+	/**
+	 * Skip the next value including nested objects and arrays.
+	 */
+	void skipValue() throws IOException {
+		int c = peek();
+		if (c == '"') {
+			pos++;
+			skipString();
+		} else if (c == '{' || c == '[') {
+			pos++;
+			int depth = 1;
+			while (depth > 0) {
+				int b = read();
+				if (b == '"') {
+					skipString();
+				} else if (b == '{' || b == '[') {
+					depth++;
+				} else if (b == '}' || b == ']') {
+					depth--;
+				}
+			}
+		} else {
+			skipLiteral();
+		}
+	}
+
+	private boolean begin(char token) throws IOException {
+		int c = peek();
+		if (c == token) {
+			pos++;
+			return true;
+		}
+		if (c == 'n') {
+			skipLiteral();
+			return false;
+		}
+		throw unexpected(c, token);
+	}
+
+	private void expect(char token) throws IOException {
+		int c = peek();
+		if (c != token) {
+			throw unexpected(c, token);
+		}
+		pos++;
+	}
+
+	private IllegalStateException unexpected(int c, char token) {
+		if (c == -1) {
+			return new IllegalStateException("Unexpected end of JSON content expecting '" + token + "'");
+		}
+		return new IllegalStateException("Unexpected '" + (char) c + "' in JSON content expecting '" + token + "'");
+	}
+
+	private boolean matches(byte[] candidate, int len) {
+		if (candidate.length != len) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if (candidate[i] != name[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String nextLiteral() throws IOException {
+		if (peek() == 'n') {
+			skipLiteral();
+			return null;
+		}
+		int len = 0;
+		while ((pos < limit || fill()) && !isDelimiter(buffer[pos])) {
+			if (len == chars.length) {
+				chars = Arrays.copyOf(chars, len * 2);
+			}
+			chars[len++] = (char) buffer[pos++];
+		}
+		return new String(chars, 0, len);
+	}
+
+	private void skipLiteral() throws IOException {
+		while ((pos < limit || fill()) && !isDelimiter(buffer[pos])) {
+			pos++;
+		}
+	}
+
+	private void skipString() throws IOException {
+		int b;
+		while ((b = read()) != '"') {
+			if (b == '\\') {
+				read();
+			}
+		}
+	}
+
+	private boolean isDelimiter(byte b) {
+		switch (b) {
+			case ' ':
+			case '\n':
+			case '\r':
+			case '\t':
+			case ',':
+			case ':':
+			case '}':
+			case ']':
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private char escaped(int b) throws IOException {
+		switch (b) {
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			case 't':
+				return '\t';
+			case 'b':
+				return '\b';
+			case 'f':
+				return '\f';
+			case 'u':
+				int value = 0;
+				for (int i = 0; i < 4; i++) {
+					value = (value << 4) | Character.digit(read(), 16);
+				}
+				return (char) value;
+			default:
+				// quote, backslash and solidus
+				return (char) b;
+		}
+	}
+
+	private int decodeUtf8(int b, int len) throws IOException {
+		int codePoint;
+		if ((b & 0xE0) == 0xC0) {
+			codePoint = ((b & 0x1F) << 6) | (read() & 0x3F);
+		} else if ((b & 0xF0) == 0xE0) {
+			codePoint = ((b & 0x0F) << 12) | ((read() & 0x3F) << 6) | (read() & 0x3F);
+		} else {
+			codePoint = ((b & 0x07) << 18) | ((read() & 0x3F) << 12) | ((read() & 0x3F) << 6) | (read() & 0x3F);
+		}
+		if (Character.isBmpCodePoint(codePoint)) {
+			chars[len++] = (char) codePoint;
+		} else {
+			chars[len++] = Character.highSurrogate(codePoint);
+			chars[len++] = Character.lowSurrogate(codePoint);
+		}
+		return len;
+	}
+
+	/**
+	 * Read the next raw byte failing at the end of the content.
+	 */
+	private int read() throws IOException {
+		if (pos == limit && !fill()) {
+			throw new IllegalStateException("Unexpected end of JSON content");
+		}
+		return buffer[pos++] & 0xFF;
+	}
+
+	private boolean fill() throws IOException {
+		if (in == null) {
+			return false;
+		}
+		int count = in.read(buffer, 0, buffer.length);
+		if (count <= 0) {
+			return false;
+		}
+		bytesRead += count;
+		pos = 0;
+		limit = count;
+		return true;
+	}
+}
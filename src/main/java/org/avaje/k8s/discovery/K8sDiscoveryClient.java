@@ -0,0 +1,278 @@
+package org.avaje.k8s.discovery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Discovery of the members of many services sharing one connection to the kubernetes master and one cache.
+ * <p>
+ * Rather than each service fetching its own endpoints, the endpoints of all the services of a
+ * namespace are fetched with a single list request and the services are handed out as
+ * {@link K8sMemberDiscovery} views backed by the shared cache. The load on the kubernetes master
+ * stays the same as the number of services grows.
+ * <p>
+ * <pre>{@code
+ *
+ *   K8sDiscoveryClient client = new K8sDiscoveryClient()
+ *       .setRefreshInterval(30, TimeUnit.SECONDS);
+ *
+ *   K8sMemberDiscovery orders = client.discovery("orders");
+ *   K8sMemberDiscovery payments = client.discovery("payments", "billing");
+ *
+ *   client.startRefresh();
+ *
+ * }</pre>
+ */
+public class K8sDiscoveryClient implements AutoCloseable {
+
+	private final Map<String, NamespaceEndpoints> namespaces = new ConcurrentHashMap<>();
+
+	private String masterUrl = "https://kubernetes.default.svc.cluster.local:443";
+
+	private String accountToken = "/var/run/secrets/kubernetes.io/serviceaccount/token";
+
+	private String namespace;
+
+	private String podName;
+
+	private long refreshIntervalMillis = 30_000;
+
+	private double refreshJitter = 0.2;
+
+	private int pageSize = 500;
+
+	private double rateLimit = 5;
+
+	private int rateLimitBurst = 10;
+
+	private volatile K8sTransport transport;
+
+	private volatile MemberRefresher refresher;
+
+	/**
+	 * Create reading the default namespace and pod name from POD_NAMESPACE and POD_NAME.
+	 */
+	public K8sDiscoveryClient() {
+		this.namespace = read("POD_NAMESPACE");
+		this.podName = read("POD_NAME");
+	}
+
+	private String read(String key) {
+		return System.getProperty(key, System.getenv(key));
+	}
+
+	/**
+	 * Set the default namespace of the services. Default to read env POD_NAMESPACE.
+	 */
+	public K8sDiscoveryClient setNamespace(String namespace) {
+		if (namespace != null) {
+			this.namespace = namespace;
+		}
+		return this;
+	}
+
+	/**
+	 * Set the name of the current pod (to filter out). Default to read env POD_NAME.
+	 */
+	public K8sDiscoveryClient setPodName(String podName) {
+		if (podName != null) {
+			this.podName = podName;
+		}
+		return this;
+	}
+
+	/**
+	 * Sets Kubernetes master API url.
+	 */
+	public K8sDiscoveryClient setMasterUrl(String masterUrl) {
+		if (masterUrl != null) {
+			this.masterUrl = masterUrl;
+			this.transport = null;
+		}
+		return this;
+	}
+
+	/**
+	 * Set the account token.
+	 * <p>
+	 * By default account token is read from '/var/run/secrets/kubernetes.io/serviceaccount/token'.
+	 */
+	public K8sDiscoveryClient setAccountToken(String accountToken) {
+		if (accountToken != null) {
+			this.accountToken = accountToken;
+			this.transport = null;
+		}
+		return this;
+	}
+
+	/**
+	 * Set the interval at which all the services are refreshed in the background (default 30 seconds).
+	 */
+	public K8sDiscoveryClient setRefreshInterval(long interval, TimeUnit unit) {
+		this.refreshIntervalMillis = unit.toMillis(interval);
+		return this;
+	}
+
+	/**
+	 * Set the random jitter applied to the refresh interval as a fraction (default 0.2 meaning +/- 20%).
+	 */
+	public K8sDiscoveryClient setRefreshJitter(double refreshJitter) {
+		this.refreshJitter = refreshJitter;
+		return this;
+	}
+
+	/**
+	 * Set the maximum number of endpoints fetched per request when listing a namespace (default 500).
+	 */
+	public K8sDiscoveryClient setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+		return this;
+	}
+
+	/**
+	 * Set the rate limit of requests to the kubernetes master (default 5 per second with bursts of 10).
+	 * <p>
+	 * A rate of 0 means unlimited. Requests are also paused for the Retry-After time when the
+	 * kubernetes master responds with 429 Too Many Requests.
+	 */
+	public K8sDiscoveryClient setRateLimit(double requestsPerSecond, int burst) {
+		this.rateLimit = requestsPerSecond;
+		this.rateLimitBurst = burst;
+		this.transport = null;
+		return this;
+	}
+
+	/**
+	 * Return the masterUrl used.
+	 */
+	public String getMasterUrl() {
+		return masterUrl;
+	}
+
+	/**
+	 * Return the default namespace used.
+	 */
+	public String getNamespace() {
+		return namespace;
+	}
+
+	/**
+	 * Return the discovery of the given service in the default namespace.
+	 */
+	public K8sMemberDiscovery discovery(String serviceName) {
+		return discovery(serviceName, namespace);
+	}
+
+	/**
+	 * Return the discovery of the given service and namespace backed by the shared cache.
+	 * <p>
+	 * A null namespace means the default namespace. The discovery is removed from the shared
+	 * cache when it is closed.
+	 */
+	public K8sMemberDiscovery discovery(String serviceName, String namespace) {
+		String ns = (namespace != null) ? namespace : this.namespace;
+		if (ns == null) {
+			throw new IllegalArgumentException("No namespace given for service " + serviceName + " and no default namespace (POD_NAMESPACE) set");
+		}
+		ClientMemberDiscovery view = new ClientMemberDiscovery(this, serviceName, ns);
+		view.setPodName(podName);
+		namespaces.compute(ns, (key, endpoints) -> {
+			if (endpoints == null) {
+				endpoints = new NamespaceEndpoints(this, key);
+			}
+			endpoints.add(view);
+			return endpoints;
+		});
+		return view;
+	}
+
+	/**
+	 * Remove a closed discovery from the shared cache.
+	 */
+	void remove(ClientMemberDiscovery view) {
+		namespaces.computeIfPresent(view.getNamespace(), (key, endpoints) -> endpoints.remove(view) ? null : endpoints);
+	}
+
+	/**
+	 * Reload the members of all the services with one list request per namespace.
+	 */
+	public void reload() {
+		List<RuntimeException> errors = new ArrayList<>();
+		for (NamespaceEndpoints endpoints : namespaces.values()) {
+			try {
+				endpoints.reload();
+			} catch (RuntimeException e) {
+				errors.add(e);
+			}
+		}
+		if (!errors.isEmpty()) {
+			RuntimeException error = errors.get(0);
+			for (int i = 1; i < errors.size(); i++) {
+				error.addSuppressed(errors.get(i));
+			}
+			throw error;
+		}
+	}
+
+	/**
+	 * Start refreshing the members of all the services in the background.
+	 */
+	public synchronized K8sDiscoveryClient startRefresh() {
+		if (refresher == null) {
+			refresher = new MemberRefresher("client", this::reload, refreshIntervalMillis, refreshJitter);
+			refresher.start(false);
+		}
+		return this;
+	}
+
+	/**
+	 * Stop refreshing in the background.
+	 */
+	@Override
+	public synchronized void close() {
+		if (refresher != null) {
+			refresher.stop();
+			refresher = null;
+		}
+	}
+
+	/**
+	 * Return the page size used when listing a namespace.
+	 */
+	int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * Return true if the services are refreshed in the background.
+	 */
+	boolean isRefreshing() {
+		return refresher != null;
+	}
+
+	/**
+	 * Load the endpoints of the namespace returning the members of the given service.
+	 */
+	K8sServiceMembers load(String namespace, String serviceName) {
+		NamespaceEndpoints endpoints = namespaces.get(namespace);
+		if (endpoints == null) {
+			throw new IllegalStateException("Discovery of service " + serviceName + " is closed");
+		}
+		return endpoints.reload(serviceName);
+	}
+
+	/**
+	 * Return the transport shared by all the services.
+	 */
+	K8sTransport transport() {
+		K8sTransport current = transport;
+		if (current == null) {
+			current = new K8sTransport(masterUrl, accountToken, new RateLimiter(rateLimit, rateLimitBurst));
+			transport = current;
+		}
+		return current;
+	}
+}
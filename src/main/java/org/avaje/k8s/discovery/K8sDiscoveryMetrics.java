@@ -0,0 +1,52 @@
+package org.avaje.k8s.discovery;
+
+/**
+ * Metrics of the discovery operations.
+ * <p>
+ * Implement to bridge to a metrics library. All methods default to doing nothing.
+ * See {@link JmxDiscoveryMetrics} for an implementation exposed via JMX.
+ *
+ * @see K8sMemberDiscovery#setMetrics(K8sDiscoveryMetrics)
+ */
+public interface K8sDiscoveryMetrics {
+
+	/**
+	 * Metrics that are ignored.
+	 */
+	K8sDiscoveryMetrics NOOP = new K8sDiscoveryMetrics() {
+	};
+
+	/**
+	 * A fetch from the kubernetes master completed.
+	 *
+	 * @param fetchNanos The time until the response headers were received
+	 * @param parseNanos The time reading and parsing the response content
+	 * @param bytes      The payload bytes read
+	 */
+	default void fetched(long fetchNanos, long parseNanos, long bytes) {
+	}
+
+	/**
+	 * A load (refresh) of the members succeeded.
+	 */
+	default void refreshed() {
+	}
+
+	/**
+	 * A load of the members was skipped as the resourceVersion was unchanged.
+	 */
+	default void skipped() {
+	}
+
+	/**
+	 * A load of the members failed.
+	 */
+	default void failed(Exception e) {
+	}
+
+	/**
+	 * The members changed to the given number of ready and not ready members.
+	 */
+	default void members(int ready, int notReady) {
+	}
+}
@@ -0,0 +1,31 @@
+package org.avaje.k8s.discovery;
+
+/**
+ * The kubernetes API used to discover the members of a service.
+ */
+public enum K8sDiscoveryMode {
+
+	/**
+	 * Read the Endpoints object of the service (core v1).
+	 * <p>
+	 * Endpoints are truncated at 1000 addresses for large services.
+	 */
+	ENDPOINTS,
+
+	/**
+	 * List the EndpointSlices of the service (discovery.k8s.io/v1) in pages.
+	 * <p>
+	 * Scales past 1000 members and includes the serving and terminating conditions.
+	 */
+	ENDPOINT_SLICES,
+
+	/**
+	 * List the running Pods matching a label selector (core v1) in pages.
+	 * <p>
+	 * For workloads without a Service such as headless StatefulSets or jobs. Members
+	 * include the labels of the pod.
+	 *
+	 * @see K8sMemberDiscovery#setLabelSelector(String)
+	 */
+	PODS
+}
@@ -0,0 +1,47 @@
+package org.avaje.k8s.discovery;
+
+/**
+ * Check of the health of a member used when probing, see {@link K8sMemberDiscovery#startProbing()}.
+ */
+@FunctionalInterface
+public interface K8sHealthCheck {
+
+	/**
+	 * Return true if the member is healthy. An exception is treated as unhealthy.
+	 */
+	boolean isHealthy(K8sServiceMember member) throws Exception;
+
+	/**
+	 * Return a check that connects to the given port of the member.
+	 */
+	static K8sHealthCheck tcp(int port, int timeoutMillis) {
+		return member -> MemberProber.connect(member, port, timeoutMillis);
+	}
+
+	/**
+	 * Return a check that connects to the named port of the member (or its first TCP port when null).
+	 * <p>
+	 * Members without the port are treated as healthy (not checked).
+	 */
+	static K8sHealthCheck tcp(String portName, int timeoutMillis) {
+		if (portName == null) {
+			return tcpDefaultPort(timeoutMillis);
+		}
+		return member -> {
+			K8sServicePort port = member.getPort(portName);
+			return port == null || MemberProber.connect(member, port.getPort(), timeoutMillis);
+		};
+	}
+
+	/**
+	 * Return a check that connects to the first TCP port of the member skipping UDP and SCTP ports.
+	 * <p>
+	 * Members without a TCP port are treated as healthy (not checked).
+	 */
+	static K8sHealthCheck tcpDefaultPort(int timeoutMillis) {
+		return member -> {
+			K8sServicePort port = MemberProber.firstTcpPort(member);
+			return port == null || MemberProber.connect(member, port.getPort(), timeoutMillis);
+		};
+	}
+}
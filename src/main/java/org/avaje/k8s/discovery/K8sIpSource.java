@@ -0,0 +1,26 @@
+package org.avaje.k8s.discovery;
+
+/**
+ * The source of the IPs returned by getAllIps() and getOtherIps().
+ */
+public enum K8sIpSource {
+
+	/**
+	 * The members loaded from the kubernetes master.
+	 */
+	API,
+
+	/**
+	 * The A (or for IPv6 only clusters AAAA) records of the headless service from the cluster DNS.
+	 * <p>
+	 * Avoids the authenticated request to the kubernetes master (and the RBAC to read
+	 * endpoints). The DNS records contain only the ready pods and only headless services
+	 * (clusterIP: None) have a record per pod.
+	 */
+	DNS,
+
+	/**
+	 * DNS with the members loaded from the kubernetes master used when the DNS query fails.
+	 */
+	DNS_WITH_API_FALLBACK
+}
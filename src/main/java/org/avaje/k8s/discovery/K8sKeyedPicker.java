@@ -0,0 +1,16 @@
+package org.avaje.k8s.discovery;
+
+/**
+ * Picks the member (peer) for a key such that a key maps to the same member while it
+ * remains a member, with only the keys of added or removed members moving.
+ *
+ * @see K8sMemberDiscovery#consistentHash()
+ */
+@FunctionalInterface
+public interface K8sKeyedPicker {
+
+	/**
+	 * Return the member for the key or null if there are no members.
+	 */
+	K8sServiceMember pick(String key);
+}
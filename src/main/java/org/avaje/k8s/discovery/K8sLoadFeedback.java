@@ -0,0 +1,15 @@
+package org.avaje.k8s.discovery;
+
+/**
+ * Provides the current load of a member (for example the requests in flight to it).
+ *
+ * @see K8sMemberDiscovery#powerOfTwoChoices(K8sLoadFeedback)
+ */
+@FunctionalInterface
+public interface K8sLoadFeedback {
+
+	/**
+	 * Return the load of the member where lower is less loaded.
+	 */
+	long load(K8sServiceMember member);
+}
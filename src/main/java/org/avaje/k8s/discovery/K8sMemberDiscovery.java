@@ -4,21 +4,32 @@ package org.avaje.k8s.discovery;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.LineNumberReader;
-import java.net.URL;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.security.SecureRandom;
-import java.security.cert.X509Certificate;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -46,11 +57,126 @@ import java.util.stream.Collectors;
  *       .getOtherMembers();
  *
  * }</pre>
+ * <p>
+ * <pre>{@code
+ *
+ *   // keep the members up to date via a watch
+ *   // on the endpoints of the service
+ *
+ *   K8sMemberDiscovery discovery =
+ *       new K8sMemberDiscovery("my-service")
+ *       .addListener(delta -> ...)
+ *       .startWatch();
+ *
+ * }</pre>
+ * <p>
+ * <pre>{@code
+ *
+ *   // refresh the members in the background every 30 seconds
+ *   // serving the last good members while refreshing
+ *
+ *   K8sMemberDiscovery discovery =
+ *       new K8sMemberDiscovery("my-service")
+ *       .setRefreshInterval(30, TimeUnit.SECONDS)
+ *       .setMaxStaleness(5, TimeUnit.MINUTES)
+ *       .startRefresh();
+ *
+ * }</pre>
+ * <p>
+ * <pre>{@code
+ *
+ *   // load without blocking the calling (event loop) thread
+ *
+ *   discovery.loadMembersAsync()
+ *       .thenAccept(members -> ...);
+ *
+ * }</pre>
+ * <p>
+ * <pre>{@code
+ *
+ *   // pick a peer to send a request to
+ *
+ *   K8sMemberPicker picker = discovery.roundRobin();
+ *   K8sServiceMember peer = picker.pick();
+ *
+ * }</pre>
+ * <p>
+ * <pre>{@code
+ *
+ *   // serve the members saved to file by the previous run
+ *   // immediately at startup, revalidating in the background
+ *
+ *   K8sMemberDiscovery discovery =
+ *       new K8sMemberDiscovery("my-service")
+ *       .setSnapshotFile(new File("/data/my-service.members"))
+ *       .setSnapshotMaxAge(1, TimeUnit.HOURS);
+ *
+ * }</pre>
+ * <p>
+ * <pre>{@code
+ *
+ *   // IPs of a headless service from the cluster DNS
+ *   // using the kubernetes master if DNS fails
+ *
+ *   List<String> ips =
+ *       new K8sMemberDiscovery("my-headless-service")
+ *       .setIpSource(K8sIpSource.DNS_WITH_API_FALLBACK)
+ *       .getOtherIps();
+ *
+ * }</pre>
+ * <p>
+ * <pre>{@code
+ *
+ *   // wait at startup for at least 2 ready members
+ *
+ *   K8sServiceMembers members = discovery.awaitMembers(2, 60, TimeUnit.SECONDS);
+ *
+ *   // wait for the current pod to be ready
+ *
+ *   discovery.awaitMembersAsync(members -> {
+ *       K8sServiceMember pod = members.findPod(currentPod);
+ *       return pod != null && pod.isReady();
+ *     })
+ *     .thenRun(() -> ...);
+ *
+ * }</pre>
+ * <p>
+ * <pre>{@code
+ *
+ *   // eject members failing TCP connects to their http port
+ *   // from the pickers until they pass again
+ *
+ *   K8sMemberDiscovery discovery =
+ *       new K8sMemberDiscovery("my-service")
+ *       .setHealthCheck(K8sHealthCheck.tcp("http", 200))
+ *       .startProbing();
+ *
+ *   K8sMemberPicker picker = discovery.roundRobin();
+ *
+ * }</pre>
+ * <p>
+ * <pre>{@code
+ *
+ *   // share the one load and refresh of the members with the
+ *   // other shared discoveries of this service in the JVM
+ *
+ *   K8sMemberDiscovery discovery =
+ *       new K8sMemberDiscovery("my-service")
+ *       .setShared(true)
+ *       .startRefresh();
+ *
+ *   ...
+ *   // the refresh stops when the last one is closed
+ *   discovery.close();
+ *
+ * }</pre>
  */
-public class K8sMemberDiscovery {
+public class K8sMemberDiscovery implements AutoCloseable {
 
 	private static final Logger log = LoggerFactory.getLogger(K8sMemberDiscovery.class);
 
+	private static final String ACCEPT_PROTOBUF = ProtobufMemberParser.CONTENT_TYPE + ", application/json";
+
 	protected String masterUrl = "https://kubernetes.default.svc.cluster.local:443";
 
 	protected String accountToken = "/var/run/secrets/kubernetes.io/serviceaccount/token";
@@ -61,7 +187,103 @@ public class K8sMemberDiscovery {
 
 	protected String podName;
 
-	protected K8sServiceMembers members;
+	protected final AtomicReference<K8sServiceMembers> members = new AtomicReference<>();
+
+	private final SingleFlight<K8sServiceMembers> singleFlight = new SingleFlight<>();
+
+	private final AtomicLong skippedCount = new AtomicLong();
+
+	private volatile K8sDiscoveryMetrics metrics = K8sDiscoveryMetrics.NOOP;
+
+	protected K8sDiscoveryMode mode = K8sDiscoveryMode.ENDPOINTS;
+
+	protected int pageSize = 500;
+
+	protected String labelSelector;
+
+	protected String addressType;
+
+	protected int watchTimeoutSeconds = 300;
+
+	protected long refreshIntervalMillis = 30_000;
+
+	protected double refreshJitter = 0.2;
+
+	protected long maxStalenessMillis;
+
+	protected volatile long lastLoadedMillis;
+
+	protected long snapshotMaxAgeMillis = 3_600_000;
+
+	protected boolean protobuf = true;
+
+	protected K8sIpSource ipSource = K8sIpSource.API;
+
+	protected String clusterDomain = "cluster.local";
+
+	protected InetSocketAddress dnsServer;
+
+	protected int dnsTimeoutMillis = 2000;
+
+	protected String podIp;
+
+	private volatile DnsIps dnsIps;
+
+	protected double rateLimit = 5;
+
+	protected int rateLimitBurst = 10;
+
+	private volatile SnapshotFile snapshotFile;
+
+	private final AtomicBoolean snapshotRestored = new AtomicBoolean();
+
+	protected final List<K8sMembersListener> listeners = new CopyOnWriteArrayList<>();
+
+	private final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+
+	private volatile MemberWatcher watcher;
+
+	private volatile MemberRefresher refresher;
+
+	private final MemberParser parser = new MemberParser();
+
+	private volatile EndpointSliceParser sliceParser = new EndpointSliceParser();
+
+	private final PodParser podParser = new PodParser();
+
+	private final ProtobufMemberParser protobufParser = new ProtobufMemberParser();
+
+	private final ReentrantLock parseLock = new ReentrantLock();
+
+	private volatile K8sTransport transport;
+
+	private volatile Executor executor;
+
+	protected boolean shared;
+
+	private volatile SharedDiscovery sharedEntry;
+
+	private volatile boolean sharedClosed;
+
+	private final K8sMembersListener sharedListener = this::notifyListeners;
+
+	protected K8sHealthCheck healthCheck;
+
+	protected long probeIntervalMillis = 1000;
+
+	protected int probeTimeoutMillis = 500;
+
+	protected int probeParallelism = 8;
+
+	protected int ejectAfterFailures = 2;
+
+	protected int readmitAfterSuccesses = 2;
+
+	protected int maxEjectionPercent = 50;
+
+	private Executor probeExecutor;
+
+	private volatile MemberProber prober;
 
 	/**
 	 * Create with a given service name.
@@ -70,6 +292,7 @@ public class K8sMemberDiscovery {
 		this.serviceName = serviceName;
 		this.namespace = read("POD_NAMESPACE");
 		this.podName = read("POD_NAME");
+		this.podIp = read("POD_IP");
 	}
 
 	/**
@@ -79,6 +302,7 @@ public class K8sMemberDiscovery {
 		this.serviceName = serviceName;
 		this.namespace = namespace;
 		this.podName = read("POD_NAME");
+		this.podIp = read("POD_IP");
 	}
 
 	private String read(String key) {
@@ -89,8 +313,10 @@ public class K8sMemberDiscovery {
 	 * Set the service name to find members for.
 	 */
 	public K8sMemberDiscovery setServiceName(String serviceName) {
+		checkNotSubscribed();
 		if (serviceName != null) {
 			this.serviceName = serviceName;
+			this.dnsIps = null;
 		}
 		return this;
 	}
@@ -99,8 +325,10 @@ public class K8sMemberDiscovery {
 	 * Set the namespace to search. Default to read env POD_NAMESPACE.
 	 */
 	public K8sMemberDiscovery setNamespace(String namespace) {
+		checkNotSubscribed();
 		if (namespace != null) {
 			this.namespace = namespace;
+			this.dnsIps = null;
 		}
 		return this;
 	}
@@ -119,8 +347,10 @@ public class K8sMemberDiscovery {
 	 * Sets Kubernetes master API url.
 	 */
 	public K8sMemberDiscovery setMasterUrl(String masterUrl) {
+		checkNotSubscribed();
 		if (masterUrl != null) {
 			this.masterUrl = masterUrl;
+			this.transport = null;
 		}
 		return this;
 	}
@@ -131,210 +361,1205 @@ public class K8sMemberDiscovery {
 	 * By default account token is read from '/var/run/secrets/kubernetes.io/serviceaccount/token'.
 	 */
 	public K8sMemberDiscovery setAccountToken(String accountToken) {
+		checkNotSubscribed();
 		if (accountToken != null) {
 			this.accountToken = accountToken;
+			this.transport = null;
 		}
 		return this;
 	}
 
 	/**
-	 * Return the masterUrl used.
+	 * Set the kubernetes API used to discover the members (default ENDPOINTS).
+	 * <p>
+	 * Use ENDPOINT_SLICES for services that can have more than 1000 members and PODS
+	 * for workloads without a Service.
 	 */
-	public String getMasterUrl() {
-		return masterUrl;
+	public K8sMemberDiscovery setMode(K8sDiscoveryMode mode) {
+		checkNotSubscribed();
+		if (mode != null) {
+			this.mode = mode;
+		}
+		return this;
 	}
 
 	/**
-	 * Return the service name used.
+	 * Set the label selector of the pods for mode PODS (defaults to app=serviceName).
 	 */
-	public String getServiceName() {
-		return serviceName;
+	public K8sMemberDiscovery setLabelSelector(String labelSelector) {
+		checkNotSubscribed();
+		this.labelSelector = labelSelector;
+		return this;
 	}
 
 	/**
-	 * Return the namespace used.
+	 * Set the address type of the EndpointSlices used for mode ENDPOINT_SLICES (IPv4 or IPv6).
+	 * <p>
+	 * By default the IPv4 slices are used, or the IPv6 slices when a service has no IPv4 slices.
+	 * The slices of other address types (like the second family of a dual-stack service) are ignored.
 	 */
-	public String getNamespace() {
-		return namespace;
+	public K8sMemberDiscovery setAddressType(String addressType) {
+		checkNotSubscribed();
+		if (addressType != null && !EndpointSliceParser.IPV4.equals(addressType) && !EndpointSliceParser.IPV6.equals(addressType)) {
+			throw new IllegalArgumentException("Unsupported address type " + addressType + " expecting IPv4 or IPv6");
+		}
+		this.addressType = addressType;
+		this.sliceParser = new EndpointSliceParser(addressType);
+		return this;
 	}
 
 	/**
-	 * Return the podName used (Often set as environment variable POD_NAME).
+	 * Set the maximum number of items fetched per request when listing (default 500).
 	 */
-	public String getPodName() {
-		return podName;
+	public K8sMemberDiscovery setPageSize(int pageSize) {
+		checkNotSubscribed();
+		this.pageSize = pageSize;
+		return this;
 	}
 
 	/**
-	 * Extract out the Ip Address from the members.
+	 * Set the server side timeout of each watch request in seconds (default 300).
+	 * <p>
+	 * When the server ends the watch it is resumed from the last seen resourceVersion.
 	 */
-	public List<String> mapIps(List<K8sServiceMember> members) {
-		return members.stream()
-				.map(K8sServiceMember::getIpAddress)
-				.collect(Collectors.toList());
+	public K8sMemberDiscovery setWatchTimeoutSeconds(int watchTimeoutSeconds) {
+		checkNotSubscribed();
+		this.watchTimeoutSeconds = watchTimeoutSeconds;
+		return this;
 	}
 
 	/**
-	 * Return the Ip address of the other service members.
+	 * Set the interval at which members are refreshed in the background (default 30 seconds).
+	 *
+	 * @see #startRefresh()
 	 */
-	public List<String> getOtherIps() {
-		return mapIps(getOtherMembers());
+	public K8sMemberDiscovery setRefreshInterval(long interval, TimeUnit unit) {
+		checkNotSubscribed();
+		this.refreshIntervalMillis = unit.toMillis(interval);
+		return this;
 	}
 
 	/**
-	 * Return the Ip address of all service members.
+	 * Set the random jitter applied to the refresh interval as a fraction (default 0.2 meaning +/- 20%).
+	 * <p>
+	 * This spreads the refreshes of many pods so they don't hit the kubernetes master together.
 	 */
-	public List<String> getAllIps() {
-		return mapIps(getAllMembers());
+	public K8sMemberDiscovery setRefreshJitter(double refreshJitter) {
+		checkNotSubscribed();
+		this.refreshJitter = refreshJitter;
+		return this;
 	}
 
 	/**
-	 * Return the Ip address of this pod (matched by pod name).
+	 * Set the maximum age of the members after which reads fail (when refreshing in the background).
+	 * <p>
+	 * By default there is no limit and the last good members are served when refreshing fails.
 	 */
-	public String getMemberIp() {
-		K8sServiceMember member = getMember();
-		return member != null ? member.getIpAddress() : null;
+	public K8sMemberDiscovery setMaxStaleness(long maxStaleness, TimeUnit unit) {
+		checkNotSubscribed();
+		this.maxStalenessMillis = unit.toMillis(maxStaleness);
+		return this;
 	}
 
 	/**
-	 * Return this pod (matched by pod name) or null searching both the members and 'notReady' members.
+	 * Set a file the members are saved to each time they change.
+	 * <p>
+	 * On startup the members in the file are served immediately (when not older than the
+	 * snapshot max age) while the members are reloaded in the background. This allows pods
+	 * to find their peers when the kubernetes master is slow or unavailable.
 	 */
-	public K8sServiceMember getMember() {
-		loadIfRequired();
-		if (podName == null) {
-			return null;
-
-		} else {
-			return members.findPod(podName);
-		}
+	public K8sMemberDiscovery setSnapshotFile(File snapshotFile) {
+		checkNotSubscribed();
+		this.snapshotFile = (snapshotFile == null) ? null : new SnapshotFile(snapshotFile);
+		return this;
 	}
 
 	/**
-	 * Return the members filtering out the current pod if it is set.
+	 * Set the maximum age of the members in the snapshot file for them to be used at startup.
+	 * <p>
+	 * Defaults to 1 hour.
 	 */
-	public List<K8sServiceMember> getOtherMembers() {
+	public K8sMemberDiscovery setSnapshotMaxAge(long maxAge, TimeUnit unit) {
+		checkNotSubscribed();
+		this.snapshotMaxAgeMillis = unit.toMillis(maxAge);
+		return this;
+	}
 
-		loadIfRequired();
-		if (podName == null) {
-			return members.getMembers();
-		}
-		// filter out the current pod
-		return members.getMembers()
-				.stream().filter(it -> !podName.equals(it.getPodName()))
-				.collect(Collectors.toList());
+	/**
+	 * Set to request the endpoints in the kubernetes protobuf encoding (default true).
+	 * <p>
+	 * Protobuf is smaller and faster to parse than JSON. JSON is used when the kubernetes
+	 * master responds with JSON. Set to false to always request JSON.
+	 */
+	public K8sMemberDiscovery setProtobuf(boolean protobuf) {
+		checkNotSubscribed();
+		this.protobuf = protobuf;
+		return this;
 	}
 
 	/**
-	 * Return all the members of this service including the current pod.
+	 * Set the source of the IPs returned by getAllIps() and getOtherIps() (default API).
+	 * <p>
+	 * With DNS the IPs are the A (or AAAA) records of the headless service
+	 * {@code <service>.<namespace>.svc.<clusterDomain>} cached for the record TTL.
 	 */
-	public List<K8sServiceMember> getAllMembers() {
-		loadIfRequired();
-		return members.getMembers();
+	public K8sMemberDiscovery setIpSource(K8sIpSource ipSource) {
+		if (ipSource != null) {
+			this.ipSource = ipSource;
+		}
+		return this;
 	}
 
 	/**
-	 * Return all the not ready members of this service.
-	 * This can include the current pod.
+	 * Set the cluster domain of the DNS names (default cluster.local).
 	 */
-	public List<K8sServiceMember> getNotReadyMembers() {
-		loadIfRequired();
-		return members.getNotReady();
+	public K8sMemberDiscovery setClusterDomain(String clusterDomain) {
+		if (clusterDomain != null) {
+			this.clusterDomain = clusterDomain;
+			this.dnsIps = null;
+		}
+		return this;
 	}
 
 	/**
-	 * Return the members.
+	 * Set the DNS server queried (defaults to the nameserver in /etc/resolv.conf).
 	 */
-	public K8sServiceMembers getMembers() {
-		loadIfRequired();
-		return members;
+	public K8sMemberDiscovery setDnsServer(String host, int port) {
+		this.dnsServer = new InetSocketAddress(host, port);
+		this.dnsIps = null;
+		return this;
 	}
 
 	/**
-	 * Force a reload of the members from the kubernetes master.
+	 * Set the timeout of each DNS query attempt (default 2 seconds).
 	 */
-	public void reload() {
-		members = loadAllMembers();
+	public K8sMemberDiscovery setDnsTimeout(long timeout, TimeUnit unit) {
+		this.dnsTimeoutMillis = (int) unit.toMillis(timeout);
+		this.dnsIps = null;
+		return this;
 	}
 
-	protected void loadIfRequired() {
-		if (members == null || members.isEmpty()) {
-			members = loadAllMembers();
-			log.debug("loaded all members for service:{} namespace:{} members:{}", serviceName, namespace, members);
+	/**
+	 * Set the IP of the current pod filtered out by getOtherIps() when the IPs are from DNS.
+	 * <p>
+	 * Defaults to read env POD_IP.
+	 */
+	public K8sMemberDiscovery setPodIp(String podIp) {
+		if (podIp != null) {
+			this.podIp = podIp;
 		}
+		return this;
 	}
 
-	protected K8sServiceMembers loadAllMembers() {
-
-		String path = "/api/v1/namespaces/" + namespace + "/endpoints/" + serviceName;
+	/**
+	 * Set the rate limit of requests to the kubernetes master (default 5 per second with bursts of 10).
+	 * <p>
+	 * A rate of 0 means unlimited. Requests are also paused for the Retry-After time when the
+	 * kubernetes master responds with 429 Too Many Requests.
+	 */
+	public K8sMemberDiscovery setRateLimit(double requestsPerSecond, int burst) {
+		checkNotSubscribed();
+		this.rateLimit = requestsPerSecond;
+		this.rateLimitBurst = burst;
+		this.transport = null;
+		return this;
+	}
 
-		try {
-			if (log.isTraceEnabled()) {
-				log.trace("loading member content from:{}", masterUrl + path);
-			}
-			URL url = new URL(masterUrl + path);
-			HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
-			conn.setHostnameVerifier(trustAllHosts);
+	/**
+	 * Set to share the members with the other shared discoveries in the JVM with the same
+	 * masterUrl, namespace, service, mode and label selector.
+	 * <p>
+	 * Shared discoveries use one load, refresh or watch and one immutable snapshot of the
+	 * members. The settings of the first one are used for the load. It is reference counted
+	 * with the refresh or watch stopping when the last shared discovery is closed.
+	 * <p>
+	 * The load settings can not be changed once the shared members are in use and a shared
+	 * discovery can not be used after it is closed.
+	 */
+	public K8sMemberDiscovery setShared(boolean shared) {
+		checkNotSubscribed();
+		this.shared = shared;
+		return this;
+	}
 
-			SSLContext ctx = SSLContext.getInstance("SSL");
-			ctx.init(null, trustAll, new SecureRandom());
-			conn.setSSLSocketFactory(ctx.getSocketFactory());
-			conn.addRequestProperty("Authorization", "Bearer " + serviceAccountToken(accountToken));
+	/**
+	 * Set the executor used to load members for the async methods.
+	 * <p>
+	 * Defaults to a shared pool of daemon threads. The loads perform blocking IO so this
+	 * should not be an event loop executor.
+	 */
+	public K8sMemberDiscovery setExecutor(Executor executor) {
+		checkNotSubscribed();
+		this.executor = executor;
+		return this;
+	}
 
-			String jsonContent = readContent(conn);
-			if (log.isTraceEnabled()) {
-				log.trace("K8s endpoints json: " + jsonContent);
-			}
-			return new MemberParser(jsonContent).parseJson();
+	/**
+	 * Set the check used when probing the members (default TCP connect to the first TCP port).
+	 *
+	 * @see #startProbing()
+	 */
+	public K8sMemberDiscovery setHealthCheck(K8sHealthCheck healthCheck) {
+		this.healthCheck = healthCheck;
+		return this;
+	}
 
-		} catch (Exception e) {
-			throw new IllegalStateException("Error getting members", e);
-		}
+	/**
+	 * Set the interval between probes of each member (default 1 second).
+	 */
+	public K8sMemberDiscovery setProbeInterval(long interval, TimeUnit unit) {
+		this.probeIntervalMillis = unit.toMillis(interval);
+		return this;
 	}
 
 	/**
-	 * Read the content as a String.
+	 * Set the connect timeout of the default TCP health check (default 500 milliseconds).
 	 */
-	private String readContent(HttpsURLConnection conn) throws IOException {
+	public K8sMemberDiscovery setProbeTimeout(long timeout, TimeUnit unit) {
+		this.probeTimeoutMillis = (int) unit.toMillis(timeout);
+		return this;
+	}
 
-		InputStream inputStream = conn.getInputStream();
-		InputStreamReader reader = new InputStreamReader(inputStream);
+	/**
+	 * Set the maximum number of members probed concurrently (default 8).
+	 */
+	public K8sMemberDiscovery setProbeParallelism(int probeParallelism) {
+		this.probeParallelism = probeParallelism;
+		return this;
+	}
 
-		LineNumberReader lineNumberReader = new LineNumberReader(reader);
-		StringBuilder sb = new StringBuilder();
-		String line;
-		while ((line = lineNumberReader.readLine()) != null) {
-			sb.append(line);
-		}
-		return sb.toString();
+	/**
+	 * Set the executor the health checks run on rather than a pool of probe parallelism threads.
+	 * <p>
+	 * For example a virtual thread per task executor where available.
+	 */
+	public K8sMemberDiscovery setProbeExecutor(Executor probeExecutor) {
+		this.probeExecutor = probeExecutor;
+		return this;
 	}
 
 	/**
-	 * Reads content of the service account token file.
+	 * Set when members are ejected from and re-admitted to the healthy members.
 	 *
-	 * @param file The path to the service account token.
-	 * @return Service account token.
+	 * @param ejectAfterFailures    consecutive failures that eject a member (default 2)
+	 * @param readmitAfterSuccesses consecutive successes that re-admit an ejected member (default 2)
+	 * @param maxEjectionPercent    maximum percent of members ejected at the same time (default 50)
 	 */
-	private String serviceAccountToken(String file) {
-		try {
-			return new String(Files.readAllBytes(Paths.get(file)));
-		} catch (IOException e) {
-			throw new RuntimeException("Failed to load services account token [setAccountToken= " + file + "]", e);
-		}
+	public K8sMemberDiscovery setOutlierEjection(int ejectAfterFailures, int readmitAfterSuccesses, int maxEjectionPercent) {
+		this.ejectAfterFailures = ejectAfterFailures;
+		this.readmitAfterSuccesses = readmitAfterSuccesses;
+		this.maxEjectionPercent = maxEjectionPercent;
+		return this;
 	}
 
-	private TrustManager[] trustAll = new TrustManager[]{
-			new X509TrustManager() {
-				public void checkServerTrusted(X509Certificate[] certs, String authType) {
-				}
+	/**
+	 * Set the metrics notified of fetches, refreshes and member counts.
+	 *
+	 * @see JmxDiscoveryMetrics
+	 */
+	public K8sMemberDiscovery setMetrics(K8sDiscoveryMetrics metrics) {
+		checkNotSubscribed();
+		this.metrics = (metrics == null) ? K8sDiscoveryMetrics.NOOP : metrics;
+		return this;
+	}
 
-				public void checkClientTrusted(X509Certificate[] certs, String authType) {
-				}
+	/**
+	 * Add a listener that is notified with the added, removed and readiness changed members.
+	 */
+	public K8sMemberDiscovery addListener(K8sMembersListener listener) {
+		listeners.add(listener);
+		return this;
+	}
 
-				public X509Certificate[] getAcceptedIssuers() {
-					return null;
-				}
+	/**
+	 * Remove a listener.
+	 */
+	public K8sMemberDiscovery removeListener(K8sMembersListener listener) {
+		listeners.remove(listener);
+		return this;
+	}
+
+	/**
+	 * Start watching the endpoints of the service keeping the members up to date.
+	 * <p>
+	 * This keeps a single long lived connection to the kubernetes master rather than
+	 * polling via {@link #reload()}. Listeners are notified of each change.
+	 */
+	public synchronized K8sMemberDiscovery startWatch() {
+		if (mode != K8sDiscoveryMode.ENDPOINTS) {
+			throw new IllegalStateException("Watch is only supported with mode ENDPOINTS");
+		}
+		if (shared) {
+			sharedSource().startWatch();
+		} else if (watcher == null) {
+			restoreSnapshot();
+			watcher = new MemberWatcher(this, watchTimeoutSeconds);
+			watcher.start();
+		}
+		return this;
+	}
+
+	/**
+	 * Start refreshing the members in the background using the refresh interval and jitter.
+	 * <p>
+	 * Reads are served from the last good members and do not block while a refresh is
+	 * in progress or when it fails. Failed refreshes are retried with exponential backoff.
+	 */
+	public synchronized K8sMemberDiscovery startRefresh() {
+		if (shared) {
+			sharedSource().startRefresh();
+		} else if (refresher == null) {
+			restoreSnapshot();
+			refresher = new MemberRefresher(serviceName, this::reload, refreshIntervalMillis, refreshJitter);
+			refresher.start(members.get() != null);
+		}
+		return this;
+	}
+
+	/**
+	 * Start probing the health of the members other than the current pod.
+	 * <p>
+	 * Members are checked in parallel each probe interval. Members failing consecutive checks
+	 * are ejected from {@link #getHealthyMembers()} and the pickers until they pass consecutive
+	 * checks again. This reacts to members that stop responding well before kubernetes marks
+	 * them not ready and without extra requests to the kubernetes master.
+	 */
+	public synchronized K8sMemberDiscovery startProbing() {
+		if (prober == null) {
+			K8sHealthCheck check = (healthCheck != null) ? healthCheck : K8sHealthCheck.tcpDefaultPort(probeTimeoutMillis);
+			prober = new MemberProber(serviceName, this::getOtherMembers, check, probeIntervalMillis,
+					ejectAfterFailures, readmitAfterSuccesses, maxEjectionPercent, probeParallelism, probeExecutor);
+			prober.start();
+		}
+		return this;
+	}
+
+	/**
+	 * Stop watching, refreshing or probing the members of the service.
+	 * <p>
+	 * When shared this releases the shared members which stop being watched or refreshed
+	 * when the last shared discovery is closed.
+	 */
+	@Override
+	public synchronized void close() {
+		if (shared) {
+			sharedClosed = true;
+		}
+		SharedDiscovery entry = sharedEntry;
+		if (entry != null) {
+			sharedEntry = null;
+			entry.source.removeListener(sharedListener);
+			entry.release();
+		}
+		if (watcher != null) {
+			watcher.stop();
+			watcher = null;
+		}
+		if (refresher != null) {
+			refresher.stop();
+			refresher = null;
+		}
+		if (prober != null) {
+			prober.stop();
+			prober = null;
+		}
+	}
+
+	/**
+	 * Return the mode used.
+	 */
+	public K8sDiscoveryMode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Return the masterUrl used.
+	 */
+	public String getMasterUrl() {
+		return masterUrl;
+	}
+
+	/**
+	 * Return the service name used.
+	 */
+	public String getServiceName() {
+		return serviceName;
+	}
+
+	/**
+	 * Return the namespace used.
+	 */
+	public String getNamespace() {
+		return namespace;
+	}
+
+	/**
+	 * Return the podName used (Often set as environment variable POD_NAME).
+	 */
+	public String getPodName() {
+		return podName;
+	}
+
+	/**
+	 * Return the number of loads skipped because the endpoints resourceVersion had not changed.
+	 */
+	public long getSkippedRefreshCount() {
+		if (shared) {
+			return sharedSource().getSkippedRefreshCount();
+		}
+		return skippedCount.get();
+	}
+
+	/**
+	 * Return the age in millis of the current members (time since last successfully loaded) or -1 if not loaded.
+	 */
+	public long getSnapshotAgeMillis() {
+		if (shared) {
+			return sharedSource().getSnapshotAgeMillis();
+		}
+		return members.get() == null ? -1 : System.currentTimeMillis() - lastLoadedMillis;
+	}
+
+	/**
+	 * Extract out the Ip Address from the members.
+	 */
+	public List<String> mapIps(List<K8sServiceMember> members) {
+		return members.stream()
+				.map(K8sServiceMember::getIpAddress)
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Return the Ip address of the other service members.
+	 */
+	public List<String> getOtherIps() {
+		List<String> ips = dnsIps();
+		if (ips != null) {
+			return podIp == null ? ips : ips.stream().filter(ip -> !ip.equals(podIp)).collect(Collectors.toList());
+		}
+		K8sServiceMembers snapshot = loadIfRequired();
+		return podName == null ? snapshot.getIps() : snapshot.getOtherIps(podName);
+	}
+
+	/**
+	 * Return the Ip address of all service members.
+	 */
+	public List<String> getAllIps() {
+		List<String> ips = dnsIps();
+		return ips != null ? ips : loadIfRequired().getIps();
+	}
+
+	/**
+	 * Return the IPs from DNS or null if the IP source is API or DNS failed with fallback.
+	 */
+	private List<String> dnsIps() {
+		if (ipSource == K8sIpSource.API) {
+			return null;
+		}
+		try {
+			return dns().get(executor());
+		} catch (RuntimeException e) {
+			if (ipSource == K8sIpSource.DNS) {
+				throw new IllegalStateException("Error getting IPs of service " + serviceName + " from DNS", e);
+			}
+			log.debug("DNS failed for service:{}, using the kubernetes master", serviceName, e);
+			return null;
+		}
+	}
+
+	private DnsIps dns() {
+		DnsIps current = dnsIps;
+		if (current == null) {
+			InetSocketAddress server = (dnsServer != null) ? dnsServer : DnsResolver.systemNameserver();
+			String name = serviceName + "." + namespace + ".svc." + clusterDomain;
+			current = new DnsIps(new DnsResolver(server, dnsTimeoutMillis), name);
+			dnsIps = current;
+		}
+		return current;
+	}
+
+	/**
+	 * Return the Ip address of this pod (matched by pod name).
+	 */
+	public String getMemberIp() {
+		K8sServiceMember member = getMember();
+		return member != null ? member.getIpAddress() : null;
+	}
+
+	/**
+	 * Return this pod (matched by pod name) or null searching both the members and 'notReady' members.
+	 */
+	public K8sServiceMember getMember() {
+		K8sServiceMembers snapshot = loadIfRequired();
+		if (podName == null) {
+			return null;
+
+		} else {
+			return snapshot.findPod(podName);
+		}
+	}
+
+	/**
+	 * Return the members filtering out the current pod if it is set.
+	 */
+	public List<K8sServiceMember> getOtherMembers() {
+
+		K8sServiceMembers snapshot = loadIfRequired();
+		if (podName == null) {
+			return snapshot.getMembers();
+		}
+		// filter out the current pod
+		return snapshot.getOtherMembers(podName);
+	}
+
+	/**
+	 * Return the members other than the current pod that are not ejected by probing.
+	 * <p>
+	 * This is the same as {@link #getOtherMembers()} when probing is not started.
+	 */
+	public List<K8sServiceMember> getHealthyMembers() {
+		List<K8sServiceMember> others = getOtherMembers();
+		MemberProber current = prober;
+		return (current == null) ? others : current.healthy(others);
+	}
+
+	/**
+	 * Report a failed request to the member counting towards its ejection when probing.
+	 */
+	public void reportFailure(K8sServiceMember member) {
+		MemberProber current = prober;
+		if (current != null) {
+			current.record(member, false);
+		}
+	}
+
+	/**
+	 * Return the members other than the current pod ranked by locality.
+	 * <p>
+	 * Members on the same node as the current pod come first, then members in the same
+	 * zone (EndpointSlice mode), then the rest. The ranking is computed once per snapshot.
+	 */
+	public List<K8sServiceMember> getRankedPeers() {
+		return loadIfRequired().getRankedPeers(podName);
+	}
+
+	/**
+	 * Return a round robin picker over the healthy members other than the current pod.
+	 */
+	public K8sMemberPicker roundRobin() {
+		return new RoundRobinPicker(this::getHealthyMembers);
+	}
+
+	/**
+	 * Return a picker over the healthy members other than the current pod that picks two members
+	 * at random and returns the one with the lower load.
+	 */
+	public K8sMemberPicker powerOfTwoChoices(K8sLoadFeedback feedback) {
+		return new LeastLoadedPicker(this::getHealthyMembers, feedback);
+	}
+
+	/**
+	 * Return a consistent hash picker over the healthy members other than the current pod.
+	 * <p>
+	 * The hash ring is rebuilt only when the members or ejections change.
+	 */
+	public K8sKeyedPicker consistentHash() {
+		return new HashRingPicker(this::getHealthyMembers);
+	}
+
+	/**
+	 * Return all the members of this service including the current pod.
+	 */
+	public List<K8sServiceMember> getAllMembers() {
+		return loadIfRequired().getMembers();
+	}
+
+	/**
+	 * Return all the not ready members of this service.
+	 * This can include the current pod.
+	 */
+	public List<K8sServiceMember> getNotReadyMembers() {
+		return loadIfRequired().getNotReady();
+	}
+
+	/**
+	 * Return the members.
+	 * <p>
+	 * This is an immutable snapshot giving a consistent view of the ready and notReady members.
+	 */
+	public K8sServiceMembers getMembers() {
+		return loadIfRequired();
+	}
+
+	/**
+	 * Wait for at least the given number of ready members returning them.
+	 *
+	 * @throws IllegalStateException when the timeout elapses or the thread is interrupted
+	 * @see #awaitMembers(Predicate, long, TimeUnit)
+	 */
+	public K8sServiceMembers awaitMembers(int minReady, long timeout, TimeUnit unit) {
+		return awaitMembers(minReadyCondition(minReady), timeout, unit);
+	}
+
+	/**
+	 * Wait for the members to match the given condition returning them.
+	 *
+	 * @throws IllegalStateException when the timeout elapses or the thread is interrupted
+	 * @see #awaitMembersAsync(Predicate)
+	 */
+	public K8sServiceMembers awaitMembers(Predicate<K8sServiceMembers> condition, long timeout, TimeUnit unit) {
+		CompletableFuture<K8sServiceMembers> future = awaitMembersAsync(condition);
+		try {
+			return future.get(timeout, unit);
+		} catch (TimeoutException e) {
+			future.cancel(false);
+			throw new IllegalStateException("Timed out after " + unit.toMillis(timeout) + "ms waiting for members of service " + serviceName);
+		} catch (InterruptedException e) {
+			future.cancel(false);
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted waiting for members of service " + serviceName, e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Error waiting for members of service " + serviceName, e.getCause());
+		}
+	}
+
+	/**
+	 * Return a future completed when there are at least the given number of ready members.
+	 *
+	 * @see #awaitMembersAsync(Predicate)
+	 */
+	public CompletableFuture<K8sServiceMembers> awaitMembersAsync(int minReady) {
+		return awaitMembersAsync(minReadyCondition(minReady));
+	}
+
+	/**
+	 * Return a future completed with the members when they match the given condition.
+	 * <p>
+	 * The condition is tested against the current members and then each time the members
+	 * change. Waiters do not poll, they are completed by the watch or refresh of the members
+	 * which is started if neither is running (a watch for mode ENDPOINTS otherwise a refresh)
+	 * such that any number of waiters share the one stream of loads. Cancel the future to
+	 * stop waiting.
+	 */
+	public CompletableFuture<K8sServiceMembers> awaitMembersAsync(Predicate<K8sServiceMembers> condition) {
+		if (shared) {
+			return sharedSource().awaitMembersAsync(condition);
+		}
+		Waiter waiter = new Waiter(condition);
+		waiters.add(waiter);
+		waiter.future.whenComplete((m, e) -> waiters.remove(waiter));
+		// test after adding so a concurrent change is not missed
+		K8sServiceMembers current = members.get();
+		if (current == null || !waiter.test(current)) {
+			startUpdates();
+		}
+		return waiter.future;
+	}
+
+	private static Predicate<K8sServiceMembers> minReadyCondition(int minReady) {
+		return members -> members.getMembers().size() >= minReady;
+	}
+
+	/**
+	 * Start watching or refreshing the members unless already doing so (for waiters).
+	 */
+	protected synchronized void startUpdates() {
+		if (watcher == null && refresher == null) {
+			if (mode == K8sDiscoveryMode.ENDPOINTS) {
+				startWatch();
+			} else {
+				startRefresh();
+			}
+		}
+	}
+
+	/**
+	 * Force a reload of the members from the kubernetes master.
+	 * <p>
+	 * Concurrent calls share the one load.
+	 */
+	public void reload() {
+		loadShared();
+	}
+
+	/**
+	 * Return the members without blocking the calling thread.
+	 * <p>
+	 * The returned future is already complete when the current members can be used, otherwise
+	 * the members are loaded using the executor with concurrent callers sharing the one load.
+	 *
+	 * @see #setExecutor(Executor)
+	 */
+	public CompletableFuture<K8sServiceMembers> loadMembersAsync() {
+		try {
+			K8sServiceMembers current = currentMembers();
+			if (current != null) {
+				return CompletableFuture.completedFuture(current);
+			}
+		} catch (IllegalStateException e) {
+			CompletableFuture<K8sServiceMembers> stale = new CompletableFuture<>();
+			stale.completeExceptionally(e);
+			return stale;
+		}
+		return reloadAsync();
+	}
+
+	/**
+	 * Force a reload of the members without blocking the calling thread.
+	 * <p>
+	 * Concurrent calls (sync or async) share the one load.
+	 */
+	public CompletableFuture<K8sServiceMembers> reloadAsync() {
+		if (shared) {
+			return sharedSource().reloadAsync();
+		}
+		return singleFlight.runAsync(this::loadAndPublish, executor());
+	}
+
+	private Executor executor() {
+		Executor exec = executor;
+		return exec != null ? exec : AsyncExecutor.INSTANCE;
+	}
+
+	/**
+	 * Return the current members loading them if there are no ready members.
+	 */
+	protected K8sServiceMembers loadIfRequired() {
+		K8sServiceMembers current = currentMembers();
+		if (current != null) {
+			return current;
+		}
+		K8sServiceMembers loaded = loadShared();
+		log.debug("loaded all members for service:{} namespace:{} members:{}", serviceName, namespace, loaded);
+		return loaded;
+	}
+
+	/**
+	 * Return the current members if they can be used without loading, otherwise null.
+	 */
+	protected K8sServiceMembers currentMembers() {
+		if (shared) {
+			return sharedSource().currentMembers();
+		}
+		K8sServiceMembers current = members.get();
+		if (current == null && restoreSnapshot()) {
+			current = members.get();
+		}
+		if (current != null && refresher != null) {
+			// serve the last good members while refreshing in the background
+			checkStaleness();
+			return current;
+		}
+		if (current != null && (watcher != null || !current.isEmpty())) {
+			// the watch keeps the members current including when the service has none
+			return current;
+		}
+		return null;
+	}
+
+	/**
+	 * Fail when the members are older than the max staleness.
+	 */
+	void checkStaleness() {
+		if (maxStalenessMillis > 0) {
+			long age = System.currentTimeMillis() - lastLoadedMillis;
+			if (age > maxStalenessMillis) {
+				throw new IllegalStateException("Members of service " + serviceName + " are stale, last loaded " + age + "ms ago");
+			}
+		}
+	}
+
+	/**
+	 * Load and publish the members with concurrent callers sharing the one in-flight load.
+	 */
+	private K8sServiceMembers loadShared() {
+		if (shared) {
+			return sharedSource().loadShared();
+		}
+		return singleFlight.run(this::loadAndPublish);
+	}
+
+	/**
+	 * Return the discovery that loads the shared members subscribing to it if required.
+	 */
+	private K8sMemberDiscovery sharedSource() {
+		SharedDiscovery entry = sharedEntry;
+		return (entry != null) ? entry.source : subscribe().source;
+	}
+
+	private synchronized SharedDiscovery subscribe() {
+		SharedDiscovery entry = sharedEntry;
+		if (entry == null) {
+			if (sharedClosed) {
+				throw new IllegalStateException("Shared discovery of service " + serviceName + " is closed");
+			}
+			entry = SharedDiscovery.acquire(this);
+			entry.source.addListener(sharedListener);
+			sharedEntry = entry;
+			K8sServiceMembers current = entry.source.members.get();
+			if (current != null && !listeners.isEmpty()) {
+				// already loaded by another shared discovery
+				MembershipDelta delta = MembershipDelta.of(null, current);
+				if (!delta.isEmpty()) {
+					notifyListeners(delta);
+				}
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Fail when the settings used by the shared members are changed after they are in use.
+	 * <p>
+	 * The shared members are created with the settings at first use so later changes would
+	 * otherwise be silently ignored.
+	 */
+	private void checkNotSubscribed() {
+		if (sharedEntry != null || sharedClosed) {
+			throw new IllegalStateException("Settings of shared discovery of service " + serviceName + " can not be changed once the shared members are in use");
+		}
+	}
+
+	/**
+	 * Return the key of the shared members.
+	 */
+	String sharedKey() {
+		return masterUrl + "|" + namespace + "|" + serviceName + "|" + mode + "|" + labelSelector + "|" + addressType;
+	}
+
+	/**
+	 * Create the discovery that loads the shared members using the settings of this one.
+	 */
+	K8sMemberDiscovery newSharedSource() {
+		K8sMemberDiscovery source = new K8sMemberDiscovery(serviceName, namespace)
+				.setMasterUrl(masterUrl)
+				.setAccountToken(accountToken)
+				.setMode(mode)
+				.setLabelSelector(labelSelector)
+				.setAddressType(addressType)
+				.setPageSize(pageSize)
+				.setWatchTimeoutSeconds(watchTimeoutSeconds)
+				.setRefreshInterval(refreshIntervalMillis, TimeUnit.MILLISECONDS)
+				.setRefreshJitter(refreshJitter)
+				.setMaxStaleness(maxStalenessMillis, TimeUnit.MILLISECONDS)
+				.setSnapshotMaxAge(snapshotMaxAgeMillis, TimeUnit.MILLISECONDS)
+				.setRateLimit(rateLimit, rateLimitBurst)
+				.setProtobuf(protobuf)
+				.setExecutor(executor)
+				.setMetrics(metrics);
+		source.snapshotFile = snapshotFile;
+		return source;
+	}
+
+	/**
+	 * Load and publish the members recording one outcome (refreshed, skipped or failed) of the load.
+	 * <p>
+	 * Used by reloads and by the relists of the watch.
+	 */
+	K8sServiceMembers loadAndPublish() {
+		return loadAndPublish(this::loadAllMembers);
+	}
+
+	/**
+	 * List the endpoints of the service for the watch publishing the members and returning
+	 * the resourceVersion of the list to watch from.
+	 * <p>
+	 * The resourceVersion of the endpoints object is that of its last change which is compacted
+	 * away while the endpoints are unchanged, so the watch resumes from the list resourceVersion.
+	 */
+	String relist(MemberParser listParser) {
+		loadAndPublish(() -> listEndpoints(listParser));
+		return listParser.getListResourceVersion();
+	}
+
+	private K8sServiceMembers loadAndPublish(Supplier<K8sServiceMembers> loader) {
+		K8sServiceMembers current = members.get();
+		K8sServiceMembers loaded;
+		try {
+			loaded = loader.get();
+		} catch (RuntimeException e) {
+			metrics.failed(e);
+			throw e;
+		}
+		if (loaded == current && current != null) {
+			// the current members are returned when the resourceVersion is unchanged
+			skippedCount.incrementAndGet();
+			metrics.skipped();
+		} else {
+			metrics.refreshed();
+		}
+		publish(loaded);
+		return loaded;
+	}
+
+	/**
+	 * Restore the members from the snapshot file (once) revalidating them in the background.
+	 *
+	 * @return true if the members were restored
+	 */
+	private boolean restoreSnapshot() {
+		SnapshotFile file = snapshotFile;
+		if (file == null || members.get() != null || !snapshotRestored.compareAndSet(false, true)) {
+			return false;
+		}
+		SnapshotFile.Entry entry = file.read(snapshotMaxAgeMillis);
+		if (entry == null || !members.compareAndSet(null, entry.members)) {
+			return false;
+		}
+		lastLoadedMillis = entry.timestamp;
+		log.info("restored members for service:{} from snapshot file with age:{}ms", serviceName, System.currentTimeMillis() - entry.timestamp);
+		changed(null, entry.members);
+		reloadAsync().whenComplete((loaded, e) -> {
+			if (e != null) {
+				log.warn("Failed to revalidate restored members for service:" + serviceName, e);
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Set the members notifying the listeners of the change in membership.
+	 */
+	protected void publish(K8sServiceMembers newMembers) {
+		long now = System.currentTimeMillis();
+		lastLoadedMillis = now;
+		K8sServiceMembers previous = members.getAndSet(newMembers);
+		if (previous == newMembers) {
+			return;
+		}
+		SnapshotFile file = snapshotFile;
+		if (file != null && !newMembers.isEmpty()) {
+			try {
+				file.write(newMembers, now);
+			} catch (IOException e) {
+				log.warn("Failed to write members snapshot file for service:" + serviceName, e);
+			}
+		}
+		changed(previous, newMembers);
+	}
+
+	private void changed(K8sServiceMembers previous, K8sServiceMembers newMembers) {
+		metrics.members(newMembers.getMembers().size(), newMembers.getNotReady().size());
+		for (Waiter waiter : waiters) {
+			waiter.test(newMembers);
+		}
+		if (listeners.isEmpty()) {
+			return;
+		}
+		MembershipDelta delta = MembershipDelta.of(previous, newMembers);
+		if (!delta.isEmpty()) {
+			notifyListeners(delta);
+		}
+	}
+
+	private void notifyListeners(MembershipDelta delta) {
+		for (K8sMembersListener listener : listeners) {
+			try {
+				listener.onChange(delta);
+			} catch (Exception e) {
+				log.error("Error notifying listener of member change", e);
+			}
+		}
+	}
+
+	protected K8sServiceMembers loadAllMembers() {
+		try {
+			switch (mode) {
+				case ENDPOINT_SLICES:
+					return loadEndpointSlices();
+				case PODS:
+					return loadPods();
+				default:
+					return loadEndpoints();
+			}
+
+		} catch (Exception e) {
+			throw new IllegalStateException("Error getting members", e);
+		}
+	}
+
+	private K8sServiceMembers loadEndpoints() throws IOException {
+
+		String path = "/api/v1/namespaces/" + namespace + "/endpoints/" + serviceName;
+		if (log.isTraceEnabled()) {
+			log.trace("loading member content from:{}", masterUrl + path);
+		}
+		K8sServiceMembers current = members.get();
+		String currentVersion = current == null ? null : current.getResourceVersion();
+
+		long start = System.nanoTime();
+		HttpURLConnection conn = transport().get(path, protobuf ? ACCEPT_PROTOBUF : "application/json");
+		InputStream inputStream = K8sTransport.content(conn);
+		long fetched = System.nanoTime();
+		K8sServiceMembers loaded;
+		parseLock.lock();
+		try {
+			if (ProtobufMemberParser.isProtobuf(conn.getContentType())) {
+				loaded = protobufParser.parse(inputStream, currentVersion);
+				metrics.fetched(fetched - start, System.nanoTime() - fetched, protobufParser.getBytesRead());
+			} else {
+				// JSON when protobuf is not wanted or not served
+				loaded = parser.parse(inputStream, currentVersion);
+				metrics.fetched(fetched - start, System.nanoTime() - fetched, parser.getBytesRead());
+			}
+		} finally {
+			parseLock.unlock();
+			// the rest of the content is not parsed when unchanged, drain such that the connection is reused
+			K8sTransport.drain(inputStream);
+		}
+		if (loaded == null) {
+			log.trace("members unchanged at resourceVersion:{}", currentVersion);
+			return current;
+		}
+		return loaded;
+	}
+
+	/**
+	 * List the endpoints of the service (by field selector) returning empty members when the
+	 * service has no endpoints object.
+	 */
+	private K8sServiceMembers listEndpoints(MemberParser listParser) {
+		try {
+			String path = "/api/v1/namespaces/" + namespace + "/endpoints?fieldSelector=" + encode("metadata.name=" + serviceName);
+			if (log.isTraceEnabled()) {
+				log.trace("listing member content from:{}", masterUrl + path);
+			}
+			Map<String, K8sServiceMembers> wanted = Collections.singletonMap(serviceName, members.get());
+			Map<String, K8sServiceMembers> result = new HashMap<>(2);
+			long start = System.nanoTime();
+			InputStream inputStream = K8sTransport.content(transport().get(path));
+			long fetched = System.nanoTime();
+			try {
+				listParser.startList();
+				listParser.parseListPage(inputStream, wanted, result);
+				metrics.fetched(fetched - start, System.nanoTime() - fetched, listParser.getBytesRead());
+			} finally {
+				K8sTransport.drain(inputStream);
 			}
-	};
+			K8sServiceMembers loaded = result.get(serviceName);
+			return (loaded != null) ? loaded : new K8sServiceMembers(null, Collections.emptyList(), Collections.emptyList());
+
+		} catch (Exception e) {
+			throw new IllegalStateException("Error getting members", e);
+		}
+	}
+
+	/**
+	 * List the EndpointSlices of the service.
+	 */
+	private K8sServiceMembers loadEndpointSlices() throws IOException {
+		String path = "/apis/discovery.k8s.io/v1/namespaces/" + namespace + "/endpointslices"
+				+ "?labelSelector=" + encode("kubernetes.io/service-name=" + serviceName)
+				+ "&limit=" + pageSize;
+		return loadList(path, sliceParser);
+	}
+
+	/**
+	 * List the running pods matching the label selector.
+	 */
+	private K8sServiceMembers loadPods() throws IOException {
+		String selector = (labelSelector != null) ? labelSelector : "app=" + serviceName;
+		String path = "/api/v1/namespaces/" + namespace + "/pods"
+				+ "?labelSelector=" + encode(selector)
+				+ "&fieldSelector=" + encode("status.phase=Running")
+				+ "&limit=" + pageSize;
+		return loadList(path, podParser);
+	}
 
-	private HostnameVerifier trustAllHosts = (hostname, session) -> true;
+	/**
+	 * Load the list page by page parsing each page as it is read.
+	 */
+	private K8sServiceMembers loadList(String path, ListParser listParser) throws IOException {
+		parseLock.lock();
+		try {
+			listParser.start();
+			String continueToken = null;
+			do {
+				String pagePath = (continueToken == null) ? path : path + "&continue=" + encode(continueToken);
+				if (log.isTraceEnabled()) {
+					log.trace("loading member content from:{}", masterUrl + pagePath);
+				}
+				long start = System.nanoTime();
+				InputStream inputStream = K8sTransport.content(transport().get(pagePath));
+				long fetched = System.nanoTime();
+				try {
+					continueToken = listParser.parsePage(inputStream);
+					metrics.fetched(fetched - start, System.nanoTime() - fetched, listParser.getBytesRead());
+				} finally {
+					K8sTransport.drain(inputStream);
+				}
+			} while (continueToken != null && !continueToken.isEmpty());
+			return listParser.members();
+		} finally {
+			parseLock.unlock();
+		}
+	}
+
+	private static String encode(String value) throws UnsupportedEncodingException {
+		return URLEncoder.encode(value, "UTF-8");
+	}
+
+	/**
+	 * Open a connection to the kubernetes master for the given path (and query).
+	 */
+	HttpURLConnection openConnection(String path) throws IOException {
+		return transport().open(path);
+	}
+
+	/**
+	 * Return the transport to the kubernetes master (reused across loads).
+	 */
+	K8sTransport transport() {
+		K8sTransport current = transport;
+		if (current == null) {
+			current = new K8sTransport(masterUrl, accountToken, new RateLimiter(rateLimit, rateLimitBurst));
+			transport = current;
+		}
+		return current;
+	}
+
+	/**
+	 * A condition waited for by {@link #awaitMembersAsync(Predicate)}.
+	 */
+	private static final class Waiter {
+
+		private final Predicate<K8sServiceMembers> condition;
+
+		private final CompletableFuture<K8sServiceMembers> future = new CompletableFuture<>();
+
+		Waiter(Predicate<K8sServiceMembers> condition) {
+			this.condition = condition;
+		}
+
+		/**
+		 * Complete the future if the members match the condition returning true if completed.
+		 */
+		boolean test(K8sServiceMembers members) {
+			if (future.isDone()) {
+				return true;
+			}
+			try {
+				if (condition.test(members)) {
+					future.complete(members);
+					return true;
+				}
+				return false;
+			} catch (RuntimeException e) {
+				future.completeExceptionally(e);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Shared default executor for the async loads.
+	 */
+	private static final class AsyncExecutor {
+
+		static final ExecutorService INSTANCE = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "k8s-discovery-async");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
 }
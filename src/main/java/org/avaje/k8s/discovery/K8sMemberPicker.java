@@ -0,0 +1,18 @@
+package org.avaje.k8s.discovery;
+
+/**
+ * Picks a member (peer) to send a request to from the current members.
+ * <p>
+ * Pickers are thread safe, always use the current members and do not allocate when picking.
+ *
+ * @see K8sMemberDiscovery#roundRobin()
+ * @see K8sMemberDiscovery#powerOfTwoChoices(K8sLoadFeedback)
+ */
+@FunctionalInterface
+public interface K8sMemberPicker {
+
+	/**
+	 * Return the member to use or null if there are no members.
+	 */
+	K8sServiceMember pick();
+}
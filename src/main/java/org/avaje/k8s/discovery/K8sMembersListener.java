@@ -0,0 +1,16 @@
+package org.avaje.k8s.discovery;
+
+/**
+ * Listener notified when the membership of the service changes.
+ */
+@FunctionalInterface
+public interface K8sMembersListener {
+
+	/**
+	 * The membership of the service has changed.
+	 * <p>
+	 * The delta holds the members that were added, removed or changed readiness
+	 * along with the previous and new members.
+	 */
+	void onChange(MembershipDelta delta);
+}
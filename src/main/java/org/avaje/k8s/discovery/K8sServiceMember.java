@@ -1,18 +1,47 @@
 package org.avaje.k8s.discovery;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable member (pod) of a service.
+ */
 public class K8sServiceMember {
 
-	private String ipAddress;
-	private String nodeName;
-	private String podName;
+	private final String ipAddress;
+	private final String nodeName;
+	private final String podName;
+
+	private final boolean ready;
+	private final boolean serving;
+	private final boolean terminating;
+
+	private final Map<String, String> labels;
 
-	private boolean ready;
+	private final String zone;
+	private final String hostname;
+	private final List<K8sServicePort> ports;
 
 	public K8sServiceMember(String ipAddress, String nodeName, String podName, boolean ready) {
+		this(ipAddress, nodeName, podName, ready, ready, false, Collections.emptyMap(), null, null, Collections.emptyList());
+	}
+
+	/**
+	 * Create with all the properties as read by the parsers (the ports are immutable).
+	 */
+	K8sServiceMember(String ipAddress, String nodeName, String podName, boolean ready, boolean serving, boolean terminating,
+			Map<String, String> labels, String zone, String hostname, List<K8sServicePort> ports) {
 		this.ipAddress = ipAddress;
 		this.nodeName = nodeName;
 		this.podName = podName;
 		this.ready = ready;
+		this.serving = serving;
+		this.terminating = terminating;
+		this.labels = labels.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(labels);
+		this.zone = zone;
+		this.hostname = hostname;
+		this.ports = ports;
 	}
 
 	public String toString() {
@@ -20,17 +49,26 @@ public class K8sServiceMember {
 	}
 
 	/**
-	 * Change the ready status.
+	 * Return true if the member was in the notReady list.
 	 */
-	public void setReady(boolean ready) {
-		this.ready = ready;
+	public boolean isReady() {
+		return ready;
 	}
 
 	/**
-	 * Return true if the member was in the notReady list.
+	 * Return true if the member is serving (which can be true while terminating).
+	 * <p>
+	 * Only distinct from ready with the EndpointSlice mode.
 	 */
-	public boolean isReady() {
-		return ready;
+	public boolean isServing() {
+		return serving;
+	}
+
+	/**
+	 * Return true if the member is terminating (EndpointSlice and Pods mode only).
+	 */
+	public boolean isTerminating() {
+		return terminating;
 	}
 
 	public String getIpAddress() {
@@ -44,4 +82,44 @@ public class K8sServiceMember {
 	public String getPodName() {
 		return podName;
 	}
+
+	/**
+	 * Return the labels of the pod (Pods mode only, otherwise empty).
+	 */
+	public Map<String, String> getLabels() {
+		return labels;
+	}
+
+	/**
+	 * Return the zone of the member (EndpointSlice mode only, otherwise null).
+	 */
+	public String getZone() {
+		return zone;
+	}
+
+	/**
+	 * Return the hostname of the member (set for pods of StatefulSets and pods with a hostname).
+	 */
+	public String getHostname() {
+		return hostname;
+	}
+
+	/**
+	 * Return the ports of the member.
+	 */
+	public List<K8sServicePort> getPorts() {
+		return ports;
+	}
+
+	/**
+	 * Return the port with the given name or null if there is no such port.
+	 */
+	public K8sServicePort getPort(String name) {
+		for (K8sServicePort port : ports) {
+			if (name.equals(port.getName())) {
+				return port;
+			}
+		}
+		return null;
+	}
 }
@@ -1,29 +1,113 @@
 package org.avaje.k8s.discovery;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
- * Pod members of a specific service (or label)
+ * Pod members of a specific service (or label).
+ * <p>
+ * This is an immutable snapshot of the ready and notReady members
+ * that is safe to share and read across threads.
+ * <p>
+ * Indexes by pod name, IP address and node name are built when the snapshot is
+ * created so lookups are constant time and repeated reads do not allocate.
+ * <p>
+ * For services with many members the snapshot is kept compact. The members are held in
+ * one exactly sized array (ready then notReady) with the lists being views of it, the pod
+ * name and IP indexes are int tables over that array and the parsers intern repeated
+ * strings like node names through a per snapshot dictionary.
  */
 public class K8sServiceMembers {
 
-	private final List<K8sServiceMember> members = new ArrayList<>();
-	private final List<K8sServiceMember> notReady = new ArrayList<>();
+	private final List<K8sServiceMember> members;
+	private final List<K8sServiceMember> notReady;
 
+	private final String resourceVersion;
+
+	private final List<String> ips;
+
+	private final MemberIndex byPodName;
+	private final MemberIndex byIp;
+	private final Map<String, List<K8sServiceMember>> byNodeName;
+
+	/**
+	 * The members other than the last requested pod.
+	 */
+	private volatile Others others;
+
+	/**
+	 * Create with no members.
+	 */
 	public K8sServiceMembers() {
+		this(null, Collections.emptyList(), Collections.emptyList());
+	}
+
+	/**
+	 * Create with the given ready and notReady members.
+	 */
+	public K8sServiceMembers(List<K8sServiceMember> members, List<K8sServiceMember> notReady) {
+		this(null, new ArrayList<>(members), new ArrayList<>(notReady));
+	}
+
+	/**
+	 * Create taking ownership of the given lists (which must not be modified after).
+	 */
+	K8sServiceMembers(String resourceVersion, List<K8sServiceMember> members, List<K8sServiceMember> notReady) {
+		this.resourceVersion = resourceVersion;
+		int readyCount = members.size();
+		K8sServiceMember[] all = new K8sServiceMember[readyCount + notReady.size()];
+		for (int i = 0; i < readyCount; i++) {
+			all[i] = members.get(i);
+		}
+		for (int i = readyCount; i < all.length; i++) {
+			all[i] = notReady.get(i - readyCount);
+		}
+		List<K8sServiceMember> allList = Arrays.asList(all);
+		this.members = Collections.unmodifiableList(allList.subList(0, readyCount));
+		this.notReady = Collections.unmodifiableList(allList.subList(readyCount, all.length));
+		this.ips = ips(this.members);
+		// ready members take precedence over notReady ones
+		this.byPodName = new MemberIndex(all, MemberIndex.POD_NAME);
+		this.byIp = new MemberIndex(all, MemberIndex.IP_ADDRESS);
+		this.byNodeName = byNodeName(all);
+	}
+
+	private static Map<String, List<K8sServiceMember>> byNodeName(K8sServiceMember[] all) {
+		Map<String, List<K8sServiceMember>> map = new HashMap<>();
+		for (K8sServiceMember member : all) {
+			if (member.getNodeName() != null) {
+				map.computeIfAbsent(member.getNodeName(), name -> new ArrayList<>(4)).add(member);
+			}
+		}
+		for (Map.Entry<String, List<K8sServiceMember>> entry : map.entrySet()) {
+			// exactly sized
+			List<K8sServiceMember> list = entry.getValue();
+			entry.setValue(Collections.unmodifiableList(Arrays.asList(list.toArray(new K8sServiceMember[0]))));
+		}
+		return map;
+	}
+
+	private static List<String> ips(List<K8sServiceMember> list) {
+		String[] ips = new String[list.size()];
+		for (int i = 0; i < ips.length; i++) {
+			ips[i] = list.get(i).getIpAddress();
+		}
+		return Collections.unmodifiableList(Arrays.asList(ips));
 	}
 
 	public String toString() {
 		return "members:" + members + " notReady:" + notReady;
 	}
 
-	public void add(boolean ready, K8sServiceMember member) {
-		if (ready) {
-			members.add(member);
-		} else {
-			notReady.add(member);
-		}
+	/**
+	 * Return the resourceVersion of the endpoints object these members were read from.
+	 */
+	public String getResourceVersion() {
+		return resourceVersion;
 	}
 
 	public boolean isEmpty() {
@@ -44,15 +128,76 @@ public class K8sServiceMembers {
 		return notReady;
 	}
 
+	/**
+	 * Return the IP addresses of the ready members.
+	 */
+	public List<String> getIps() {
+		return ips;
+	}
+
+	/**
+	 * Return the ready members other than the given pod.
+	 * <p>
+	 * This is computed once for the pod and then returned without allocation.
+	 */
+	public List<K8sServiceMember> getOtherMembers(String podName) {
+		if (podName == null) {
+			return members;
+		}
+		return others(podName).members;
+	}
+
+	/**
+	 * Return the IP addresses of the ready members other than the given pod.
+	 */
+	public List<String> getOtherIps(String podName) {
+		if (podName == null) {
+			return ips;
+		}
+		return others(podName).ips;
+	}
+
+	/**
+	 * Return the ready members other than the given pod ranked by locality to it.
+	 * <p>
+	 * Members on the same node as the pod come first, then members in the same zone,
+	 * then the rest. This is computed once for the pod and then returned without allocation.
+	 */
+	public List<K8sServiceMember> getRankedPeers(String podName) {
+		if (podName == null) {
+			return members;
+		}
+		return others(podName).ranked;
+	}
+
+	private Others others(String podName) {
+		Others current = others;
+		if (current == null || !current.podName.equals(podName)) {
+			current = new Others(podName, byPodName.get(podName), members);
+			others = current;
+		}
+		return current;
+	}
+
 	/**
 	 * Find the member searching the notReady members as well.
 	 */
 	public K8sServiceMember findPod(String podName) {
-		K8sServiceMember member = findPod(podName, members);
-		if (member == null) {
-			member = findPod(podName, notReady);
-		}
-		return member;
+		return byPodName.get(podName);
+	}
+
+	/**
+	 * Find the member with the given IP address searching the notReady members as well.
+	 */
+	public K8sServiceMember findByIp(String ipAddress) {
+		return byIp.get(ipAddress);
+	}
+
+	/**
+	 * Return the members (ready and notReady) on the given node.
+	 */
+	public List<K8sServiceMember> findByNode(String nodeName) {
+		return byNodeName.getOrDefault(nodeName, Collections.emptyList());
 	}
 
 	/**
@@ -65,4 +210,49 @@ public class K8sServiceMembers {
 				.findFirst().orElse(null);
 	}
 
+	/**
+	 * The ready members excluding a given pod.
+	 */
+	private static class Others {
+
+		private final String podName;
+		private final List<K8sServiceMember> members;
+		private final List<String> ips;
+		private final List<K8sServiceMember> ranked;
+
+		Others(String podName, K8sServiceMember self, List<K8sServiceMember> all) {
+			List<K8sServiceMember> list = new ArrayList<>(all.size());
+			for (K8sServiceMember member : all) {
+				if (!podName.equals(member.getPodName())) {
+					list.add(member);
+				}
+			}
+			this.podName = podName;
+			this.members = Collections.unmodifiableList(list);
+			this.ips = ips(list);
+			this.ranked = (self == null) ? members : rank(self, list);
+		}
+
+		private static List<K8sServiceMember> rank(K8sServiceMember self, List<K8sServiceMember> list) {
+			String node = self.getNodeName();
+			String zone = self.getZone();
+			List<K8sServiceMember> sameNode = new ArrayList<>();
+			List<K8sServiceMember> sameZone = new ArrayList<>();
+			List<K8sServiceMember> rest = new ArrayList<>();
+			for (K8sServiceMember member : list) {
+				if (node != null && node.equals(member.getNodeName())) {
+					sameNode.add(member);
+				} else if (zone != null && zone.equals(member.getZone())) {
+					sameZone.add(member);
+				} else {
+					rest.add(member);
+				}
+			}
+			List<K8sServiceMember> ranked = new ArrayList<>(list.size());
+			ranked.addAll(sameNode);
+			ranked.addAll(sameZone);
+			ranked.addAll(rest);
+			return Collections.unmodifiableList(ranked);
+		}
+	}
 }
@@ -0,0 +1,42 @@
+package org.avaje.k8s.discovery;
+
+/**
+ * An immutable port of a member (name, port number and protocol).
+ */
+public class K8sServicePort {
+
+	private final String name;
+	private final int port;
+	private final String protocol;
+
+	public K8sServicePort(String name, int port, String protocol) {
+		this.name = name;
+		this.port = port;
+		this.protocol = protocol;
+	}
+
+	public String toString() {
+		return (name == null ? "" : name + ":") + port + "/" + protocol;
+	}
+
+	/**
+	 * Return the name of the port (optional when there is only one port).
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Return the port number.
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Return the protocol (TCP, UDP or SCTP).
+	 */
+	public String getProtocol() {
+		return protocol;
+	}
+}
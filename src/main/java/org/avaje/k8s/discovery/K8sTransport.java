@@ -0,0 +1,251 @@
+package org.avaje.k8s.discovery;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Connections to the kubernetes master reused across loads.
+ * <p>
+ * The SSL socket factory is built once and shared such that the JDK keep-alive cache pools
+ * the connections to the master (responses are fully read and closed for this to happen).
+ * The service account token is cached and only re-read when the file modified time changes
+ * as projected service account tokens are rotated.
+ * <p>
+ * Requests are rate limited with a token bucket. A 429 response pauses all requests for
+ * the Retry-After time and the request is retried (a limited number of times).
+ * <p>
+ * GET requests accept gzip content encoding which the kubernetes master uses for large
+ * responses, with {@link #content(HttpURLConnection)} decompressing it.
+ */
+class K8sTransport {
+
+	private static final HostnameVerifier trustAllHosts = (hostname, session) -> true;
+
+	static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+	private static final int MAX_RETRIES = 2;
+
+	private static final long DEFAULT_RETRY_AFTER_MILLIS = 1000;
+
+	/**
+	 * Longer Retry-After times are not waited for inline but fail the load.
+	 */
+	private static final long MAX_INLINE_RETRY_AFTER_MILLIS = 10_000;
+
+	private final String masterUrl;
+
+	private final Path tokenPath;
+
+	private final RateLimiter rateLimiter;
+
+	private volatile CachedToken token;
+
+	K8sTransport(String masterUrl, String accountToken) {
+		this(masterUrl, accountToken, new RateLimiter(0, 1));
+	}
+
+	K8sTransport(String masterUrl, String accountToken, RateLimiter rateLimiter) {
+		this.masterUrl = masterUrl;
+		this.tokenPath = Paths.get(accountToken);
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Return the master url.
+	 */
+	String getMasterUrl() {
+		return masterUrl;
+	}
+
+	/**
+	 * Open a connection to the kubernetes master for the given path (and query).
+	 */
+	HttpURLConnection open(String path) throws IOException {
+
+		rateLimiter.acquire();
+		URL url = new URL(masterUrl + path);
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		if (conn instanceof HttpsURLConnection) {
+			HttpsURLConnection httpsConn = (HttpsURLConnection) conn;
+			httpsConn.setHostnameVerifier(trustAllHosts);
+			httpsConn.setSSLSocketFactory(TrustAll.socketFactory());
+		}
+		conn.addRequestProperty("Authorization", "Bearer " + token());
+		return conn;
+	}
+
+	/**
+	 * GET the given path retrying when throttled (429) after the Retry-After time.
+	 * <p>
+	 * Other unsuccessful responses are returned (and throw on getInputStream()).
+	 */
+	HttpURLConnection get(String path) throws IOException {
+		return get(path, "application/json");
+	}
+
+	/**
+	 * GET the given path accepting the given content type(s) and gzip content encoding.
+	 *
+	 * @see #get(String)
+	 */
+	HttpURLConnection get(String path, String accept) throws IOException {
+		for (int attempt = 0; ; attempt++) {
+			HttpURLConnection conn = open(path);
+			conn.setRequestProperty("Accept", accept);
+			conn.setRequestProperty("Accept-Encoding", "gzip");
+			long retryAfter = throttled(conn);
+			if (retryAfter < 0) {
+				return conn;
+			}
+			drainError(conn);
+			if (attempt == MAX_RETRIES || retryAfter > MAX_INLINE_RETRY_AFTER_MILLIS) {
+				throw new IOException("Throttled by the kubernetes master (429) with Retry-After " + retryAfter + "ms for " + path);
+			}
+		}
+	}
+
+	/**
+	 * Return the content of the response decompressing it when gzip encoded.
+	 */
+	static InputStream content(HttpURLConnection conn) throws IOException {
+		InputStream inputStream = conn.getInputStream();
+		if ("gzip".equalsIgnoreCase(conn.getContentEncoding())) {
+			return new GZIPInputStream(inputStream, 8192);
+		}
+		return inputStream;
+	}
+
+	/**
+	 * Pause requests if the response is 429 Too Many Requests.
+	 *
+	 * @return The Retry-After millis or -1 if not throttled
+	 */
+	long throttled(HttpURLConnection conn) throws IOException {
+		if (conn.getResponseCode() != HTTP_TOO_MANY_REQUESTS) {
+			return -1;
+		}
+		long retryAfter = retryAfterMillis(conn.getHeaderField("Retry-After"));
+		rateLimiter.pause(retryAfter);
+		return retryAfter;
+	}
+
+	/**
+	 * Return the Retry-After header (delay seconds) in millis.
+	 */
+	static long retryAfterMillis(String retryAfter) {
+		if (retryAfter != null) {
+			try {
+				return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+			} catch (NumberFormatException e) {
+				// an HTTP date, not used by the kubernetes master
+			}
+		}
+		return DEFAULT_RETRY_AFTER_MILLIS;
+	}
+
+	/**
+	 * Read any remaining content and close the stream such that the connection can be reused.
+	 */
+	static void drain(InputStream inputStream) throws IOException {
+		if (inputStream != null) {
+			try {
+				byte[] skip = new byte[1024];
+				while (inputStream.read(skip) != -1) {
+					// read to the end
+				}
+			} finally {
+				inputStream.close();
+			}
+		}
+	}
+
+	/**
+	 * Read the error content of an unsuccessful response such that the connection can be reused.
+	 */
+	static void drainError(HttpURLConnection conn) {
+		try {
+			drain(conn.getErrorStream());
+		} catch (IOException e) {
+			conn.disconnect();
+		}
+	}
+
+	/**
+	 * Return the service account token re-reading the file when it has been modified.
+	 */
+	String token() {
+		try {
+			FileTime modified = Files.getLastModifiedTime(tokenPath);
+			CachedToken cached = token;
+			if (cached == null || !cached.modified.equals(modified)) {
+				cached = new CachedToken(modified, new String(Files.readAllBytes(tokenPath), StandardCharsets.UTF_8).trim());
+				token = cached;
+			}
+			return cached.value;
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to load services account token [setAccountToken= " + tokenPath + "]", e);
+		}
+	}
+
+	private static class CachedToken {
+
+		private final FileTime modified;
+		private final String value;
+
+		private CachedToken(FileTime modified, String value) {
+			this.modified = modified;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Lazily built trust all SSL socket factory shared by all connections.
+	 */
+	private static class TrustAll {
+
+		private static final SSLSocketFactory factory = create();
+
+		static SSLSocketFactory socketFactory() {
+			return factory;
+		}
+
+		private static SSLSocketFactory create() {
+			TrustManager[] trustAll = new TrustManager[]{
+					new X509TrustManager() {
+						public void checkServerTrusted(X509Certificate[] certs, String authType) {
+						}
+
+						public void checkClientTrusted(X509Certificate[] certs, String authType) {
+						}
+
+						public X509Certificate[] getAcceptedIssuers() {
+							return null;
+						}
+					}
+			};
+			try {
+				SSLContext ctx = SSLContext.getInstance("TLS");
+				ctx.init(null, trustAll, null);
+				return ctx.getSocketFactory();
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException("Failed to initialise SSL context", e);
+			}
+		}
+	}
+}
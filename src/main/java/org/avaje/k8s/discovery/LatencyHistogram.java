@@ -0,0 +1,52 @@
+package org.avaje.k8s.discovery;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of latencies with exponential (power of 2) microsecond buckets.
+ */
+class LatencyHistogram {
+
+	private static final int BUCKETS = 40;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	/**
+	 * Record a latency in nanos.
+	 */
+	void record(long nanos) {
+		long micros = Math.max(1, nanos / 1000);
+		int bucket = Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+		counts.incrementAndGet(bucket);
+	}
+
+	/**
+	 * Return the total number of latencies recorded.
+	 */
+	long count() {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		return total;
+	}
+
+	/**
+	 * Return the upper bound in microseconds of the bucket holding the given percentile (0 to 100).
+	 */
+	long percentileMicros(double percentile) {
+		long total = count();
+		if (total == 0) {
+			return 0;
+		}
+		long target = (long) Math.ceil(total * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return (1L << (i + 1)) - 1;
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+}
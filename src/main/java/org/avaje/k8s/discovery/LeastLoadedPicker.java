@@ -0,0 +1,36 @@
+package org.avaje.k8s.discovery;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Power of two choices, picks two members at random and returns the less loaded one.
+ */
+final class LeastLoadedPicker implements K8sMemberPicker {
+
+	private final Supplier<List<K8sServiceMember>> members;
+
+	private final K8sLoadFeedback feedback;
+
+	LeastLoadedPicker(Supplier<List<K8sServiceMember>> members, K8sLoadFeedback feedback) {
+		this.members = members;
+		this.feedback = feedback;
+	}
+
+	@Override
+	public K8sServiceMember pick() {
+		List<K8sServiceMember> list = members.get();
+		int size = list.size();
+		if (size < 2) {
+			return size == 0 ? null : list.get(0);
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int first = random.nextInt(size);
+		// a distinct second choice
+		int second = (first + 1 + random.nextInt(size - 1)) % size;
+		K8sServiceMember a = list.get(first);
+		K8sServiceMember b = list.get(second);
+		return feedback.load(b) < feedback.load(a) ? b : a;
+	}
+}
@@ -0,0 +1,161 @@
+package org.avaje.k8s.discovery;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the pages of a kubernetes list (limit/continue) merging the items into members.
+ * <p>
+ * Each page is read in a single pass with {@link JsonReader}. Members that appear more than
+ * once are merged by IP address or pod name preferring the ready member. Not thread safe.
+ */
+abstract class ListParser {
+
+	private static final int LIST_METADATA = 0;
+	private static final int LIST_ITEMS = 1;
+	private static final byte[][] LIST = JsonReader.names("metadata", "items");
+
+	private static final int METADATA_RESOURCE_VERSION = 0;
+	private static final int METADATA_CONTINUE = 1;
+	private static final byte[][] METADATA = JsonReader.names("resourceVersion", "continue");
+
+	protected final JsonReader reader = new JsonReader();
+
+	/**
+	 * The repeated strings of the list being read.
+	 */
+	protected StringDictionary dictionary = new StringDictionary();
+
+	private final Map<String, K8sServiceMember> byAddress = new LinkedHashMap<>();
+
+	/**
+	 * The address (key of byAddress) of each pod added.
+	 */
+	private final Map<String, String> podAddresses = new HashMap<>();
+
+	private String resourceVersion;
+
+	private String continueToken;
+
+	/**
+	 * Start reading the pages of a new list.
+	 */
+	void start() {
+		byAddress.clear();
+		podAddresses.clear();
+		resourceVersion = null;
+		dictionary = new StringDictionary();
+	}
+
+	/**
+	 * Parse a page of the list returning the continue token (null or empty for the last page).
+	 */
+	String parsePage(InputStream inputStream) throws IOException {
+		reader.reset(inputStream);
+		continueToken = null;
+		if (reader.peek() != -1 && reader.beginObject()) {
+			while (reader.hasNext()) {
+				switch (reader.nextName(LIST)) {
+					case LIST_METADATA:
+						readMetadata();
+						break;
+					case LIST_ITEMS:
+						if (reader.beginArray()) {
+							while (reader.hasNext()) {
+								readItem();
+							}
+							reader.endArray();
+						}
+						break;
+					default:
+						reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+		return continueToken;
+	}
+
+	/**
+	 * Return the members of all the pages read.
+	 */
+	K8sServiceMembers members() {
+		List<K8sServiceMember> ready = new ArrayList<>();
+		List<K8sServiceMember> notReady = new ArrayList<>();
+		for (K8sServiceMember member : byAddress.values()) {
+			if (member.isReady()) {
+				ready.add(member);
+			} else {
+				notReady.add(member);
+			}
+		}
+		byAddress.clear();
+		podAddresses.clear();
+		return new K8sServiceMembers(resourceVersion, ready, notReady);
+	}
+
+	/**
+	 * Return the number of bytes read from the input stream by the last parse.
+	 */
+	long getBytesRead() {
+		return reader.getBytesRead();
+	}
+
+	/**
+	 * Read an item of the list adding the members it contains.
+	 */
+	protected abstract void readItem() throws IOException;
+
+	/**
+	 * Add a member preferring a ready member when the IP address or pod was already added.
+	 */
+	protected void add(K8sServiceMember member) {
+		String address = member.getIpAddress();
+		if (member.getPodName() != null) {
+			String podAddress = podAddresses.putIfAbsent(member.getPodName(), address);
+			if (podAddress != null) {
+				// the pod by another address is the same member
+				address = podAddress;
+			}
+		}
+		K8sServiceMember existing = byAddress.putIfAbsent(address, member);
+		if (existing != null && !existing.isReady() && member.isReady()) {
+			byAddress.put(address, member);
+		}
+	}
+
+	/**
+	 * Read an optional boolean value.
+	 */
+	protected Boolean readBoolean() throws IOException {
+		String value = reader.nextString();
+		return value == null ? null : Boolean.valueOf(value);
+	}
+
+	private void readMetadata() throws IOException {
+		if (reader.beginObject()) {
+			while (reader.hasNext()) {
+				switch (reader.nextName(METADATA)) {
+					case METADATA_RESOURCE_VERSION:
+						String version = reader.nextString();
+						if (resourceVersion == null) {
+							// the resourceVersion of the first page
+							resourceVersion = version;
+						}
+						break;
+					case METADATA_CONTINUE:
+						continueToken = reader.nextString();
+						break;
+					default:
+						reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package org.avaje.k8s.discovery;
+
+/**
+ * Index of the members of a snapshot by pod name or IP address.
+ * <p>
+ * An open addressing table of positions into the members array such that the index costs
+ * 8 bytes or less per member (rather than a HashMap entry object per member). The first
+ * member with a key wins so ready members, which come first, take precedence.
+ */
+final class MemberIndex {
+
+	static final int POD_NAME = 0;
+	static final int IP_ADDRESS = 1;
+
+	private final K8sServiceMember[] members;
+
+	private final int keyType;
+
+	/**
+	 * The position + 1 of the member in each slot (0 for an empty slot).
+	 */
+	private final int[] slots;
+
+	MemberIndex(K8sServiceMember[] members, int keyType) {
+		this.members = members;
+		this.keyType = keyType;
+		this.slots = new int[tableSize(members.length)];
+		for (int i = 0; i < members.length; i++) {
+			String key = key(members[i]);
+			if (key != null) {
+				insert(key, i);
+			}
+		}
+	}
+
+	private static int tableSize(int size) {
+		int tableSize = 4;
+		while (tableSize < size * 2) {
+			tableSize <<= 1;
+		}
+		return tableSize;
+	}
+
+	private String key(K8sServiceMember member) {
+		return keyType == POD_NAME ? member.getPodName() : member.getIpAddress();
+	}
+
+	private void insert(String key, int position) {
+		int mask = slots.length - 1;
+		int slot = slot(key) & mask;
+		while (slots[slot] != 0) {
+			if (key.equals(key(members[slots[slot] - 1]))) {
+				// keep the first (ready) member
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		slots[slot] = position + 1;
+	}
+
+	/**
+	 * Return the member with the given key or null.
+	 */
+	K8sServiceMember get(String key) {
+		if (key == null) {
+			return null;
+		}
+		int mask = slots.length - 1;
+		int slot = slot(key) & mask;
+		int position;
+		while ((position = slots[slot]) != 0) {
+			K8sServiceMember member = members[position - 1];
+			if (key.equals(key(member))) {
+				return member;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return null;
+	}
+
+	private static int slot(String key) {
+		int hash = key.hashCode();
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -1,87 +1,475 @@
 package org.avaje.k8s.discovery;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Helper that parses the JSON content to List of K8sServiceMember.
- *
- * Ugly but means no dependencies on JSON parsing tools (like Jackson) and
- * we prefer not to require any extra dependencies.
+ * <p>
+ * Reads the content in a single pass straight from the connection input stream using
+ * {@link JsonReader} adding members as each address object is read. Only the properties
+ * needed are read with everything else skipped.
+ * <p>
+ * Means no dependencies on JSON parsing tools (like Jackson) and we prefer not to
+ * require any extra dependencies. The parser reuses its buffers and is not thread safe.
  */
 class MemberParser {
 
-	private static final String SUBSETS = "\"subsets\":[";
-	private static final String ADDRESSES = "\"addresses\":[";
-	private static final String NOT_READY_ADDRESSES = "\"notReadyAddresses\":[";
-	private static final String END_QUOTE = "\"";
+	private static final int EVENT_TYPE = 0;
+	private static final int EVENT_OBJECT = 1;
+	private static final byte[][] EVENT = JsonReader.names("type", "object");
+
+	private static final int OBJECT_METADATA = 0;
+	private static final int OBJECT_SUBSETS = 1;
+	private static final int OBJECT_CODE = 2;
+	private static final byte[][] OBJECT = JsonReader.names("metadata", "subsets", "code");
+
+	private static final int METADATA_RESOURCE_VERSION = 0;
+	private static final int METADATA_NAME = 1;
+	private static final byte[][] METADATA = JsonReader.names("resourceVersion", "name");
+
+	private static final int LIST_ITEMS = 0;
+	private static final int LIST_METADATA = 1;
+	private static final byte[][] LIST = JsonReader.names("items", "metadata");
+
+	private static final int LIST_METADATA_CONTINUE = 0;
+	private static final int LIST_METADATA_RESOURCE_VERSION = 1;
+	private static final byte[][] LIST_METADATA_NAMES = JsonReader.names("continue", "resourceVersion");
+
+	private static final int SUBSET_ADDRESSES = 0;
+	private static final int SUBSET_NOT_READY_ADDRESSES = 1;
+	private static final int SUBSET_PORTS = 2;
+	private static final byte[][] SUBSET = JsonReader.names("addresses", "notReadyAddresses", "ports");
+
+	private static final int ADDRESS_IP = 0;
+	private static final int ADDRESS_NODE_NAME = 1;
+	private static final int ADDRESS_TARGET_REF = 2;
+	private static final int ADDRESS_HOSTNAME = 3;
+	private static final byte[][] ADDRESS = JsonReader.names("ip", "nodeName", "targetRef", "hostname");
 
-	private final String rawJson;
+	private static final int TARGET_REF_NAME = 0;
+	private static final byte[][] TARGET_REF = JsonReader.names("name");
 
-	private int pos;
+	private final JsonReader reader = new JsonReader();
 
-	private K8sServiceMembers members = new K8sServiceMembers();
+	private final byte[] rawJson;
+
+	/**
+	 * The addresses of the current subset (built with the ports once the subset is read).
+	 */
+	private final PendingAddresses subset = new PendingAddresses();
+
+	private List<K8sServiceMember> ready;
+
+	private List<K8sServiceMember> notReady;
+
+	private String resourceVersion;
+
+	private String name;
+
+	private int code;
+
+	private String unchangedVersion;
+
+	private String listResourceVersion;
+
+	/**
+	 * The repeated strings (node names, ports) of the snapshot being read.
+	 */
+	private StringDictionary dictionary = new StringDictionary();
+
+	/**
+	 * Create a parser to be used with {@link #parse(InputStream)}.
+	 */
+	MemberParser() {
+		this.rawJson = null;
+	}
 
 	/**
 	 * Create with raw JSON content.
 	 */
 	MemberParser(String rawJson) {
-		this.rawJson = rawJson;
+		this.rawJson = rawJson.getBytes(StandardCharsets.UTF_8);
 	}
 
 	/**
-	 * Parse returning the list of members.
+	 * Parse the raw JSON content returning the members.
 	 */
 	public K8sServiceMembers parseJson() {
+		try {
+			return parse(new ByteArrayInputStream(rawJson));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Parse the raw JSON content as a single watch event.
+	 */
+	WatchEvent parseEvent() {
+		try {
+			reader.reset(new ByteArrayInputStream(rawJson));
+			return nextEvent();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Parse the endpoints object from the input stream returning the members.
+	 */
+	K8sServiceMembers parse(InputStream inputStream) throws IOException {
+		return parse(inputStream, null);
+	}
+
+	/**
+	 * Parse the endpoints object returning null without reading further when the
+	 * metadata.resourceVersion matches the given (current) resourceVersion.
+	 */
+	K8sServiceMembers parse(InputStream inputStream, String currentVersion) throws IOException {
+		reader.reset(inputStream);
+		unchangedVersion = currentVersion;
+		try {
+			return readObject();
+		} finally {
+			unchangedVersion = null;
+		}
+	}
+
+	/**
+	 * Start parsing the pages of an EndpointsList.
+	 */
+	void startList() {
+		dictionary = new StringDictionary();
+	}
+
+	/**
+	 * Parse a page of an EndpointsList (all the endpoints of a namespace) adding the members
+	 * of the wanted services to the result and returning the continue token (null or empty
+	 * for the last page).
+	 * <p>
+	 * The map keys are the wanted service names with their current members (or null). When the
+	 * resourceVersion of a service is unchanged the current members instance is used for it.
+	 * Endpoints of services that are not wanted are skipped.
+	 */
+	String parseListPage(InputStream inputStream, Map<String, K8sServiceMembers> wanted, Map<String, K8sServiceMembers> result) throws IOException {
+		reader.reset(inputStream);
+		listResourceVersion = null;
+		String continueToken = null;
+		if (reader.peek() != -1 && reader.beginObject()) {
+			while (reader.hasNext()) {
+				switch (reader.nextName(LIST)) {
+					case LIST_ITEMS:
+						if (reader.beginArray()) {
+							while (reader.hasNext()) {
+								readItem(wanted, result);
+							}
+							reader.endArray();
+						}
+						break;
+					case LIST_METADATA:
+						continueToken = readListMetadata();
+						break;
+					default:
+						reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+		return continueToken;
+	}
+
+	/**
+	 * Read the list metadata returning the continue token.
+	 */
+	private String readListMetadata() throws IOException {
+		String continueToken = null;
+		if (reader.beginObject()) {
+			while (reader.hasNext()) {
+				switch (reader.nextName(LIST_METADATA_NAMES)) {
+					case LIST_METADATA_CONTINUE:
+						continueToken = reader.nextString();
+						break;
+					case LIST_METADATA_RESOURCE_VERSION:
+						listResourceVersion = reader.nextString();
+						break;
+					default:
+						reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+		return continueToken;
+	}
+
+	/**
+	 * Return the resourceVersion of the list page last parsed (to watch from).
+	 * <p>
+	 * This differs from the resourceVersion of the endpoints items which is that of their last
+	 * change and can be compacted away while the endpoints are unchanged.
+	 */
+	String getListResourceVersion() {
+		return listResourceVersion;
+	}
 
-		int subsets = rawJson.indexOf(SUBSETS);
-		if (subsets > -1) {
-			pos = rawJson.indexOf(ADDRESSES, subsets);
-			if (pos > -1) {
-				readAddresses(true);
+	/**
+	 * Read an endpoints item of a list skipping the subsets when not wanted or unchanged.
+	 */
+	private void readItem(Map<String, K8sServiceMembers> wanted, Map<String, K8sServiceMembers> result) throws IOException {
+		ready = new ArrayList<>();
+		notReady = new ArrayList<>();
+		resourceVersion = null;
+		name = null;
+		if (!reader.beginObject()) {
+			return;
+		}
+		boolean skip = false;
+		while (reader.hasNext()) {
+			switch (reader.nextName(OBJECT)) {
+				case OBJECT_METADATA:
+					readMetadata();
+					if (name != null) {
+						K8sServiceMembers current = wanted.get(name);
+						if (!wanted.containsKey(name)) {
+							skip = true;
+						} else if (current != null && resourceVersion != null && resourceVersion.equals(current.getResourceVersion())) {
+							result.put(name, current);
+							skip = true;
+						}
+					}
+					break;
+				case OBJECT_SUBSETS:
+					if (skip) {
+						reader.skipValue();
+					} else {
+						readSubsets();
+					}
+					break;
+				default:
+					reader.skipValue();
 			}
-			pos = rawJson.indexOf(NOT_READY_ADDRESSES, subsets);
-			if (pos > -1) {
-				readAddresses(false);
+		}
+		reader.endObject();
+		if (!skip && name != null && wanted.containsKey(name)) {
+			result.put(name, members());
+		}
+	}
+
+	/**
+	 * Start reading a stream of watch events from the input stream.
+	 */
+	MemberParser watch(InputStream inputStream) {
+		reader.reset(inputStream);
+		return this;
+	}
+
+	/**
+	 * Read the next watch event returning null at the end of the stream.
+	 */
+	WatchEvent nextEvent() throws IOException {
+		if (reader.peek() == -1) {
+			return null;
+		}
+		String type = null;
+		K8sServiceMembers object = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName(EVENT)) {
+				case EVENT_TYPE:
+					type = reader.nextString();
+					break;
+				case EVENT_OBJECT:
+					object = readObject();
+					break;
+				default:
+					reader.skipValue();
 			}
 		}
+		reader.endObject();
+		if (WatchEvent.ERROR.equals(type)) {
+			return WatchEvent.error(code);
+		}
+		return new WatchEvent(type, object);
+	}
 
-		return members;
+	/**
+	 * Read an endpoints object (or Status object of an ERROR event) returning null
+	 * when the resourceVersion is unchanged.
+	 */
+	private K8sServiceMembers readObject() throws IOException {
+		dictionary = new StringDictionary();
+		ready = new ArrayList<>();
+		notReady = new ArrayList<>();
+		resourceVersion = null;
+		name = null;
+		code = 0;
+		if (reader.peek() == -1 || !reader.beginObject()) {
+			return members();
+		}
+		while (reader.hasNext()) {
+			switch (reader.nextName(OBJECT)) {
+				case OBJECT_METADATA:
+					if (readMetadata()) {
+						// stop reading, the members are unchanged
+						return null;
+					}
+					break;
+				case OBJECT_SUBSETS:
+					readSubsets();
+					break;
+				case OBJECT_CODE:
+					code = reader.nextInt();
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return members();
+	}
+
+	private K8sServiceMembers members() {
+		return new K8sServiceMembers(resourceVersion, ready, notReady);
 	}
 
-	private void readAddresses(boolean ready) {
-		// loop find each member
-		String ip;
-		while((ip = readProperty("ip")) != null) {
-			readEntry(ip, ready);
+	/**
+	 * Read the metadata returning true if the resourceVersion matches the unchanged version.
+	 */
+	private boolean readMetadata() throws IOException {
+		if (reader.beginObject()) {
+			while (reader.hasNext()) {
+				switch (reader.nextName(METADATA)) {
+					case METADATA_RESOURCE_VERSION:
+						resourceVersion = reader.nextString();
+						if (resourceVersion != null && resourceVersion.equals(unchangedVersion)) {
+							return true;
+						}
+						break;
+					case METADATA_NAME:
+						name = reader.nextString();
+						break;
+					default:
+						reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+		return false;
+	}
+
+	private void readSubsets() throws IOException {
+		if (reader.beginArray()) {
+			while (reader.hasNext()) {
+				readSubset();
+			}
+			reader.endArray();
 		}
 	}
 
 	/**
-	 * Read a JSON property given we know it is a json string and no other type and has no escaping of quotes.
+	 * Read a subset where the ports typically follow the addresses.
 	 */
-	private String readProperty(String propertyName) {
-		String key = jsonKey(propertyName);
-		pos = rawJson.indexOf(key, pos);
-		if (pos > -1) {
-			int startPos = pos + key.length();
-			pos = rawJson.indexOf(END_QUOTE, startPos + 1);
-			if (pos == -1) {
-				throw new IllegalStateException("Can't find end quote for property " + propertyName);
+	private void readSubset() throws IOException {
+		if (!reader.beginObject()) {
+			return;
+		}
+		subset.clear();
+		List<K8sServicePort> ports = Collections.emptyList();
+		while (reader.hasNext()) {
+			switch (reader.nextName(SUBSET)) {
+				case SUBSET_ADDRESSES:
+					readAddresses(true);
+					break;
+				case SUBSET_NOT_READY_ADDRESSES:
+					readAddresses(false);
+					break;
+				case SUBSET_PORTS:
+					ports = PortsReader.immutable(PortsReader.read(reader, dictionary, ports));
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+		for (int i = 0; i < subset.size(); i++) {
+			K8sServiceMember member = subset.member(i, ports);
+			if (member.isReady()) {
+				ready.add(member);
 			} else {
-				return rawJson.substring(startPos, pos);
+				notReady.add(member);
 			}
 		}
-		return null;
+		subset.clear();
+	}
+
+	private void readAddresses(boolean ready) throws IOException {
+		if (reader.beginArray()) {
+			while (reader.hasNext()) {
+				readAddress(ready);
+			}
+			reader.endArray();
+		}
 	}
 
 	/**
-	 * Read and build the K8sServiceMember.
+	 * Read and build the K8sServiceMember with properties in any order.
 	 */
-	private void readEntry(String ipAddress, boolean ready) {
-		String nodeName = readProperty("nodeName");
-		String podName = readProperty("name");
-		members.add(ready, new K8sServiceMember(ipAddress, nodeName, podName, ready));
+	private void readAddress(boolean ready) throws IOException {
+		if (!reader.beginObject()) {
+			return;
+		}
+		String ipAddress = null;
+		String nodeName = null;
+		String podName = null;
+		String hostname = null;
+		while (reader.hasNext()) {
+			switch (reader.nextName(ADDRESS)) {
+				case ADDRESS_IP:
+					ipAddress = reader.nextString();
+					break;
+				case ADDRESS_NODE_NAME:
+					nodeName = reader.nextString(dictionary);
+					break;
+				case ADDRESS_TARGET_REF:
+					podName = readTargetRefName();
+					break;
+				case ADDRESS_HOSTNAME:
+					hostname = reader.nextString();
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+		subset.add(ipAddress, nodeName, podName, ready, ready, false, null, hostname);
 	}
 
-	private String jsonKey(String property) {
-		return "\"" + property + "\":\"";
+	private String readTargetRefName() throws IOException {
+		String name = null;
+		if (reader.beginObject()) {
+			while (reader.hasNext()) {
+				if (reader.nextName(TARGET_REF) == TARGET_REF_NAME) {
+					name = reader.nextString();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+		return name;
+	}
+
+	/**
+	 * Return the number of bytes read from the input stream by the last parse.
+	 */
+	long getBytesRead() {
+		return reader.getBytesRead();
 	}
 }
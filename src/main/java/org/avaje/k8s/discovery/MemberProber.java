@@ -0,0 +1,321 @@
+package org.avaje.k8s.discovery;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Probes the health of the members in parallel ejecting outliers from the healthy view.
+ * <p>
+ * Each interval every member is checked on a bounded executor (a member still being checked
+ * is skipped). A member is ejected after consecutive failures and re-admitted after
+ * consecutive successes. No more than the max ejection percent of the members are ejected
+ * such that a network problem local to this pod does not eject every member.
+ */
+class MemberProber {
+
+	private static final Logger log = LoggerFactory.getLogger(MemberProber.class);
+
+	private static final int QUEUE_CAPACITY = 10_000;
+
+	private final String name;
+
+	private final Supplier<List<K8sServiceMember>> members;
+
+	private final K8sHealthCheck check;
+
+	private final long intervalMillis;
+
+	private final int ejectAfter;
+
+	private final int readmitAfter;
+
+	private final int maxEjectionPercent;
+
+	private final ScheduledExecutorService scheduler;
+
+	private final Executor executor;
+
+	/**
+	 * The pool created when no executor is given (shutdown on stop).
+	 */
+	private final ThreadPoolExecutor ownPool;
+
+	/**
+	 * The probe state of the members keyed by IP address.
+	 */
+	private final Map<String, State> states = new ConcurrentHashMap<>();
+
+	/**
+	 * Incremented when a member is ejected or re-admitted.
+	 */
+	private final AtomicLong version = new AtomicLong();
+
+	private final AtomicInteger ejectedCount = new AtomicInteger();
+
+	private volatile View view = new View(null, -1, null);
+
+	MemberProber(String name, Supplier<List<K8sServiceMember>> members, K8sHealthCheck check, long intervalMillis,
+			int ejectAfter, int readmitAfter, int maxEjectionPercent, int parallelism, Executor executor) {
+		this.name = name;
+		this.members = members;
+		this.check = check;
+		this.intervalMillis = intervalMillis;
+		this.ejectAfter = ejectAfter;
+		this.readmitAfter = readmitAfter;
+		this.maxEjectionPercent = maxEjectionPercent;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "k8s-probe-" + name);
+			thread.setDaemon(true);
+			return thread;
+		});
+		if (executor != null) {
+			this.ownPool = null;
+			this.executor = executor;
+		} else {
+			AtomicInteger count = new AtomicInteger();
+			this.ownPool = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+				Thread thread = new Thread(runnable, "k8s-probe-" + name + "-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.ownPool.allowCoreThreadTimeOut(true);
+			this.executor = ownPool;
+		}
+	}
+
+	/**
+	 * Start probing.
+	 */
+	void start() {
+		scheduler.scheduleWithFixedDelay(this::probeAll, 0, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop probing.
+	 */
+	void stop() {
+		scheduler.shutdownNow();
+		if (ownPool != null) {
+			ownPool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Return the given members without the ejected ones.
+	 * <p>
+	 * The same list is returned while neither the members nor the ejections change.
+	 */
+	List<K8sServiceMember> healthy(List<K8sServiceMember> source) {
+		long current = version.get();
+		View last = view;
+		if (last.source == source && last.version == current) {
+			return last.healthy;
+		}
+		List<K8sServiceMember> healthy = source;
+		if (ejectedCount.get() > 0) {
+			List<K8sServiceMember> filtered = new ArrayList<>(source.size());
+			for (K8sServiceMember member : source) {
+				if (!isEjected(member)) {
+					filtered.add(member);
+				}
+			}
+			if (filtered.size() < source.size()) {
+				healthy = Collections.unmodifiableList(filtered);
+			}
+		}
+		view = new View(source, current, healthy);
+		return healthy;
+	}
+
+	/**
+	 * Return true if the member is ejected.
+	 */
+	boolean isEjected(K8sServiceMember member) {
+		State state = states.get(member.getIpAddress());
+		return state != null && state.ejected;
+	}
+
+	/**
+	 * Record the result of a probe or request to the member.
+	 */
+	void record(K8sServiceMember member, boolean success) {
+		State state = states.get(member.getIpAddress());
+		if (state != null) {
+			record(state, member, success);
+		}
+	}
+
+	/**
+	 * Check all the members (called each interval).
+	 */
+	void probeAll() {
+		List<K8sServiceMember> list;
+		try {
+			list = members.get();
+		} catch (Exception e) {
+			log.debug("Unable to obtain members of {} to probe", name, e);
+			return;
+		}
+		prune(list);
+		for (K8sServiceMember member : list) {
+			State state = states.computeIfAbsent(member.getIpAddress(), ip -> new State());
+			if (state.inFlight.compareAndSet(false, true)) {
+				try {
+					executor.execute(() -> probe(state, member));
+				} catch (RejectedExecutionException e) {
+					state.inFlight.set(false);
+				}
+			}
+		}
+	}
+
+	private void probe(State state, K8sServiceMember member) {
+		try {
+			boolean healthy;
+			try {
+				healthy = check.isHealthy(member);
+			} catch (Exception e) {
+				log.trace("Health check of {} failed", member, e);
+				healthy = false;
+			}
+			record(state, member, healthy);
+		} finally {
+			state.inFlight.set(false);
+		}
+	}
+
+	/**
+	 * Return true if a TCP connection to the member and port is established within the timeout.
+	 */
+	static boolean connect(K8sServiceMember member, int port, int timeoutMillis) throws IOException {
+		try (Socket socket = new Socket()) {
+			socket.connect(new InetSocketAddress(member.getIpAddress(), port), timeoutMillis);
+			return true;
+		}
+	}
+
+	/**
+	 * Return the first TCP port of the member or null if it has none (the default port checked).
+	 */
+	static K8sServicePort firstTcpPort(K8sServiceMember member) {
+		for (K8sServicePort port : member.getPorts()) {
+			if ("TCP".equals(port.getProtocol())) {
+				return port;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Remove the state of members that have gone.
+	 */
+	private void prune(List<K8sServiceMember> list) {
+		if (states.isEmpty()) {
+			return;
+		}
+		Set<String> ips = new HashSet<>(list.size() * 2);
+		for (K8sServiceMember member : list) {
+			ips.add(member.getIpAddress());
+		}
+		states.entrySet().removeIf(entry -> {
+			if (ips.contains(entry.getKey())) {
+				return false;
+			}
+			synchronized (this) {
+				if (entry.getValue().ejected) {
+					entry.getValue().ejected = false;
+					ejectedCount.decrementAndGet();
+					version.incrementAndGet();
+				}
+			}
+			return true;
+		});
+	}
+
+	private void record(State state, K8sServiceMember member, boolean success) {
+		// one lock such that the max ejection percent holds across members
+		synchronized (this) {
+			if (success) {
+				state.failures = 0;
+				state.successes++;
+				if (state.ejected && state.successes >= readmitAfter) {
+					state.ejected = false;
+					ejectedCount.decrementAndGet();
+					version.incrementAndGet();
+					log.info("Re-admitted member {} of {}", member, name);
+				}
+			} else {
+				state.successes = 0;
+				state.failures++;
+				if (!state.ejected && state.failures >= ejectAfter && canEject()) {
+					state.ejected = true;
+					ejectedCount.incrementAndGet();
+					version.incrementAndGet();
+					log.warn("Ejected member {} of {} after {} failures", member, name, state.failures);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return true if another member can be ejected within the max ejection percent.
+	 */
+	private boolean canEject() {
+		return (ejectedCount.get() + 1) * 100 <= maxEjectionPercent * states.size();
+	}
+
+	/**
+	 * The probe state of a member.
+	 */
+	private static final class State {
+
+		final AtomicBoolean inFlight = new AtomicBoolean();
+
+		int failures;
+
+		int successes;
+
+		volatile boolean ejected;
+	}
+
+	/**
+	 * The healthy members derived from a list of members and ejection version.
+	 */
+	private static final class View {
+
+		final List<K8sServiceMember> source;
+
+		final long version;
+
+		final List<K8sServiceMember> healthy;
+
+		View(List<K8sServiceMember> source, long version, List<K8sServiceMember> healthy) {
+			this.source = source;
+			this.version = version;
+			this.healthy = healthy;
+		}
+	}
+}
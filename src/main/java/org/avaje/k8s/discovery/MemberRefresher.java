@@ -0,0 +1,112 @@
+package org.avaje.k8s.discovery;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes the members in the background on an interval with random jitter.
+ * <p>
+ * Failed refreshes are retried with decorrelated jitter backoff while the last good members
+ * continue to be served.
+ */
+class MemberRefresher {
+
+	private static final Logger log = LoggerFactory.getLogger(MemberRefresher.class);
+
+	private static final long INITIAL_BACKOFF_MILLIS = 500;
+
+	private static final long MIN_MAX_BACKOFF_MILLIS = 60_000;
+
+	private final String name;
+
+	private final Runnable reload;
+
+	private final long intervalMillis;
+
+	private final double jitter;
+
+	private final Backoff backoff;
+
+	private final ScheduledExecutorService executor;
+
+	private int failures;
+
+	private volatile boolean stopped;
+
+	MemberRefresher(String name, Runnable reload, long intervalMillis, double jitter) {
+		this.name = name;
+		this.reload = reload;
+		this.intervalMillis = intervalMillis;
+		this.jitter = jitter;
+		this.backoff = new Backoff(INITIAL_BACKOFF_MILLIS, Math.max(intervalMillis, MIN_MAX_BACKOFF_MILLIS));
+		this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "k8s-refresh-" + name);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Start refreshing, immediately if there are no members loaded yet.
+	 */
+	void start(boolean loaded) {
+		schedule(loaded ? nextDelay() : 0);
+	}
+
+	/**
+	 * Stop refreshing.
+	 */
+	void stop() {
+		stopped = true;
+		executor.shutdownNow();
+	}
+
+	private void schedule(long delayMillis) {
+		if (stopped) {
+			return;
+		}
+		try {
+			executor.schedule(this::refresh, delayMillis, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// stopped concurrently
+			log.trace("Refresh of {} not scheduled, stopped", name);
+		}
+	}
+
+	private void refresh() {
+		long delay;
+		try {
+			reload.run();
+			failures = 0;
+			backoff.reset();
+			delay = nextDelay();
+		} catch (Exception e) {
+			if (stopped) {
+				// failed as stopped during the reload
+				log.debug("Refresh of {} stopped", name, e);
+				return;
+			}
+			failures++;
+			delay = backoff.next();
+			log.warn("Error refreshing members of {} failures:{} retry in {}ms", name, failures, delay, e);
+		}
+		schedule(delay);
+	}
+
+	/**
+	 * Return the interval plus or minus the random jitter.
+	 */
+	long nextDelay() {
+		long range = (long) (intervalMillis * jitter);
+		if (range <= 0) {
+			return intervalMillis;
+		}
+		return intervalMillis + ThreadLocalRandom.current().nextLong(-range, range + 1);
+	}
+}
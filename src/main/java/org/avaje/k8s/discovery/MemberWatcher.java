@@ -0,0 +1,229 @@
+package org.avaje.k8s.discovery;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps a long lived watch on the endpoints of the service publishing the members
+ * as ADDED, MODIFIED and DELETED events are received.
+ * <p>
+ * The watch resumes from the last seen resourceVersion and performs a full list
+ * when the server responds with 410 Gone (resourceVersion too old). When the watch
+ * from a relist is also gone the next relist is delayed by the backoff.
+ */
+class MemberWatcher implements Runnable {
+
+	private static final Logger log = LoggerFactory.getLogger(MemberWatcher.class);
+
+	private static final int HTTP_GONE = 410;
+
+	private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+	/**
+	 * Disconnects the connections of stopped watches, shared by all the watchers.
+	 */
+	private static final Executor CLOSER = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "k8s-watch-close");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final K8sMemberDiscovery discovery;
+
+	private final int timeoutSeconds;
+
+	private final Thread thread;
+
+	private final MemberParser parser = new MemberParser();
+
+	private volatile boolean running = true;
+
+	/**
+	 * The connection of the current watch (guarded by this).
+	 */
+	private HttpURLConnection connection;
+
+	private String resourceVersion;
+
+	private final Backoff backoff = new Backoff(500, MAX_BACKOFF_MILLIS);
+
+	MemberWatcher(K8sMemberDiscovery discovery, int timeoutSeconds) {
+		this.discovery = discovery;
+		this.timeoutSeconds = timeoutSeconds;
+		this.thread = new Thread(this, "k8s-watch-" + discovery.getServiceName());
+		this.thread.setDaemon(true);
+	}
+
+	/**
+	 * Start the watch thread.
+	 */
+	void start() {
+		thread.start();
+	}
+
+	/**
+	 * Stop watching closing the current connection.
+	 * <p>
+	 * Both disconnecting and closing the chunked stream block while the watch thread is
+	 * reading from it (until the next event or the server ends the watch) so the disconnect
+	 * is done by the shared closer rather than blocking the caller.
+	 */
+	void stop() {
+		HttpURLConnection conn;
+		synchronized (this) {
+			running = false;
+			conn = connection;
+			connection = null;
+		}
+		thread.interrupt();
+		if (conn != null) {
+			CLOSER.execute(conn::disconnect);
+		}
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				boolean relisted = false;
+				if (resourceVersion == null) {
+					relist();
+					relisted = true;
+				}
+				String fromVersion = resourceVersion;
+				if (watch()) {
+					backoff.reset();
+				} else if (relisted && running) {
+					sleepGone(fromVersion);
+				}
+			} catch (Exception e) {
+				if (running) {
+					sleepBackoff(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * List the members setting the (list) resourceVersion to start watching from.
+	 */
+	private void relist() {
+		resourceVersion = discovery.relist(parser);
+		log.debug("relisted service:{} resourceVersion:{}", discovery.getServiceName(), resourceVersion);
+	}
+
+	/**
+	 * Watch from the current resourceVersion until the server ends the stream.
+	 *
+	 * @return false if the resourceVersion was gone before any event was received
+	 */
+	private boolean watch() throws IOException {
+
+		HttpURLConnection conn = discovery.openConnection(watchPath());
+		conn.setReadTimeout((timeoutSeconds + 30) * 1000);
+		synchronized (this) {
+			if (!running) {
+				// stopped while opening, not yet connected so this does not block
+				conn.disconnect();
+				return true;
+			}
+			connection = conn;
+		}
+		try {
+			int status = conn.getResponseCode();
+			if (status == HTTP_GONE) {
+				K8sTransport.drainError(conn);
+				log.debug("watch resourceVersion:{} gone, relisting", resourceVersion);
+				resourceVersion = null;
+				return false;
+			}
+			if (status != HttpURLConnection.HTTP_OK) {
+				discovery.transport().throttled(conn);
+				K8sTransport.drainError(conn);
+				throw new IOException("Watch failed with status " + status);
+			}
+			try (InputStream inputStream = conn.getInputStream()) {
+				parser.watch(inputStream);
+				boolean streamed = false;
+				WatchEvent event;
+				while (running && (event = parser.nextEvent()) != null) {
+					if (!onEvent(event)) {
+						return streamed;
+					}
+					streamed = true;
+				}
+				return true;
+			}
+		} finally {
+			synchronized (this) {
+				connection = null;
+			}
+		}
+	}
+
+	/**
+	 * Process the event returning false if the watch should be restarted.
+	 */
+	private boolean onEvent(WatchEvent event) {
+		if (log.isTraceEnabled()) {
+			log.trace("watch event {}", event);
+		}
+		if (event.isError()) {
+			if (event.getCode() == HTTP_GONE) {
+				log.debug("watch resourceVersion:{} expired, relisting", resourceVersion);
+				resourceVersion = null;
+				return false;
+			}
+			throw new IllegalStateException("Watch error event with code " + event.getCode());
+		}
+		if (event.getResourceVersion() != null) {
+			resourceVersion = event.getResourceVersion();
+		}
+		if (event.isDeleted()) {
+			discovery.publish(new K8sServiceMembers(resourceVersion, Collections.emptyList(), Collections.emptyList()));
+
+		} else if (!event.isBookmark()) {
+			discovery.publish(event.getMembers());
+		}
+		return true;
+	}
+
+	private String watchPath() {
+		return "/api/v1/namespaces/" + discovery.getNamespace() + "/endpoints"
+				+ "?watch=true&allowWatchBookmarks=true"
+				+ "&fieldSelector=metadata.name%3D" + discovery.getServiceName()
+				+ "&timeoutSeconds=" + timeoutSeconds
+				+ "&resourceVersion=" + resourceVersion;
+	}
+
+	private void sleepBackoff(Exception e) {
+		long delay = backoff.next();
+		log.warn("Error watching members of service:{} retry in {}ms", discovery.getServiceName(), delay, e);
+		sleep(delay);
+	}
+
+	/**
+	 * Delay the relist when the watch from the relisted resourceVersion was gone.
+	 */
+	private void sleepGone(String fromVersion) {
+		long delay = backoff.next();
+		log.debug("watch from relisted resourceVersion:{} gone, relist in {}ms", fromVersion, delay);
+		sleep(delay);
+	}
+
+	private void sleep(long delay) {
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			running = false;
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package org.avaje.k8s.discovery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The changes in membership between two snapshots of the members of a service.
+ * <p>
+ * Members are matched by pod name (or IP address when there is no pod name) using the
+ * indexes of the snapshots so computing the delta is linear in the number of members.
+ * A pod that keeps its name but changes IP address is both removed and added.
+ */
+public class MembershipDelta {
+
+	private final K8sServiceMembers previous;
+	private final K8sServiceMembers members;
+
+	private final List<K8sServiceMember> added = new ArrayList<>();
+	private final List<K8sServiceMember> removed = new ArrayList<>();
+	private final List<K8sServiceMember> becameReady = new ArrayList<>();
+	private final List<K8sServiceMember> becameNotReady = new ArrayList<>();
+
+	/**
+	 * Compute the delta from the previous members (which can be null) to the new members.
+	 */
+	public static MembershipDelta of(K8sServiceMembers previous, K8sServiceMembers members) {
+		return new MembershipDelta(previous == null ? new K8sServiceMembers() : previous, members);
+	}
+
+	private MembershipDelta(K8sServiceMembers previous, K8sServiceMembers members) {
+		this.previous = previous;
+		this.members = members;
+		compareNew(members.getMembers());
+		compareNew(members.getNotReady());
+		findRemoved(previous.getMembers());
+		findRemoved(previous.getNotReady());
+	}
+
+	private void compareNew(List<K8sServiceMember> list) {
+		for (K8sServiceMember member : list) {
+			K8sServiceMember old = find(previous, member);
+			if (old == null || !sameAddress(old, member)) {
+				added.add(member);
+			} else if (old.isReady() != member.isReady()) {
+				if (member.isReady()) {
+					becameReady.add(member);
+				} else {
+					becameNotReady.add(member);
+				}
+			}
+		}
+	}
+
+	private void findRemoved(List<K8sServiceMember> list) {
+		for (K8sServiceMember old : list) {
+			K8sServiceMember member = find(members, old);
+			if (member == null || !sameAddress(old, member)) {
+				removed.add(old);
+			}
+		}
+	}
+
+	private static K8sServiceMember find(K8sServiceMembers snapshot, K8sServiceMember member) {
+		if (member.getPodName() != null) {
+			return snapshot.findPod(member.getPodName());
+		}
+		return snapshot.findByIp(member.getIpAddress());
+	}
+
+	private static boolean sameAddress(K8sServiceMember a, K8sServiceMember b) {
+		return a.getIpAddress() == null ? b.getIpAddress() == null : a.getIpAddress().equals(b.getIpAddress());
+	}
+
+	public String toString() {
+		return "added:" + added + " removed:" + removed + " becameReady:" + becameReady + " becameNotReady:" + becameNotReady;
+	}
+
+	/**
+	 * Return true if there is no change in membership or readiness.
+	 */
+	public boolean isEmpty() {
+		return added.isEmpty() && removed.isEmpty() && becameReady.isEmpty() && becameNotReady.isEmpty();
+	}
+
+	/**
+	 * Return the previous members.
+	 */
+	public K8sServiceMembers getPrevious() {
+		return previous;
+	}
+
+	/**
+	 * Return the new (current) members.
+	 */
+	public K8sServiceMembers getMembers() {
+		return members;
+	}
+
+	/**
+	 * Return the members that joined (ready or not ready).
+	 */
+	public List<K8sServiceMember> getAdded() {
+		return Collections.unmodifiableList(added);
+	}
+
+	/**
+	 * Return the members that left.
+	 */
+	public List<K8sServiceMember> getRemoved() {
+		return Collections.unmodifiableList(removed);
+	}
+
+	/**
+	 * Return the existing members that changed from not ready to ready.
+	 */
+	public List<K8sServiceMember> getBecameReady() {
+		return Collections.unmodifiableList(becameReady);
+	}
+
+	/**
+	 * Return the existing members that changed from ready to not ready.
+	 */
+	public List<K8sServiceMember> getBecameNotReady() {
+		return Collections.unmodifiableList(becameNotReady);
+	}
+}
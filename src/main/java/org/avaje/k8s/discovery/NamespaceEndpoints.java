@@ -0,0 +1,102 @@
+package org.avaje.k8s.discovery;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The endpoints of the services of a namespace loaded with a single (paged) list request.
+ */
+class NamespaceEndpoints {
+
+	private static final Logger log = LoggerFactory.getLogger(NamespaceEndpoints.class);
+
+	private static final K8sServiceMembers EMPTY = new K8sServiceMembers();
+
+	private final K8sDiscoveryClient client;
+
+	private final String namespace;
+
+	private final List<ClientMemberDiscovery> views = new CopyOnWriteArrayList<>();
+
+	private final SingleFlight<Map<String, K8sServiceMembers>> singleFlight = new SingleFlight<>();
+
+	private final MemberParser parser = new MemberParser();
+
+	private volatile Map<String, K8sServiceMembers> current = new HashMap<>();
+
+	NamespaceEndpoints(K8sDiscoveryClient client, String namespace) {
+		this.client = client;
+		this.namespace = namespace;
+	}
+
+	/**
+	 * Add a service view.
+	 */
+	void add(ClientMemberDiscovery view) {
+		views.add(view);
+	}
+
+	/**
+	 * Remove a (closed) service view returning true if there are no views left.
+	 */
+	boolean remove(ClientMemberDiscovery view) {
+		views.remove(view);
+		return views.isEmpty();
+	}
+
+	/**
+	 * Reload returning the members of the given service.
+	 */
+	K8sServiceMembers reload(String serviceName) {
+		return reload().getOrDefault(serviceName, EMPTY);
+	}
+
+	/**
+	 * Reload the endpoints of the namespace with concurrent callers sharing the one load.
+	 */
+	Map<String, K8sServiceMembers> reload() {
+		return singleFlight.run(this::loadAll);
+	}
+
+	private Map<String, K8sServiceMembers> loadAll() {
+
+		Map<String, K8sServiceMembers> wanted = new HashMap<>();
+		for (ClientMemberDiscovery view : views) {
+			wanted.put(view.getServiceName(), current.get(view.getServiceName()));
+		}
+
+		String path = "/api/v1/namespaces/" + namespace + "/endpoints?limit=" + client.getPageSize();
+		if (log.isTraceEnabled()) {
+			log.trace("loading endpoints of namespace:{} for services:{}", namespace, wanted.keySet());
+		}
+		Map<String, K8sServiceMembers> loaded = new HashMap<>();
+		try {
+			parser.startList();
+			String continueToken = null;
+			do {
+				String pagePath = (continueToken == null) ? path : path + "&continue=" + URLEncoder.encode(continueToken, "UTF-8");
+				InputStream inputStream = K8sTransport.content(client.transport().get(pagePath));
+				try {
+					continueToken = parser.parseListPage(inputStream, wanted, loaded);
+				} finally {
+					K8sTransport.drain(inputStream);
+				}
+			} while (continueToken != null && !continueToken.isEmpty());
+		} catch (Exception e) {
+			throw new IllegalStateException("Error getting members of namespace " + namespace, e);
+		}
+
+		current = loaded;
+		for (ClientMemberDiscovery view : views) {
+			view.publish(loaded.getOrDefault(view.getServiceName(), EMPTY));
+		}
+		return loaded;
+	}
+}
@@ -0,0 +1,78 @@
+package org.avaje.k8s.discovery;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The addresses of a subset or slice held until its ports are read.
+ * <p>
+ * The ports typically follow the addresses so the fields of each address are buffered and
+ * the members built once with the ports (rather than built and copied with the ports).
+ * The buffer is reused and not thread safe.
+ */
+final class PendingAddresses {
+
+	private static final int READY = 1;
+	private static final int SERVING = 2;
+	private static final int TERMINATING = 4;
+
+	private String[] ips = new String[16];
+	private String[] nodeNames = new String[16];
+	private String[] podNames = new String[16];
+	private String[] zones = new String[16];
+	private String[] hostnames = new String[16];
+	private byte[] flags = new byte[16];
+
+	private int size;
+
+	/**
+	 * Add the fields of an address.
+	 */
+	void add(String ip, String nodeName, String podName, boolean ready, boolean serving, boolean terminating, String zone, String hostname) {
+		if (size == ips.length) {
+			int length = size * 2;
+			ips = Arrays.copyOf(ips, length);
+			nodeNames = Arrays.copyOf(nodeNames, length);
+			podNames = Arrays.copyOf(podNames, length);
+			zones = Arrays.copyOf(zones, length);
+			hostnames = Arrays.copyOf(hostnames, length);
+			flags = Arrays.copyOf(flags, length);
+		}
+		ips[size] = ip;
+		nodeNames[size] = nodeName;
+		podNames[size] = podName;
+		zones[size] = zone;
+		hostnames[size] = hostname;
+		flags[size] = (byte) ((ready ? READY : 0) | (serving ? SERVING : 0) | (terminating ? TERMINATING : 0));
+		size++;
+	}
+
+	/**
+	 * Return the number of addresses.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Build the member of the address at the given position with the (immutable) ports.
+	 */
+	K8sServiceMember member(int position, List<K8sServicePort> ports) {
+		int flag = flags[position];
+		return new K8sServiceMember(ips[position], nodeNames[position], podNames[position], (flag & READY) != 0,
+				(flag & SERVING) != 0, (flag & TERMINATING) != 0, Collections.emptyMap(), zones[position], hostnames[position], ports);
+	}
+
+	/**
+	 * Clear the addresses such that the strings are not retained.
+	 */
+	void clear() {
+		Arrays.fill(ips, 0, size, null);
+		Arrays.fill(nodeNames, 0, size, null);
+		Arrays.fill(podNames, 0, size, null);
+		Arrays.fill(zones, 0, size, null);
+		Arrays.fill(hostnames, 0, size, null);
+		size = 0;
+	}
+}
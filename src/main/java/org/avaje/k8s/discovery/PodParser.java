@@ -0,0 +1,213 @@
+package org.avaje.k8s.discovery;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses pages of a PodList into members.
+ * <p>
+ * Only the pod name, labels, deletionTimestamp, node, hostname, container ports, IP and Ready condition are read,
+ * the rest of each pod (spec containers, managedFields etc) is skipped without being decoded.
+ * Pods without an IP address (not yet scheduled) are not members.
+ */
+class PodParser extends ListParser {
+
+	private static final int POD_METADATA = 0;
+	private static final int POD_SPEC = 1;
+	private static final int POD_STATUS = 2;
+	private static final byte[][] POD = JsonReader.names("metadata", "spec", "status");
+
+	private static final int METADATA_NAME = 0;
+	private static final int METADATA_LABELS = 1;
+	private static final int METADATA_DELETION_TIMESTAMP = 2;
+	private static final byte[][] METADATA = JsonReader.names("name", "labels", "deletionTimestamp");
+
+	private static final int SPEC_NODE_NAME = 0;
+	private static final int SPEC_HOSTNAME = 1;
+	private static final int SPEC_CONTAINERS = 2;
+	private static final byte[][] SPEC = JsonReader.names("nodeName", "hostname", "containers");
+
+	private static final int CONTAINER_PORTS = 0;
+	private static final byte[][] CONTAINER = JsonReader.names("ports");
+
+	private static final int STATUS_POD_IP = 0;
+	private static final int STATUS_CONDITIONS = 1;
+	private static final byte[][] STATUS = JsonReader.names("podIP", "conditions");
+
+	private static final int CONDITION_TYPE = 0;
+	private static final int CONDITION_STATUS = 1;
+	private static final byte[][] CONDITION = JsonReader.names("type", "status");
+
+	private String podName;
+	private Map<String, String> labels;
+	private boolean terminating;
+	private String nodeName;
+	private String hostname;
+	private List<K8sServicePort> ports;
+	private String ipAddress;
+	private boolean ready;
+
+	@Override
+	protected void readItem() throws IOException {
+		if (!reader.beginObject()) {
+			return;
+		}
+		podName = null;
+		labels = Collections.emptyMap();
+		terminating = false;
+		nodeName = null;
+		hostname = null;
+		ports = Collections.emptyList();
+		ipAddress = null;
+		ready = false;
+		while (reader.hasNext()) {
+			switch (reader.nextName(POD)) {
+				case POD_METADATA:
+					readMetadata();
+					break;
+				case POD_SPEC:
+					readSpec();
+					break;
+				case POD_STATUS:
+					readStatus();
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+		if (ipAddress != null) {
+			// like the endpoints controller a terminating pod is not ready but may still be serving
+			add(new K8sServiceMember(ipAddress, nodeName, podName, ready && !terminating, ready, terminating,
+					labels, null, hostname, PortsReader.immutable(ports)));
+		}
+	}
+
+	private void readMetadata() throws IOException {
+		if (reader.beginObject()) {
+			while (reader.hasNext()) {
+				switch (reader.nextName(METADATA)) {
+					case METADATA_NAME:
+						podName = reader.nextString();
+						break;
+					case METADATA_LABELS:
+						labels = readLabels();
+						break;
+					case METADATA_DELETION_TIMESTAMP:
+						terminating = reader.nextString() != null;
+						break;
+					default:
+						reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+	}
+
+	private Map<String, String> readLabels() throws IOException {
+		Map<String, String> map = new LinkedHashMap<>();
+		if (reader.beginObject()) {
+			while (reader.hasNext()) {
+				// a name is a JSON string
+				String key = reader.nextString(dictionary);
+				map.put(key, reader.nextString(dictionary));
+			}
+			reader.endObject();
+		}
+		return map;
+	}
+
+	private void readSpec() throws IOException {
+		if (reader.beginObject()) {
+			while (reader.hasNext()) {
+				switch (reader.nextName(SPEC)) {
+					case SPEC_NODE_NAME:
+						nodeName = reader.nextString(dictionary);
+						break;
+					case SPEC_HOSTNAME:
+						hostname = reader.nextString();
+						break;
+					case SPEC_CONTAINERS:
+						readContainers();
+						break;
+					default:
+						reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+	}
+
+	/**
+	 * Read the ports of all the containers.
+	 */
+	private void readContainers() throws IOException {
+		if (reader.beginArray()) {
+			while (reader.hasNext()) {
+				if (reader.beginObject()) {
+					while (reader.hasNext()) {
+						if (reader.nextName(CONTAINER) == CONTAINER_PORTS) {
+							ports = PortsReader.read(reader, dictionary, ports);
+						} else {
+							reader.skipValue();
+						}
+					}
+					reader.endObject();
+				}
+			}
+			reader.endArray();
+		}
+	}
+
+	private void readStatus() throws IOException {
+		if (reader.beginObject()) {
+			while (reader.hasNext()) {
+				switch (reader.nextName(STATUS)) {
+					case STATUS_POD_IP:
+						ipAddress = reader.nextString();
+						break;
+					case STATUS_CONDITIONS:
+						readConditions();
+						break;
+					default:
+						reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+	}
+
+	/**
+	 * Read the conditions setting ready from the Ready condition.
+	 */
+	private void readConditions() throws IOException {
+		if (reader.beginArray()) {
+			while (reader.hasNext()) {
+				if (reader.beginObject()) {
+					String type = null;
+					String status = null;
+					while (reader.hasNext()) {
+						switch (reader.nextName(CONDITION)) {
+							case CONDITION_TYPE:
+								type = reader.nextString();
+								break;
+							case CONDITION_STATUS:
+								status = reader.nextString();
+								break;
+							default:
+								reader.skipValue();
+						}
+					}
+					reader.endObject();
+					if ("Ready".equals(type)) {
+						ready = "True".equals(status);
+					}
+				}
+			}
+			reader.endArray();
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package org.avaje.k8s.discovery;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads a ports array of an Endpoints subset, EndpointSlice or pod container.
+ */
+final class PortsReader {
+
+	private static final int PORT_NAME = 0;
+	private static final int PORT_PORT = 1;
+	private static final int PORT_CONTAINER_PORT = 2;
+	private static final int PORT_PROTOCOL = 3;
+	private static final byte[][] PORT = JsonReader.names("name", "port", "containerPort", "protocol");
+
+	private PortsReader() {
+	}
+
+	/**
+	 * Read the ports adding them to the given list (which can be empty and immutable).
+	 *
+	 * @return The list with the ports added
+	 */
+	static List<K8sServicePort> read(JsonReader reader, StringDictionary dictionary, List<K8sServicePort> ports) throws IOException {
+		if (reader.beginArray()) {
+			while (reader.hasNext()) {
+				K8sServicePort port = readPort(reader, dictionary);
+				if (port != null) {
+					if (ports.isEmpty()) {
+						ports = new ArrayList<>(2);
+					}
+					ports.add(port);
+				}
+			}
+			reader.endArray();
+		}
+		return ports;
+	}
+
+	/**
+	 * Return the ports as an immutable list.
+	 */
+	static List<K8sServicePort> immutable(List<K8sServicePort> ports) {
+		return ports.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(ports);
+	}
+
+	private static K8sServicePort readPort(JsonReader reader, StringDictionary dictionary) throws IOException {
+		if (!reader.beginObject()) {
+			return null;
+		}
+		String name = null;
+		int port = 0;
+		String protocol = "TCP";
+		while (reader.hasNext()) {
+			switch (reader.nextName(PORT)) {
+				case PORT_NAME:
+					name = reader.nextString(dictionary);
+					break;
+				case PORT_PORT:
+				case PORT_CONTAINER_PORT:
+					port = reader.nextInt();
+					break;
+				case PORT_PROTOCOL:
+					String value = reader.nextString(dictionary);
+					if (value != null) {
+						protocol = value;
+					}
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return new K8sServicePort(name, port, protocol);
+	}
+}
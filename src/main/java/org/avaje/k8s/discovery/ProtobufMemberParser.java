@@ -0,0 +1,271 @@
+package org.avaje.k8s.discovery;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parses Endpoints in the kubernetes protobuf encoding (application/vnd.kubernetes.protobuf).
+ * <p>
+ * The content is the 4 byte magic prefix "k8s\0" followed by a runtime.Unknown envelope
+ * with the Endpoints message as its raw bytes. It is read in a single pass using
+ * {@link ProtobufReader} such that, like {@link MemberParser}, there are no dependencies
+ * on protobuf libraries. The parser reuses its buffers and is not thread safe.
+ */
+class ProtobufMemberParser {
+
+	static final String CONTENT_TYPE = "application/vnd.kubernetes.protobuf";
+
+	private static final byte[] MAGIC = {'k', '8', 's', 0};
+
+	// runtime.Unknown
+	private static final int UNKNOWN_RAW = 2;
+	private static final int UNKNOWN_CONTENT_ENCODING = 3;
+
+	// v1.Endpoints
+	private static final int ENDPOINTS_METADATA = 1;
+	private static final int ENDPOINTS_SUBSETS = 2;
+
+	// v1.ObjectMeta
+	private static final int METADATA_RESOURCE_VERSION = 6;
+
+	// v1.EndpointSubset
+	private static final int SUBSET_ADDRESSES = 1;
+	private static final int SUBSET_NOT_READY_ADDRESSES = 2;
+	private static final int SUBSET_PORTS = 3;
+
+	// v1.EndpointAddress
+	private static final int ADDRESS_IP = 1;
+	private static final int ADDRESS_TARGET_REF = 2;
+	private static final int ADDRESS_HOSTNAME = 3;
+	private static final int ADDRESS_NODE_NAME = 4;
+
+	// v1.ObjectReference
+	private static final int TARGET_REF_NAME = 3;
+
+	// v1.EndpointPort
+	private static final int PORT_NAME = 1;
+	private static final int PORT_PORT = 2;
+	private static final int PORT_PROTOCOL = 3;
+
+	private final ProtobufReader reader = new ProtobufReader();
+
+	/**
+	 * The addresses of the current subset (built with the ports once the subset is read).
+	 */
+	private final PendingAddresses subset = new PendingAddresses();
+
+	private List<K8sServiceMember> ready;
+
+	private List<K8sServiceMember> notReady;
+
+	private String resourceVersion;
+
+	/**
+	 * The repeated strings (node names, ports) of the snapshot being read.
+	 */
+	private StringDictionary dictionary;
+
+	/**
+	 * Parse the raw protobuf content returning the members.
+	 */
+	K8sServiceMembers parse(InputStream inputStream) throws IOException {
+		return parse(inputStream, null);
+	}
+
+	/**
+	 * Parse the endpoints returning null without reading further when the
+	 * metadata.resourceVersion matches the given (current) resourceVersion.
+	 */
+	K8sServiceMembers parse(InputStream inputStream, String currentVersion) throws IOException {
+		reader.reset(inputStream);
+		ready = new ArrayList<>();
+		notReady = new ArrayList<>();
+		resourceVersion = null;
+		dictionary = new StringDictionary();
+		if (!reader.readMagic(MAGIC)) {
+			throw new IOException("Content is not kubernetes protobuf (missing k8s magic prefix)");
+		}
+		int field;
+		while ((field = reader.nextField()) != 0) {
+			switch (field) {
+				case UNKNOWN_RAW:
+					long limit = reader.pushLimit();
+					if (!readEndpoints(currentVersion)) {
+						return null;
+					}
+					reader.popLimit(limit);
+					break;
+				case UNKNOWN_CONTENT_ENCODING:
+					String encoding = reader.readString();
+					if (!encoding.isEmpty()) {
+						throw new IOException("Unsupported protobuf content encoding " + encoding);
+					}
+					break;
+				default:
+					reader.skipField();
+			}
+		}
+		return new K8sServiceMembers(resourceVersion, ready, notReady);
+	}
+
+	/**
+	 * Read the Endpoints message returning false when the resourceVersion is unchanged.
+	 */
+	private boolean readEndpoints(String currentVersion) throws IOException {
+		int field;
+		while ((field = reader.nextField()) != 0) {
+			switch (field) {
+				case ENDPOINTS_METADATA:
+					readMetadata();
+					if (resourceVersion != null && resourceVersion.equals(currentVersion)) {
+						return false;
+					}
+					break;
+				case ENDPOINTS_SUBSETS:
+					readSubset();
+					break;
+				default:
+					reader.skipField();
+			}
+		}
+		return true;
+	}
+
+	private void readMetadata() throws IOException {
+		long limit = reader.pushLimit();
+		int field;
+		while ((field = reader.nextField()) != 0) {
+			if (field == METADATA_RESOURCE_VERSION) {
+				resourceVersion = reader.readString();
+			} else {
+				reader.skipField();
+			}
+		}
+		reader.popLimit(limit);
+	}
+
+	/**
+	 * Read a subset where the ports typically follow the addresses.
+	 */
+	private void readSubset() throws IOException {
+		long limit = reader.pushLimit();
+		subset.clear();
+		List<K8sServicePort> ports = Collections.emptyList();
+		int field;
+		while ((field = reader.nextField()) != 0) {
+			switch (field) {
+				case SUBSET_ADDRESSES:
+					readAddress(true);
+					break;
+				case SUBSET_NOT_READY_ADDRESSES:
+					readAddress(false);
+					break;
+				case SUBSET_PORTS:
+					if (ports.isEmpty()) {
+						ports = new ArrayList<>(2);
+					}
+					ports.add(readPort());
+					break;
+				default:
+					reader.skipField();
+			}
+		}
+		reader.popLimit(limit);
+		ports = PortsReader.immutable(ports);
+		for (int i = 0; i < subset.size(); i++) {
+			K8sServiceMember member = subset.member(i, ports);
+			if (member.isReady()) {
+				ready.add(member);
+			} else {
+				notReady.add(member);
+			}
+		}
+		subset.clear();
+	}
+
+	private void readAddress(boolean ready) throws IOException {
+		long limit = reader.pushLimit();
+		String ipAddress = null;
+		String nodeName = null;
+		String podName = null;
+		String hostname = null;
+		int field;
+		while ((field = reader.nextField()) != 0) {
+			switch (field) {
+				case ADDRESS_IP:
+					ipAddress = reader.readString();
+					break;
+				case ADDRESS_NODE_NAME:
+					nodeName = reader.readString(dictionary);
+					break;
+				case ADDRESS_TARGET_REF:
+					podName = readTargetRefName();
+					break;
+				case ADDRESS_HOSTNAME:
+					hostname = reader.readString();
+					break;
+				default:
+					reader.skipField();
+			}
+		}
+		reader.popLimit(limit);
+		subset.add(ipAddress, nodeName, podName, ready, ready, false, null, hostname);
+	}
+
+	private String readTargetRefName() throws IOException {
+		long limit = reader.pushLimit();
+		String name = null;
+		int field;
+		while ((field = reader.nextField()) != 0) {
+			if (field == TARGET_REF_NAME) {
+				name = reader.readString();
+			} else {
+				reader.skipField();
+			}
+		}
+		reader.popLimit(limit);
+		return name;
+	}
+
+	private K8sServicePort readPort() throws IOException {
+		long limit = reader.pushLimit();
+		String name = null;
+		int port = 0;
+		String protocol = "TCP";
+		int field;
+		while ((field = reader.nextField()) != 0) {
+			switch (field) {
+				case PORT_NAME:
+					name = reader.readString(dictionary);
+					break;
+				case PORT_PORT:
+					port = reader.readInt();
+					break;
+				case PORT_PROTOCOL:
+					protocol = reader.readString(dictionary);
+					break;
+				default:
+					reader.skipField();
+			}
+		}
+		reader.popLimit(limit);
+		return new K8sServicePort(name, port, protocol);
+	}
+
+	/**
+	 * Return the number of bytes read from the input stream by the last parse.
+	 */
+	long getBytesRead() {
+		return reader.getBytesRead();
+	}
+
+	/**
+	 * Return true if the content type is the kubernetes protobuf encoding.
+	 */
+	static boolean isProtobuf(String contentType) {
+		return contentType != null && contentType.startsWith(CONTENT_TYPE);
+	}
+}
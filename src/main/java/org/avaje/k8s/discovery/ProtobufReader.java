@@ -0,0 +1,244 @@
+package org.avaje.k8s.discovery;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal streaming reader of the protobuf wire format.
+ * <p>
+ * Reads fields (tag, varint, length delimited) straight from the input stream with nested
+ * messages bounded by a limit. Only what is needed to read the kubernetes types used by
+ * this library is supported (no groups, no packed or zigzag values). The buffer is reused
+ * and the reader is not thread safe.
+ */
+final class ProtobufReader {
+
+	static final int WIRE_VARINT = 0;
+	static final int WIRE_FIXED64 = 1;
+	static final int WIRE_LENGTH_DELIMITED = 2;
+	static final int WIRE_FIXED32 = 5;
+
+	private static final long NO_LIMIT = Long.MAX_VALUE;
+
+	private final byte[] buffer = new byte[8192];
+
+	private InputStream inputStream;
+
+	private int pos;
+
+	private int end;
+
+	/**
+	 * Bytes read before the current buffer content.
+	 */
+	private long offset;
+
+	private long limit = NO_LIMIT;
+
+	private int wireType;
+
+	/**
+	 * Start reading the given input stream.
+	 */
+	void reset(InputStream inputStream) {
+		this.inputStream = inputStream;
+		this.pos = 0;
+		this.end = 0;
+		this.offset = 0;
+		this.limit = NO_LIMIT;
+	}
+
+	/**
+	 * Return true if the content starts with the given magic prefix (which is consumed).
+	 */
+	boolean readMagic(byte[] magic) throws IOException {
+		if (!fill(magic.length)) {
+			return false;
+		}
+		for (int i = 0; i < magic.length; i++) {
+			if (buffer[pos + i] != magic[i]) {
+				return false;
+			}
+		}
+		pos += magic.length;
+		return true;
+	}
+
+	/**
+	 * Return the number of the next field or 0 at the end of the message.
+	 */
+	int nextField() throws IOException {
+		if (position() >= limit || (limit == NO_LIMIT && !fill(1))) {
+			return 0;
+		}
+		int tag = (int) readVarint();
+		wireType = tag & 0x7;
+		return tag >>> 3;
+	}
+
+	/**
+	 * Return the wire type of the current field.
+	 */
+	int wireType() {
+		return wireType;
+	}
+
+	/**
+	 * Read a varint value.
+	 */
+	long readVarint() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			if (pos == end && !fill(1)) {
+				throw new EOFException("Truncated protobuf varint");
+			}
+			byte b = buffer[pos++];
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed protobuf varint");
+	}
+
+	/**
+	 * Read a varint value as an int.
+	 */
+	int readInt() throws IOException {
+		return (int) readVarint();
+	}
+
+	/**
+	 * Read a length delimited UTF-8 string.
+	 */
+	String readString() throws IOException {
+		return readString(null);
+	}
+
+	/**
+	 * Read a length delimited string returning the dictionary instance when it is a repeated value.
+	 */
+	String readString(StringDictionary dictionary) throws IOException {
+		int length = readLength();
+		if (length <= buffer.length) {
+			if (!fill(length)) {
+				throw new EOFException("Truncated protobuf string");
+			}
+			String value = (dictionary != null) ? dictionary.intern(buffer, pos, length) : new String(buffer, pos, length, StandardCharsets.UTF_8);
+			pos += length;
+			return value;
+		}
+		byte[] bytes = new byte[length];
+		int read = Math.min(end - pos, length);
+		System.arraycopy(buffer, pos, bytes, 0, read);
+		pos += read;
+		while (read < length) {
+			int count = inputStream.read(bytes, read, length - read);
+			if (count < 0) {
+				throw new EOFException("Truncated protobuf string");
+			}
+			offset += count;
+			read += count;
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Start reading an embedded message returning the previous limit to pass to {@link #popLimit(long)}.
+	 */
+	long pushLimit() throws IOException {
+		long length = readLength();
+		long previous = limit;
+		limit = position() + length;
+		if (limit > previous) {
+			throw new IOException("Malformed protobuf, embedded message exceeds its parent");
+		}
+		return previous;
+	}
+
+	/**
+	 * End reading an embedded message skipping any of it not read.
+	 */
+	void popLimit(long previous) throws IOException {
+		skip(limit - position());
+		limit = previous;
+	}
+
+	/**
+	 * Skip the value of the current field.
+	 */
+	void skipField() throws IOException {
+		switch (wireType) {
+			case WIRE_VARINT:
+				readVarint();
+				break;
+			case WIRE_FIXED64:
+				skip(8);
+				break;
+			case WIRE_LENGTH_DELIMITED:
+				skip(readLength());
+				break;
+			case WIRE_FIXED32:
+				skip(4);
+				break;
+			default:
+				throw new IOException("Unsupported protobuf wire type " + wireType);
+		}
+	}
+
+	/**
+	 * Return the number of bytes read.
+	 */
+	long getBytesRead() {
+		return offset + end;
+	}
+
+	private long position() {
+		return offset + pos;
+	}
+
+	private int readLength() throws IOException {
+		long length = readVarint();
+		if (length < 0 || length > Integer.MAX_VALUE) {
+			throw new IOException("Malformed protobuf length " + length);
+		}
+		return (int) length;
+	}
+
+	private void skip(long count) throws IOException {
+		while (count > 0) {
+			if (pos == end && !fill(1)) {
+				throw new EOFException("Truncated protobuf content");
+			}
+			int step = (int) Math.min(count, end - pos);
+			pos += step;
+			count -= step;
+		}
+	}
+
+	/**
+	 * Ensure at least the given number of bytes are buffered returning false at end of stream.
+	 */
+	private boolean fill(int required) throws IOException {
+		if (end - pos >= required) {
+			return true;
+		}
+		if (pos > 0) {
+			int remaining = end - pos;
+			System.arraycopy(buffer, pos, buffer, 0, remaining);
+			offset += pos;
+			pos = 0;
+			end = remaining;
+		}
+		while (end < required) {
+			int count = inputStream.read(buffer, end, buffer.length - end);
+			if (count < 0) {
+				return false;
+			}
+			end += count;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,77 @@
+package org.avaje.k8s.discovery;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting the rate of requests to the kubernetes master.
+ * <p>
+ * Allows bursts up to the bucket size with tokens refilled at the given rate. Requests
+ * can also be paused for a period such as the Retry-After of a 429 response.
+ */
+class RateLimiter {
+
+	private final double permitsPerSecond;
+
+	private final double burst;
+
+	private final double nanosPerPermit;
+
+	private double tokens;
+
+	private long refilledNanos;
+
+	private long pausedUntilNanos;
+
+	/**
+	 * Create with the given rate and burst size (a rate of 0 or less is unlimited).
+	 */
+	RateLimiter(double permitsPerSecond, int burst) {
+		this.permitsPerSecond = permitsPerSecond;
+		this.burst = Math.max(1, burst);
+		this.nanosPerPermit = permitsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / permitsPerSecond : 0;
+		this.tokens = this.burst;
+		this.refilledNanos = System.nanoTime();
+	}
+
+	/**
+	 * Wait until a request is permitted.
+	 */
+	void acquire() throws InterruptedIOException {
+		long waitNanos = reserve(System.nanoTime());
+		if (waitNanos > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(waitNanos);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for rate limit");
+			}
+		}
+	}
+
+	/**
+	 * Take a token returning the nanos to wait before the request is permitted.
+	 */
+	synchronized long reserve(long now) {
+		long pauseNanos = Math.max(0, pausedUntilNanos - now);
+		if (permitsPerSecond <= 0) {
+			return pauseNanos;
+		}
+		tokens = Math.min(burst, tokens + (now - refilledNanos) / nanosPerPermit);
+		refilledNanos = now;
+		// tokens go negative as waiting requests take the tokens of the future
+		tokens -= 1;
+		long waitNanos = tokens >= 0 ? 0 : (long) (-tokens * nanosPerPermit);
+		return Math.max(pauseNanos, waitNanos);
+	}
+
+	/**
+	 * Pause requests for the given time (for example the Retry-After of a 429 response).
+	 */
+	synchronized void pause(long millis) {
+		long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+		if (until - pausedUntilNanos > 0) {
+			pausedUntilNanos = until;
+		}
+	}
+}
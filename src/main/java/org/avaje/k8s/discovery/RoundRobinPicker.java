@@ -0,0 +1,31 @@
+package org.avaje.k8s.discovery;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Lock free round robin over the current members.
+ * <p>
+ * The position carries over when the members change continuing from the same index.
+ */
+final class RoundRobinPicker implements K8sMemberPicker {
+
+	private final Supplier<List<K8sServiceMember>> members;
+
+	private final AtomicInteger position = new AtomicInteger();
+
+	RoundRobinPicker(Supplier<List<K8sServiceMember>> members) {
+		this.members = members;
+	}
+
+	@Override
+	public K8sServiceMember pick() {
+		List<K8sServiceMember> list = members.get();
+		int size = list.size();
+		if (size == 0) {
+			return null;
+		}
+		return list.get(Math.floorMod(position.getAndIncrement(), size));
+	}
+}
@@ -0,0 +1,85 @@
+package org.avaje.k8s.discovery;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * JVM wide registry of discoveries shared by masterUrl, namespace and service.
+ * <p>
+ * Each entry owns the one discovery that loads, refreshes or watches the members and is
+ * reference counted by the shared discoveries using it. It is closed when the last one
+ * is released. The registry is per copy of this library so discoveries loaded by
+ * different classloaders are not shared.
+ */
+final class SharedDiscovery {
+
+	private static final Logger log = LoggerFactory.getLogger(SharedDiscovery.class);
+
+	private static final ReentrantLock lock = new ReentrantLock();
+
+	private static final Map<String, SharedDiscovery> registry = new HashMap<>();
+
+	private final String key;
+
+	final K8sMemberDiscovery source;
+
+	private int refCount;
+
+	private SharedDiscovery(String key, K8sMemberDiscovery source) {
+		this.key = key;
+		this.source = source;
+	}
+
+	/**
+	 * Return the entry for the given discovery creating it (using its settings) if required.
+	 */
+	static SharedDiscovery acquire(K8sMemberDiscovery discovery) {
+		String key = discovery.sharedKey();
+		lock.lock();
+		try {
+			SharedDiscovery entry = registry.get(key);
+			if (entry == null) {
+				entry = new SharedDiscovery(key, discovery.newSharedSource());
+				registry.put(key, entry);
+				log.debug("created shared discovery {}", key);
+			}
+			entry.refCount++;
+			return entry;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Release a reference closing the source when it is the last one.
+	 */
+	void release() {
+		lock.lock();
+		try {
+			if (--refCount > 0) {
+				return;
+			}
+			registry.remove(key);
+		} finally {
+			lock.unlock();
+		}
+		log.debug("closing shared discovery {}", key);
+		source.close();
+	}
+
+	/**
+	 * Return the number of shared discoveries in use.
+	 */
+	static int size() {
+		lock.lock();
+		try {
+			return registry.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package org.avaje.k8s.discovery;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs a load such that concurrent callers share the one in-flight load.
+ */
+class SingleFlight<T> {
+
+	private final AtomicReference<CompletableFuture<T>> inflight = new AtomicReference<>();
+
+	/**
+	 * Run the load or wait for and return the result of the load already in flight.
+	 */
+	T run(Supplier<T> load) {
+		while (true) {
+			CompletableFuture<T> existing = inflight.get();
+			if (existing != null) {
+				return await(existing);
+			}
+			CompletableFuture<T> future = new CompletableFuture<>();
+			if (inflight.compareAndSet(null, future)) {
+				try {
+					T result = load.get();
+					future.complete(result);
+					return result;
+				} catch (RuntimeException e) {
+					future.completeExceptionally(e);
+					throw e;
+				} finally {
+					inflight.compareAndSet(future, null);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Run the load using the executor or return the load already in flight.
+	 * <p>
+	 * Each caller gets its own dependent future such that cancelling or completing it does
+	 * not change the result seen by the other callers.
+	 */
+	CompletableFuture<T> runAsync(Supplier<T> load, Executor executor) {
+		while (true) {
+			CompletableFuture<T> existing = inflight.get();
+			if (existing != null) {
+				return existing.thenApply(Function.identity());
+			}
+			CompletableFuture<T> future = new CompletableFuture<>();
+			if (inflight.compareAndSet(null, future)) {
+				try {
+					executor.execute(() -> {
+						try {
+							future.complete(load.get());
+						} catch (Throwable e) {
+							future.completeExceptionally(e);
+						} finally {
+							inflight.compareAndSet(future, null);
+						}
+					});
+				} catch (RuntimeException e) {
+					// rejected by the executor
+					inflight.compareAndSet(future, null);
+					future.completeExceptionally(e);
+				}
+				return future.thenApply(Function.identity());
+			}
+		}
+	}
+
+	private T await(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IllegalStateException("Error getting members", cause);
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package org.avaje.k8s.discovery;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary file holding the last good members of a service.
+ * <p>
+ * Layout: magic, version, timestamp, resourceVersion, then the ready and not ready members
+ * as counted lists of (flags, ip, node, pod, labels, zone, hostname, ports). Strings are length prefixed UTF-8 with -1 for null.
+ */
+class SnapshotFile {
+
+	private static final Logger log = LoggerFactory.getLogger(SnapshotFile.class);
+
+	private static final int MAGIC = 0x4b385344; // K8SD
+
+	private static final byte VERSION = 3;
+
+	private static final int READY = 1;
+	private static final int SERVING = 2;
+	private static final int TERMINATING = 4;
+
+	private final Path path;
+
+	/**
+	 * The resourceVersion last written or read (to skip rewriting unchanged members).
+	 */
+	private volatile String version;
+
+	SnapshotFile(File file) {
+		this.path = file.toPath();
+	}
+
+	/**
+	 * A snapshot read from the file with the time it was loaded from the kubernetes master.
+	 */
+	static final class Entry {
+
+		final long timestamp;
+		final K8sServiceMembers members;
+
+		Entry(long timestamp, K8sServiceMembers members) {
+			this.timestamp = timestamp;
+			this.members = members;
+		}
+	}
+
+	/**
+	 * Write the members replacing the file atomically.
+	 */
+	void write(K8sServiceMembers members, long timestamp) throws IOException {
+		String resourceVersion = members.getResourceVersion();
+		if (resourceVersion != null && resourceVersion.equals(version)) {
+			return;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeLong(timestamp);
+		writeString(out, resourceVersion);
+		writeMembers(out, members.getMembers());
+		writeMembers(out, members.getNotReady());
+		out.flush();
+
+		Path dir = path.toAbsolutePath().getParent();
+		Files.createDirectories(dir);
+		Path temp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+		try {
+			Files.write(temp, bytes.toByteArray(), StandardOpenOption.WRITE);
+			try {
+				Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		version = resourceVersion;
+	}
+
+	/**
+	 * Read the members returning null if there is no file, it is older than maxAgeMillis or is corrupt.
+	 * <p>
+	 * The file is memory mapped and the members are only decoded when the header is valid and not too old.
+	 */
+	Entry read(long maxAgeMillis) {
+		if (!Files.isRegularFile(path)) {
+			return null;
+		}
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.remaining() < 13 || buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+				log.warn("Ignoring invalid members snapshot file {}", path);
+				return null;
+			}
+			long timestamp = buffer.getLong();
+			long age = System.currentTimeMillis() - timestamp;
+			if (maxAgeMillis > 0 && age > maxAgeMillis) {
+				log.debug("Ignoring members snapshot file {} with age {}ms", path, age);
+				return null;
+			}
+			String resourceVersion = readString(buffer);
+			List<K8sServiceMember> ready = readMembers(buffer);
+			List<K8sServiceMember> notReady = readMembers(buffer);
+			version = resourceVersion;
+			return new Entry(timestamp, new K8sServiceMembers(resourceVersion, ready, notReady));
+
+		} catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+			log.warn("Ignoring unreadable members snapshot file " + path, e);
+			return null;
+		}
+	}
+
+	private static void writeMembers(DataOutputStream out, List<K8sServiceMember> members) throws IOException {
+		out.writeInt(members.size());
+		for (K8sServiceMember member : members) {
+			int flags = (member.isReady() ? READY : 0)
+					| (member.isServing() ? SERVING : 0)
+					| (member.isTerminating() ? TERMINATING : 0);
+			out.writeByte(flags);
+			writeString(out, member.getIpAddress());
+			writeString(out, member.getNodeName());
+			writeString(out, member.getPodName());
+			Map<String, String> labels = member.getLabels();
+			out.writeInt(labels.size());
+			for (Map.Entry<String, String> label : labels.entrySet()) {
+				writeString(out, label.getKey());
+				writeString(out, label.getValue());
+			}
+			writeString(out, member.getZone());
+			writeString(out, member.getHostname());
+			List<K8sServicePort> ports = member.getPorts();
+			out.writeInt(ports.size());
+			for (K8sServicePort port : ports) {
+				writeString(out, port.getName());
+				out.writeInt(port.getPort());
+				writeString(out, port.getProtocol());
+			}
+		}
+	}
+
+	private static List<K8sServiceMember> readMembers(ByteBuffer buffer) {
+		int count = buffer.getInt();
+		if (count < 0 || count > buffer.remaining()) {
+			throw new IllegalArgumentException("Invalid member count " + count);
+		}
+		List<K8sServiceMember> members = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			int flags = buffer.get();
+			String ip = readString(buffer);
+			String node = readString(buffer);
+			String pod = readString(buffer);
+			Map<String, String> labels = readLabels(buffer);
+			String zone = readString(buffer);
+			String hostname = readString(buffer);
+			List<K8sServicePort> ports = readPorts(buffer);
+			members.add(new K8sServiceMember(ip, node, pod, (flags & READY) != 0, (flags & SERVING) != 0, (flags & TERMINATING) != 0,
+					labels, zone, hostname, ports));
+		}
+		return members;
+	}
+
+	private static Map<String, String> readLabels(ByteBuffer buffer) {
+		int count = buffer.getInt();
+		if (count == 0) {
+			return Collections.emptyMap();
+		}
+		if (count < 0 || count > buffer.remaining()) {
+			throw new IllegalArgumentException("Invalid label count " + count);
+		}
+		Map<String, String> labels = new LinkedHashMap<>();
+		for (int i = 0; i < count; i++) {
+			labels.put(readString(buffer), readString(buffer));
+		}
+		return labels;
+	}
+
+	private static List<K8sServicePort> readPorts(ByteBuffer buffer) {
+		int count = buffer.getInt();
+		if (count == 0) {
+			return Collections.emptyList();
+		}
+		if (count < 0 || count > buffer.remaining()) {
+			throw new IllegalArgumentException("Invalid port count " + count);
+		}
+		List<K8sServicePort> ports = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			ports.add(new K8sServicePort(readString(buffer), buffer.getInt(), readString(buffer)));
+		}
+		return Collections.unmodifiableList(ports);
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length == -1) {
+			return null;
+		}
+		if (length < 0 || length > buffer.remaining()) {
+			throw new IllegalArgumentException("Invalid string length " + length);
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
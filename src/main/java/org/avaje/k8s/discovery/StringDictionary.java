@@ -0,0 +1,130 @@
+package org.avaje.k8s.discovery;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Dictionary of the repeated strings of a snapshot such as node names, zones and labels.
+ * <p>
+ * Values are looked up by their decoded chars (or ASCII bytes) before a String is created
+ * so repeated values are neither allocated nor duplicated in the snapshot. A new dictionary
+ * is used for each snapshot such that values no longer used are not retained.
+ */
+final class StringDictionary {
+
+	/**
+	 * Longer values are unlikely to repeat and are not interned.
+	 */
+	private static final int MAX_LENGTH = 128;
+
+	private String[] table = new String[64];
+
+	private int size;
+
+	/**
+	 * Return the String of the given chars.
+	 */
+	String intern(char[] chars, int len) {
+		if (len > MAX_LENGTH) {
+			return new String(chars, 0, len);
+		}
+		int hash = 0;
+		for (int i = 0; i < len; i++) {
+			hash = 31 * hash + chars[i];
+		}
+		int mask = table.length - 1;
+		int slot = mix(hash) & mask;
+		String existing;
+		while ((existing = table[slot]) != null) {
+			if (existing.hashCode() == hash && equals(existing, chars, len)) {
+				return existing;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return insert(slot, new String(chars, 0, len));
+	}
+
+	/**
+	 * Return the String of the given UTF-8 bytes (interned when ASCII).
+	 */
+	String intern(byte[] bytes, int offset, int len) {
+		if (len > MAX_LENGTH) {
+			return new String(bytes, offset, len, StandardCharsets.UTF_8);
+		}
+		int hash = 0;
+		for (int i = 0; i < len; i++) {
+			byte b = bytes[offset + i];
+			if (b < 0) {
+				return new String(bytes, offset, len, StandardCharsets.UTF_8);
+			}
+			hash = 31 * hash + b;
+		}
+		int mask = table.length - 1;
+		int slot = mix(hash) & mask;
+		String existing;
+		while ((existing = table[slot]) != null) {
+			if (existing.hashCode() == hash && equals(existing, bytes, offset, len)) {
+				return existing;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return insert(slot, new String(bytes, offset, len, StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Return the number of distinct values.
+	 */
+	int size() {
+		return size;
+	}
+
+	private String insert(int slot, String value) {
+		table[slot] = value;
+		if (++size * 2 > table.length) {
+			rehash();
+		}
+		return value;
+	}
+
+	private void rehash() {
+		String[] old = table;
+		table = new String[old.length * 2];
+		int mask = table.length - 1;
+		for (String value : old) {
+			if (value != null) {
+				int slot = mix(value.hashCode()) & mask;
+				while (table[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				table[slot] = value;
+			}
+		}
+	}
+
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean equals(String value, char[] chars, int len) {
+		if (value.length() != len) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if (value.charAt(i) != chars[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean equals(String value, byte[] bytes, int offset, int len) {
+		if (value.length() != len) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if (value.charAt(i) != bytes[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,91 @@
+package org.avaje.k8s.discovery;
+
+/**
+ * A single event read from an endpoints watch stream.
+ */
+class WatchEvent {
+
+	static final String ADDED = "ADDED";
+	static final String MODIFIED = "MODIFIED";
+	static final String DELETED = "DELETED";
+	static final String BOOKMARK = "BOOKMARK";
+	static final String ERROR = "ERROR";
+
+	private final String type;
+
+	private final K8sServiceMembers members;
+
+	private final int code;
+
+	WatchEvent(String type, K8sServiceMembers members) {
+		this.type = type;
+		this.members = members;
+		this.code = 0;
+	}
+
+	private WatchEvent(int code) {
+		this.type = ERROR;
+		this.members = null;
+		this.code = code;
+	}
+
+	/**
+	 * Create an ERROR event with the given status code (410 Gone etc).
+	 */
+	static WatchEvent error(int code) {
+		return new WatchEvent(code);
+	}
+
+	public String toString() {
+		return "type:" + type + " code:" + code + " members:" + members;
+	}
+
+	/**
+	 * Return the event type.
+	 */
+	String getType() {
+		return type;
+	}
+
+	/**
+	 * Return the members of the endpoints object (not set for ERROR events).
+	 */
+	K8sServiceMembers getMembers() {
+		return members;
+	}
+
+	/**
+	 * Return the resourceVersion of the endpoints object.
+	 */
+	String getResourceVersion() {
+		return members == null ? null : members.getResourceVersion();
+	}
+
+	/**
+	 * Return the status code of an ERROR event.
+	 */
+	int getCode() {
+		return code;
+	}
+
+	/**
+	 * Return true if this is an ERROR event.
+	 */
+	boolean isError() {
+		return ERROR.equals(type);
+	}
+
+	/**
+	 * Return true if this is a BOOKMARK event (only the resourceVersion is meaningful).
+	 */
+	boolean isBookmark() {
+		return BOOKMARK.equals(type);
+	}
+
+	/**
+	 * Return true if the endpoints object was deleted.
+	 */
+	boolean isDeleted() {
+		return DELETED.equals(type);
+	}
+}
@@ -0,0 +1,152 @@
+package org.avaje.k8s.discovery;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DnsResolverTest {
+
+	private static final String NAME = "foo.dev.svc.cluster.local";
+
+	private final StubDnsServer dns = new StubDnsServer();
+
+	@After
+	public void tearDown() {
+		dns.close();
+	}
+
+	private DnsResolver resolver() {
+		return new DnsResolver(new InetSocketAddress(dns.host(), dns.port()), 500);
+	}
+
+	@Test
+	public void resolve() throws IOException {
+
+		dns.record(NAME, Arrays.asList("10.1.0.1", "10.1.0.2", "10.1.0.3")).ttl(7);
+		DnsResolver.Result result = resolver().resolve(NAME);
+		assertEquals(Arrays.asList("10.1.0.1", "10.1.0.2", "10.1.0.3"), result.ips);
+		assertEquals(7, result.ttlSeconds);
+		assertEquals(1, dns.udpQueries());
+		assertEquals(0, dns.tcpQueries());
+	}
+
+	@Test
+	public void resolve_truncated_retriedOverTcp() throws IOException {
+
+		List<String> ips = new ArrayList<>();
+		for (int i = 1; i <= 300; i++) {
+			ips.add("10.2." + (i / 250) + "." + (i % 250));
+		}
+		dns.record(NAME, ips).udpLimit(50);
+		assertEquals(ips, resolver().resolve(NAME).ips);
+		assertEquals(1, dns.udpQueries());
+		assertEquals(1, dns.tcpQueries());
+	}
+
+	@Test
+	public void resolve_ipv6Only_aaaa() throws IOException {
+
+		dns.record(NAME, Arrays.asList("fd00:10::1", "fd00:10::2"));
+		assertEquals(Arrays.asList("fd00:10::1", "fd00:10::2"), resolver().resolve(NAME).ips);
+		assertEquals("A then AAAA", 2, dns.udpQueries());
+
+		dns.record(NAME, Arrays.asList("10.1.0.1", "fd00:10::1"));
+		assertEquals(Arrays.asList("10.1.0.1"), resolver().resolve(NAME).ips);
+		assertEquals(3, dns.udpQueries());
+	}
+
+	@Test
+	public void ipv6_canonical() {
+
+		assertEquals("fd00:10::1", DnsResolver.ipv6(new byte[]{(byte) 0xfd, 0, 0, 0x10, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1}, 0));
+		assertEquals("::1", DnsResolver.ipv6(new byte[]{0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1}, 0));
+		assertEquals("::", DnsResolver.ipv6(new byte[16], 0));
+		assertEquals("2001:db8:0:1:1:1:1:1", DnsResolver.ipv6(new byte[]{0x20, 1, 0x0d, (byte) 0xb8, 0, 0, 0, 1, 0, 1, 0, 1, 0, 1, 0, 1}, 0));
+		assertEquals("1:0:0:1::", DnsResolver.ipv6(new byte[]{0, 1, 0, 0, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0}, 0));
+	}
+
+	@Test
+	public void resolve_nameError_empty() throws IOException {
+
+		DnsResolver.Result result = resolver().resolve("missing.dev.svc.cluster.local");
+		assertTrue(result.ips.isEmpty());
+		assertEquals(DnsResolver.NEGATIVE_TTL_SECONDS, result.ttlSeconds);
+	}
+
+	@Test
+	public void resolve_serverFailure_throws() {
+
+		dns.record(NAME, Arrays.asList("10.1.0.1")).failRcode(2);
+		try {
+			resolver().resolve(NAME);
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("rcode 2"));
+		}
+	}
+
+	@Test
+	public void discovery_dnsCachedForTtl() throws Exception {
+
+		dns.record(NAME, Arrays.asList("10.1.0.1", "10.1.0.2")).ttl(1);
+		K8sMemberDiscovery discovery = new K8sMemberDiscovery("foo", "dev")
+				.setIpSource(K8sIpSource.DNS)
+				.setDnsServer(dns.host(), dns.port())
+				.setPodIp("10.1.0.2");
+
+		assertEquals(Arrays.asList("10.1.0.1", "10.1.0.2"), discovery.getAllIps());
+		assertEquals(Arrays.asList("10.1.0.1"), discovery.getOtherIps());
+		assertEquals(1, dns.udpQueries());
+
+		// expired, served while refreshed in the background
+		dns.record(NAME, Arrays.asList("10.1.0.1", "10.1.0.2", "10.1.0.3"));
+		Thread.sleep(1100);
+		assertEquals(2, discovery.getAllIps().size());
+		long deadline = System.currentTimeMillis() + 2000;
+		while (discovery.getAllIps().size() != 3 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(3, discovery.getAllIps().size());
+		assertEquals(2, dns.udpQueries());
+	}
+
+	@Test
+	public void discovery_dnsFails_fallbackToApi() {
+
+		try (FakeKubeApiServer server = new FakeKubeApiServer("dev").scale("foo", 3)) {
+			dns.drop(true);
+			K8sMemberDiscovery discovery = server.discovery("foo")
+					.setIpSource(K8sIpSource.DNS_WITH_API_FALLBACK)
+					.setDnsServer(dns.host(), dns.port())
+					.setDnsTimeout(100, TimeUnit.MILLISECONDS);
+
+			assertEquals(3, discovery.getAllIps().size());
+			assertEquals(1, server.requestCount("/endpoints/foo"));
+			assertEquals(2, dns.udpQueries());
+
+			// the failure is remembered so the API is used without waiting on DNS again
+			long start = System.currentTimeMillis();
+			assertEquals(3, discovery.getAllIps().size());
+			assertTrue(System.currentTimeMillis() - start < 100);
+			assertEquals(2, dns.udpQueries());
+
+			discovery.setIpSource(K8sIpSource.DNS);
+			try {
+				discovery.getAllIps();
+				fail();
+			} catch (IllegalStateException e) {
+				assertTrue(e.getMessage().contains("DNS"));
+			}
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package org.avaje.k8s.discovery;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EndpointSliceParserTest {
+
+	private static final String PAGE_1 = "{\"kind\":\"EndpointSliceList\",\"apiVersion\":\"discovery.k8s.io/v1\",\"metadata\":{\"resourceVersion\":\"500\",\"continue\":\"abc=\"},\"items\":["
+			+ "{\"metadata\":{\"name\":\"foo-x1\",\"labels\":{\"kubernetes.io/service-name\":\"foo\"}},\"addressType\":\"IPv4\",\"endpoints\":["
+			+ "{\"addresses\":[\"10.0.0.1\"],\"conditions\":{\"ready\":true,\"serving\":true,\"terminating\":false},\"nodeName\":\"n1\",\"zone\":\"az-1\",\"targetRef\":{\"kind\":\"Pod\",\"name\":\"foo-1\"}},"
+			+ "{\"addresses\":[\"10.0.0.2\"],\"conditions\":{\"ready\":false,\"serving\":true,\"terminating\":true},\"nodeName\":\"n2\",\"targetRef\":{\"kind\":\"Pod\",\"name\":\"foo-2\"}}"
+			+ "],\"ports\":[{\"name\":\"http\",\"port\":8080,\"protocol\":\"TCP\"}]}]}";
+
+	private static final String PAGE_2 = "{\"kind\":\"EndpointSliceList\",\"metadata\":{\"resourceVersion\":\"501\"},\"items\":["
+			+ "{\"metadata\":{\"name\":\"foo-x2\"},\"endpoints\":["
+			+ "{\"targetRef\":{\"name\":\"foo-3\"},\"addresses\":[\"10.0.0.3\"],\"conditions\":{}},"
+			+ "{\"addresses\":[\"10.0.0.1\"],\"conditions\":{\"ready\":false},\"targetRef\":{\"name\":\"foo-1\"}}"
+			+ "]}]}";
+
+	@Test
+	public void parse_pages_merged() throws IOException {
+
+		EndpointSliceParser parser = new EndpointSliceParser();
+		parser.start();
+		assertEquals("abc=", parser.parsePage(stream(PAGE_1)));
+		assertNull(parser.parsePage(stream(PAGE_2)));
+
+		K8sServiceMembers members = parser.members();
+		assertEquals("500", members.getResourceVersion());
+
+		List<K8sServiceMember> ready = members.getMembers();
+		assertEquals(2, ready.size());
+		// 10.0.0.1 in both slices, the ready one is kept
+		assertEquals("ip:10.0.0.1 pod:foo-1 node:n1", ready.get(0).toString());
+		assertEquals("az-1", ready.get(0).getZone());
+		assertEquals(8080, ready.get(0).getPort("http").getPort());
+		assertTrue(ready.get(1).getPorts().isEmpty());
+		// no conditions interpreted as ready and serving
+		assertEquals("ip:10.0.0.3 pod:foo-3 node:null", ready.get(1).toString());
+		assertTrue(ready.get(1).isServing());
+
+		K8sServiceMember terminating = members.getNotReady().get(0);
+		assertEquals("foo-2", terminating.getPodName());
+		assertFalse(terminating.isReady());
+		assertTrue(terminating.isServing());
+		assertTrue(terminating.isTerminating());
+	}
+
+	private static final String DUAL_STACK = "{\"kind\":\"EndpointSliceList\",\"metadata\":{\"resourceVersion\":\"600\"},\"items\":["
+			+ "{\"metadata\":{\"name\":\"foo-v6\"},\"addressType\":\"IPv6\",\"endpoints\":["
+			+ "{\"addresses\":[\"fd00::1\"],\"conditions\":{\"ready\":true},\"targetRef\":{\"name\":\"foo-1\"}},"
+			+ "{\"addresses\":[\"fd00::2\"],\"conditions\":{\"ready\":true},\"targetRef\":{\"name\":\"foo-2\"}}]},"
+			+ "{\"metadata\":{\"name\":\"foo-fqdn\"},\"addressType\":\"FQDN\",\"endpoints\":["
+			+ "{\"addresses\":[\"foo.example.com\"],\"conditions\":{\"ready\":true}}]},"
+			+ "{\"metadata\":{\"name\":\"foo-v4\"},\"endpoints\":["
+			+ "{\"addresses\":[\"10.0.0.1\"],\"conditions\":{\"ready\":true},\"targetRef\":{\"name\":\"foo-1\"}},"
+			+ "{\"addresses\":[\"10.0.0.2\"],\"conditions\":{\"ready\":true},\"targetRef\":{\"name\":\"foo-2\"}}],"
+			+ "\"addressType\":\"IPv4\"},"
+			+ "{\"metadata\":{\"name\":\"foo-v4b\"},\"addressType\":\"IPv4\",\"endpoints\":["
+			+ "{\"addresses\":[\"10.0.0.9\"],\"conditions\":{\"ready\":true},\"targetRef\":{\"name\":\"foo-2\"}}]}"
+			+ "]}";
+
+	private static final String IPV6_ONLY = "{\"kind\":\"EndpointSliceList\",\"metadata\":{\"resourceVersion\":\"700\"},\"items\":["
+			+ "{\"metadata\":{\"name\":\"foo-fqdn\"},\"addressType\":\"FQDN\",\"endpoints\":["
+			+ "{\"addresses\":[\"foo.example.com\"],\"conditions\":{\"ready\":true}}]},"
+			+ "{\"metadata\":{\"name\":\"foo-v6\"},\"addressType\":\"IPv6\",\"endpoints\":["
+			+ "{\"addresses\":[\"fd00::1\"],\"conditions\":{\"ready\":true},\"targetRef\":{\"name\":\"foo-1\"}}]}"
+			+ "]}";
+
+	@Test
+	public void parse_dualStack_onePerPod() throws IOException {
+
+		EndpointSliceParser parser = new EndpointSliceParser();
+		parser.start();
+		assertNull(parser.parsePage(stream(DUAL_STACK)));
+
+		// the IPv4 slices only (even when an IPv6 slice comes first) and FQDN slices ignored
+		List<K8sServiceMember> members = parser.members().getMembers();
+		assertEquals(2, members.size());
+		assertEquals("ip:10.0.0.1 pod:foo-1 node:null", members.get(0).toString());
+		// foo-2 in two slices by different IPs merged into one member
+		assertEquals("ip:10.0.0.2 pod:foo-2 node:null", members.get(1).toString());
+	}
+
+	@Test
+	public void parse_ipv6Only_fallback() throws IOException {
+
+		EndpointSliceParser parser = new EndpointSliceParser();
+		parser.start();
+		assertNull(parser.parsePage(stream(IPV6_ONLY)));
+
+		List<K8sServiceMember> members = parser.members().getMembers();
+		assertEquals(1, members.size());
+		assertEquals("ip:fd00::1 pod:foo-1 node:null", members.get(0).toString());
+	}
+
+	@Test
+	public void parse_addressType_ipv6() throws IOException {
+
+		EndpointSliceParser parser = new EndpointSliceParser(EndpointSliceParser.IPV6);
+		parser.start();
+		assertNull(parser.parsePage(stream(DUAL_STACK)));
+
+		List<K8sServiceMember> members = parser.members().getMembers();
+		assertEquals(2, members.size());
+		assertEquals("ip:fd00::1 pod:foo-1 node:null", members.get(0).toString());
+		assertEquals("ip:fd00::2 pod:foo-2 node:null", members.get(1).toString());
+
+		// the state is reset for the next list
+		parser.start();
+		parser.parsePage(stream(PAGE_1));
+		assertTrue(parser.members().getMembers().isEmpty());
+	}
+
+	@Test
+	public void loadAllMembers_paged() throws IOException {
+
+		File token = File.createTempFile("k8s-token", ".txt");
+		Files.write(token.toPath(), "token".getBytes(StandardCharsets.UTF_8));
+
+		List<String> queries = new CopyOnWriteArrayList<>();
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/apis/discovery.k8s.io/v1/namespaces/dev/endpointslices", exchange -> {
+			String query = exchange.getRequestURI().getQuery();
+			queries.add(query);
+			byte[] bytes = (query.contains("continue=abc=") ? PAGE_2 : PAGE_1).getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, bytes.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(bytes);
+			}
+		});
+		server.start();
+		try {
+			K8sMemberDiscovery discovery = new K8sMemberDiscovery("foo", "dev")
+					.setMode(K8sDiscoveryMode.ENDPOINT_SLICES)
+					.setPageSize(2)
+					.setMasterUrl("http://localhost:" + server.getAddress().getPort())
+					.setAccountToken(token.getAbsolutePath());
+
+			assertEquals(2, discovery.getAllMembers().size());
+			assertEquals(1, discovery.getNotReadyMembers().size());
+
+			assertEquals(2, queries.size());
+			assertEquals("labelSelector=kubernetes.io/service-name=foo&limit=2", queries.get(0));
+			assertEquals("labelSelector=kubernetes.io/service-name=foo&limit=2&continue=abc=", queries.get(1));
+		} finally {
+			server.stop(0);
+			token.delete();
+		}
+	}
+
+	private static InputStream stream(String content) {
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,624 @@
+package org.avaje.k8s.discovery;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Embedded fake of the kubernetes API server for tests.
+ * <p>
+ * Serves the Endpoints (get, namespace list or by name and watch), EndpointSlices and Pods of the
+ * services of a namespace from in memory state. Scenarios are scripted by scaling services,
+ * changing readiness and injecting latency, errors (410 Gone, 429 with Retry-After, 500)
+ * and truncated responses. Requests must have the bearer token of {@link #tokenFile()}.
+ * <p>
+ * Like the kubernetes master an Endpoints get is served as protobuf when accepted and
+ * responses are gzip encoded when accepted and larger than the gzip threshold.
+ * <p>
+ * <pre>{@code
+ *
+ *   try (FakeKubeApiServer server = new FakeKubeApiServer("dev").scale("foo", 3)) {
+ *     K8sMemberDiscovery discovery = server.discovery("foo");
+ *     ...
+ *     server.scale("foo", 5).throttleNext(1, 2);
+ *   }
+ *
+ * }</pre>
+ */
+class FakeKubeApiServer implements AutoCloseable {
+
+	private static final String TOKEN = "fake-token";
+
+	private static final String END = "";
+
+	private final String namespace;
+
+	private final HttpServer server;
+
+	private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "fake-kube-api");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final File tokenFile;
+
+	private final AtomicLong resourceVersion = new AtomicLong(1000);
+
+	private final Map<String, List<Pod>> services = new HashMap<>();
+
+	private final Map<String, Long> versions = new HashMap<>();
+
+	private final List<Watch> watches = new CopyOnWriteArrayList<>();
+
+	private final ConcurrentLinkedDeque<Fault> faults = new ConcurrentLinkedDeque<>();
+
+	private final List<String> requests = new CopyOnWriteArrayList<>();
+
+	private volatile long latencyMillis;
+
+	private volatile long compactedVersion;
+
+	private volatile boolean watchGone;
+
+	private volatile int sliceSize = 100;
+
+	private volatile boolean protobuf = true;
+
+	private volatile int gzipThreshold = 128 * 1024;
+
+	/**
+	 * Start the server for the given namespace on a free port.
+	 */
+	FakeKubeApiServer(String namespace) {
+		this.namespace = namespace;
+		try {
+			tokenFile = File.createTempFile("fake-kube-token", ".txt");
+			tokenFile.deleteOnExit();
+			Files.write(tokenFile.toPath(), (TOKEN + "\n").getBytes(StandardCharsets.UTF_8));
+			server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		server.setExecutor(executor);
+		server.createContext("/api/v1/namespaces/" + namespace + "/endpoints", this::endpoints);
+		server.createContext("/apis/discovery.k8s.io/v1/namespaces/" + namespace + "/endpointslices", this::endpointSlices);
+		server.createContext("/api/v1/namespaces/" + namespace + "/pods", this::pods);
+		server.start();
+	}
+
+	/**
+	 * Return the URL of the server (for setMasterUrl()).
+	 */
+	String url() {
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Return the token file (for setAccountToken()).
+	 */
+	File tokenFile() {
+		return tokenFile;
+	}
+
+	/**
+	 * Return a discovery of the service configured to use this server.
+	 */
+	K8sMemberDiscovery discovery(String service) {
+		return new K8sMemberDiscovery(service, namespace)
+				.setMasterUrl(url())
+				.setAccountToken(tokenFile.getAbsolutePath());
+	}
+
+	@Override
+	public void close() {
+		for (Watch watch : watches) {
+			watch.events.add(END);
+		}
+		server.stop(0);
+		executor.shutdownNow();
+		tokenFile.delete();
+	}
+
+	/**
+	 * Scale the service to the given number of ready pods (named service-0 to service-N).
+	 * <p>
+	 * Existing pods keep their readiness, pods are added or removed from the end.
+	 */
+	synchronized FakeKubeApiServer scale(String service, int replicas) {
+		List<Pod> pods = new ArrayList<>(services.getOrDefault(service, new ArrayList<>()));
+		while (pods.size() > replicas) {
+			pods.remove(pods.size() - 1);
+		}
+		for (int i = pods.size(); i < replicas; i++) {
+			pods.add(new Pod(service + "-" + i, "10." + (service.hashCode() & 0x7f) + "." + (i / 250) + "." + (i % 250 + 1), "node-" + (i % 3), "zone-" + (i % 2), true));
+		}
+		update(service, pods);
+		return this;
+	}
+
+	/**
+	 * Set the readiness of a pod of the service.
+	 */
+	synchronized FakeKubeApiServer setReady(String service, String podName, boolean ready) {
+		List<Pod> pods = new ArrayList<>();
+		for (Pod pod : services.get(service)) {
+			pods.add(pod.name.equals(podName) ? new Pod(pod.name, pod.ip, pod.node, pod.zone, ready) : pod);
+		}
+		update(service, pods);
+		return this;
+	}
+
+	private void update(String service, List<Pod> pods) {
+		long version = resourceVersion.incrementAndGet();
+		services.put(service, pods);
+		versions.put(service, version);
+		String event = "{\"type\":\"MODIFIED\",\"object\":" + endpointsJson(service) + "}";
+		for (Watch watch : watches) {
+			if (watch.service.equals(service)) {
+				watch.events.add(event);
+			}
+		}
+	}
+
+	/**
+	 * Delay every response by the given latency.
+	 */
+	FakeKubeApiServer latency(long latency, TimeUnit unit) {
+		this.latencyMillis = unit.toMillis(latency);
+		return this;
+	}
+
+	/**
+	 * Set the number of endpoints per EndpointSlice (default 100).
+	 */
+	FakeKubeApiServer sliceSize(int sliceSize) {
+		this.sliceSize = sliceSize;
+		return this;
+	}
+
+	/**
+	 * Set to serve protobuf when accepted (default true) or always serve JSON.
+	 */
+	FakeKubeApiServer protobuf(boolean protobuf) {
+		this.protobuf = protobuf;
+		return this;
+	}
+
+	/**
+	 * Set the size in bytes above which responses are gzip encoded when accepted (default 128KB).
+	 */
+	FakeKubeApiServer gzipThreshold(int gzipThreshold) {
+		this.gzipThreshold = gzipThreshold;
+		return this;
+	}
+
+	/**
+	 * Fail the next requests with the given HTTP status.
+	 */
+	FakeKubeApiServer failNext(int count, int status) {
+		for (int i = 0; i < count; i++) {
+			faults.add(new Fault(status, 0, false));
+		}
+		return this;
+	}
+
+	/**
+	 * Throttle the next requests with 429 Too Many Requests and a Retry-After header.
+	 */
+	FakeKubeApiServer throttleNext(int count, int retryAfterSeconds) {
+		for (int i = 0; i < count; i++) {
+			faults.add(new Fault(429, retryAfterSeconds, false));
+		}
+		return this;
+	}
+
+	/**
+	 * Truncate the next response part way through the content.
+	 */
+	FakeKubeApiServer truncateNext() {
+		faults.add(new Fault(200, 0, true));
+		return this;
+	}
+
+	/**
+	 * Expire the watches, open watches get an ERROR 410 event and watches can not resume
+	 * from a resourceVersion before now (so clients must relist).
+	 * <p>
+	 * Like compaction the endpoints objects keep their resourceVersion (of their last change)
+	 * so only a watch from the resourceVersion of a list can resume.
+	 */
+	synchronized FakeKubeApiServer expireWatches() {
+		compactedVersion = resourceVersion.incrementAndGet();
+		String gone = "{\"type\":\"ERROR\",\"object\":{\"kind\":\"Status\",\"apiVersion\":\"v1\",\"metadata\":{},\"status\":\"Failure\",\"message\":\"too old resource version\",\"reason\":\"Expired\",\"code\":410}}";
+		for (Watch watch : watches) {
+			watch.events.add(gone);
+			watch.events.add(END);
+		}
+		return this;
+	}
+
+	/**
+	 * Set to respond to every watch with an ERROR 410 event (as if always too old).
+	 */
+	FakeKubeApiServer watchGone(boolean watchGone) {
+		this.watchGone = watchGone;
+		return this;
+	}
+
+	/**
+	 * Return the requests (path and query) received.
+	 */
+	List<String> requests() {
+		return requests;
+	}
+
+	/**
+	 * Return the number of requests received containing the given text.
+	 */
+	int requestCount(String contains) {
+		int count = 0;
+		for (String request : requests) {
+			if (request.contains(contains)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Return the number of open watches.
+	 */
+	int watchCount() {
+		return watches.size();
+	}
+
+	private void endpoints(HttpExchange exchange) throws IOException {
+		if (!accept(exchange)) {
+			return;
+		}
+		String path = exchange.getRequestURI().getPath();
+		Map<String, String> query = query(exchange);
+		String prefix = "/api/v1/namespaces/" + namespace + "/endpoints";
+		if (path.length() > prefix.length() + 1) {
+			String service = path.substring(prefix.length() + 1);
+			String accept = exchange.getRequestHeaders().getFirst("Accept");
+			boolean useProtobuf = protobuf && accept != null && accept.contains(ProtobufMemberParser.CONTENT_TYPE);
+			byte[] content;
+			synchronized (this) {
+				if (!services.containsKey(service)) {
+					content = null;
+				} else if (useProtobuf) {
+					content = endpointsProtobuf(service);
+				} else {
+					content = endpointsJson(service).getBytes(StandardCharsets.UTF_8);
+				}
+			}
+			if (content == null) {
+				status(exchange, 404);
+			} else {
+				send(exchange, content, useProtobuf ? ProtobufMemberParser.CONTENT_TYPE : "application/json");
+			}
+		} else if ("true".equals(query.get("watch"))) {
+			watch(exchange, query);
+		} else {
+			String name = query.getOrDefault("fieldSelector", "").replace("metadata.name=", "");
+			StringBuilder json = new StringBuilder("{\"kind\":\"EndpointsList\",\"apiVersion\":\"v1\",\"metadata\":{\"resourceVersion\":\"" + resourceVersion.get() + "\"},\"items\":[");
+			synchronized (this) {
+				boolean first = true;
+				for (String service : services.keySet()) {
+					if (!name.isEmpty() && !name.equals(service)) {
+						continue;
+					}
+					if (!first) {
+						json.append(',');
+					}
+					first = false;
+					json.append(endpointsJson(service));
+				}
+			}
+			send(exchange, json.append("]}").toString());
+		}
+	}
+
+	private void watch(HttpExchange exchange, Map<String, String> query) throws IOException {
+		String service = query.getOrDefault("fieldSelector", "").replace("metadata.name=", "");
+		long fromVersion = Long.parseLong(query.getOrDefault("resourceVersion", "0"));
+		int timeoutSeconds = Integer.parseInt(query.getOrDefault("timeoutSeconds", "300"));
+
+		exchange.sendResponseHeaders(200, 0);
+		try (OutputStream os = exchange.getResponseBody()) {
+			if (watchGone || fromVersion < compactedVersion) {
+				os.write(("{\"type\":\"ERROR\",\"object\":{\"kind\":\"Status\",\"code\":410}}\n").getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			Watch watch = new Watch(service);
+			synchronized (this) {
+				Long version = versions.get(service);
+				if (version != null && version > fromVersion) {
+					// changes since the requested resourceVersion
+					watch.events.add("{\"type\":\"MODIFIED\",\"object\":" + endpointsJson(service) + "}");
+				}
+				watches.add(watch);
+			}
+			try {
+				long end = System.currentTimeMillis() + timeoutSeconds * 1000L;
+				while (System.currentTimeMillis() < end) {
+					String event = watch.events.poll(50, TimeUnit.MILLISECONDS);
+					if (END.equals(event)) {
+						return;
+					}
+					if (event != null) {
+						os.write((event + "\n").getBytes(StandardCharsets.UTF_8));
+						os.flush();
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				watches.remove(watch);
+			}
+		} catch (IOException e) {
+			// client closed the watch
+		}
+	}
+
+	private void endpointSlices(HttpExchange exchange) throws IOException {
+		if (!accept(exchange)) {
+			return;
+		}
+		Map<String, String> query = query(exchange);
+		String service = query.getOrDefault("labelSelector", "").replace("kubernetes.io/service-name=", "");
+		int limit = Integer.parseInt(query.getOrDefault("limit", "500"));
+		int from = Integer.parseInt(query.getOrDefault("continue", "0"));
+
+		StringBuilder json = new StringBuilder();
+		synchronized (this) {
+			List<Pod> pods = services.getOrDefault(service, new ArrayList<>());
+			int slices = (pods.size() + sliceSize - 1) / sliceSize;
+			int to = Math.min(slices, from + limit);
+			json.append("{\"kind\":\"EndpointSliceList\",\"apiVersion\":\"discovery.k8s.io/v1\",\"metadata\":{\"resourceVersion\":\"")
+					.append(versions.getOrDefault(service, resourceVersion.get())).append('"');
+			if (to < slices) {
+				json.append(",\"continue\":\"").append(to).append('"');
+			}
+			json.append("},\"items\":[");
+			for (int s = from; s < to; s++) {
+				if (s > from) {
+					json.append(',');
+				}
+				json.append("{\"metadata\":{\"name\":\"").append(service).append("-").append(s).append("\"},\"addressType\":\"IPv4\",\"endpoints\":[");
+				for (int i = s * sliceSize; i < Math.min(pods.size(), (s + 1) * sliceSize); i++) {
+					Pod pod = pods.get(i);
+					if (i > s * sliceSize) {
+						json.append(',');
+					}
+					json.append("{\"addresses\":[\"").append(pod.ip).append("\"],\"conditions\":{\"ready\":").append(pod.ready)
+							.append(",\"serving\":").append(pod.ready).append(",\"terminating\":false},\"nodeName\":\"").append(pod.node)
+							.append("\",\"zone\":\"").append(pod.zone).append("\",\"targetRef\":{\"kind\":\"Pod\",\"name\":\"").append(pod.name).append("\"}}");
+				}
+				json.append("],\"ports\":[{\"name\":\"http\",\"port\":8080,\"protocol\":\"TCP\"}]}");
+			}
+			json.append("]}");
+		}
+		send(exchange, json.toString());
+	}
+
+	private void pods(HttpExchange exchange) throws IOException {
+		if (!accept(exchange)) {
+			return;
+		}
+		Map<String, String> query = query(exchange);
+		String service = query.getOrDefault("labelSelector", "").replace("app=", "");
+		int limit = Integer.parseInt(query.getOrDefault("limit", "500"));
+		int from = Integer.parseInt(query.getOrDefault("continue", "0"));
+
+		StringBuilder json = new StringBuilder();
+		synchronized (this) {
+			List<Pod> pods = services.getOrDefault(service, new ArrayList<>());
+			int to = Math.min(pods.size(), from + limit);
+			json.append("{\"kind\":\"PodList\",\"apiVersion\":\"v1\",\"metadata\":{\"resourceVersion\":\"").append(resourceVersion.get()).append('"');
+			if (to < pods.size()) {
+				json.append(",\"continue\":\"").append(to).append('"');
+			}
+			json.append("},\"items\":[");
+			for (int i = from; i < to; i++) {
+				Pod pod = pods.get(i);
+				if (i > from) {
+					json.append(',');
+				}
+				json.append("{\"metadata\":{\"name\":\"").append(pod.name).append("\",\"labels\":{\"app\":\"").append(service).append("\"}},")
+						.append("\"spec\":{\"nodeName\":\"").append(pod.node).append("\",\"containers\":[{\"name\":\"app\",\"ports\":[{\"name\":\"http\",\"containerPort\":8080}]}]},")
+						.append("\"status\":{\"phase\":\"Running\",\"podIP\":\"").append(pod.ip).append("\",\"conditions\":[{\"type\":\"Ready\",\"status\":\"")
+						.append(pod.ready ? "True" : "False").append("\"}]}}");
+			}
+			json.append("]}");
+		}
+		send(exchange, json.toString());
+	}
+
+	private String endpointsJson(String service) {
+		StringBuilder ready = new StringBuilder();
+		StringBuilder notReady = new StringBuilder();
+		for (Pod pod : services.get(service)) {
+			StringBuilder sb = pod.ready ? ready : notReady;
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append("{\"ip\":\"").append(pod.ip).append("\",\"nodeName\":\"").append(pod.node)
+					.append("\",\"targetRef\":{\"kind\":\"Pod\",\"namespace\":\"").append(namespace).append("\",\"name\":\"").append(pod.name).append("\"}}");
+		}
+		StringBuilder json = new StringBuilder("{\"kind\":\"Endpoints\",\"apiVersion\":\"v1\",\"metadata\":{\"name\":\"")
+				.append(service).append("\",\"namespace\":\"").append(namespace).append("\",\"resourceVersion\":\"").append(versions.get(service)).append("\"},\"subsets\":[");
+		if (ready.length() > 0 || notReady.length() > 0) {
+			json.append("{\"addresses\":[").append(ready).append("],\"notReadyAddresses\":[").append(notReady)
+					.append("],\"ports\":[{\"name\":\"http\",\"port\":8080,\"protocol\":\"TCP\"}]}");
+		}
+		return json.append("]}").toString();
+	}
+
+	private byte[] endpointsProtobuf(String service) {
+		ProtobufWriter subset = new ProtobufWriter();
+		for (Pod pod : services.get(service)) {
+			ProtobufWriter targetRef = new ProtobufWriter().string(1, "Pod").string(2, namespace).string(3, pod.name);
+			subset.message(pod.ready ? 1 : 2, new ProtobufWriter().string(1, pod.ip).message(2, targetRef).string(4, pod.node));
+		}
+		ProtobufWriter endpoints = new ProtobufWriter()
+				.message(1, new ProtobufWriter().string(1, service).string(3, namespace).string(6, String.valueOf(versions.get(service))));
+		if (!services.get(service).isEmpty()) {
+			subset.message(3, new ProtobufWriter().string(1, "http").varint(2, 8080).string(3, "TCP"));
+			endpoints.message(2, subset);
+		}
+		return ProtobufWriter.envelope("Endpoints", endpoints);
+	}
+
+	/**
+	 * Record the request, apply latency and faults returning false if the request was failed.
+	 */
+	private boolean accept(HttpExchange exchange) throws IOException {
+		requests.add(exchange.getRequestURI().toString());
+		if (latencyMillis > 0) {
+			try {
+				Thread.sleep(latencyMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (!("Bearer " + TOKEN).equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+			status(exchange, 401);
+			return false;
+		}
+		Fault fault = faults.peekFirst();
+		if (fault == null || fault.truncate) {
+			return true;
+		}
+		if (!faults.remove(fault)) {
+			return true;
+		}
+		if (fault.retryAfterSeconds > 0) {
+			exchange.getResponseHeaders().add("Retry-After", String.valueOf(fault.retryAfterSeconds));
+		}
+		status(exchange, fault.status);
+		return false;
+	}
+
+	private void status(HttpExchange exchange, int code) throws IOException {
+		send(exchange, code, "{\"kind\":\"Status\",\"apiVersion\":\"v1\",\"status\":\"Failure\",\"code\":" + code + "}");
+	}
+
+	private void send(HttpExchange exchange, String json) throws IOException {
+		send(exchange, json.getBytes(StandardCharsets.UTF_8), "application/json");
+	}
+
+	private void send(HttpExchange exchange, byte[] bytes, String contentType) throws IOException {
+		Fault fault = faults.peekFirst();
+		if (fault != null && fault.truncate && faults.remove(fault)) {
+			exchange.getResponseHeaders().add("Content-Type", contentType);
+			exchange.sendResponseHeaders(200, bytes.length);
+			OutputStream os = exchange.getResponseBody();
+			os.write(bytes, 0, bytes.length / 2);
+			os.flush();
+			// end the exchange short of the content length
+			exchange.close();
+			return;
+		}
+		String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		if (acceptEncoding != null && acceptEncoding.contains("gzip") && bytes.length > gzipThreshold) {
+			ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+			try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+				gzip.write(bytes);
+			}
+			bytes = gzipped.toByteArray();
+			exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+		}
+		send(exchange, 200, bytes, contentType);
+	}
+
+	private void send(HttpExchange exchange, int code, String json) throws IOException {
+		send(exchange, code, json.getBytes(StandardCharsets.UTF_8), "application/json");
+	}
+
+	private void send(HttpExchange exchange, int code, byte[] bytes, String contentType) throws IOException {
+		exchange.getResponseHeaders().add("Content-Type", contentType);
+		exchange.sendResponseHeaders(code, bytes.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(bytes);
+		}
+	}
+
+	private static Map<String, String> query(HttpExchange exchange) throws IOException {
+		Map<String, String> map = new HashMap<>();
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query != null) {
+			for (String pair : query.split("&")) {
+				int pos = pair.indexOf('=');
+				if (pos > 0) {
+					map.put(pair.substring(0, pos), URLDecoder.decode(pair.substring(pos + 1), "UTF-8"));
+				}
+			}
+		}
+		return map;
+	}
+
+	private static final class Pod {
+
+		final String name;
+		final String ip;
+		final String node;
+		final String zone;
+		final boolean ready;
+
+		Pod(String name, String ip, String node, String zone, boolean ready) {
+			this.name = name;
+			this.ip = ip;
+			this.node = node;
+			this.zone = zone;
+			this.ready = ready;
+		}
+	}
+
+	private static final class Watch {
+
+		final String service;
+		final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+		Watch(String service) {
+			this.service = service;
+		}
+	}
+
+	private static final class Fault {
+
+		final int status;
+		final int retryAfterSeconds;
+		final boolean truncate;
+
+		Fault(int status, int retryAfterSeconds, boolean truncate) {
+			this.status = status;
+			this.retryAfterSeconds = retryAfterSeconds;
+			this.truncate = truncate;
+		}
+	}
+}
@@ -0,0 +1,400 @@
+package org.avaje.k8s.discovery;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FakeKubeApiServerTest {
+
+	private static final String RELIST = "/endpoints?fieldSelector=metadata.name%3Dfoo";
+
+	private final FakeKubeApiServer server = new FakeKubeApiServer("dev");
+
+	@After
+	public void tearDown() {
+		server.close();
+	}
+
+	@Test
+	public void endpoints_scaleUpAndDown() {
+
+		server.scale("foo", 3);
+		K8sMemberDiscovery discovery = server.discovery("foo").setPodName("foo-0");
+		assertEquals(3, discovery.getAllMembers().size());
+		assertEquals(2, discovery.getOtherIps().size());
+		assertEquals(8080, discovery.getMember().getPort("http").getPort());
+
+		server.scale("foo", 5).setReady("foo", "foo-4", false);
+		discovery.reload();
+		assertEquals(4, discovery.getAllMembers().size());
+		assertEquals(1, discovery.getNotReadyMembers().size());
+
+		server.scale("foo", 2);
+		discovery.reload();
+		assertEquals(2, discovery.getAllMembers().size());
+		assertTrue(discovery.getNotReadyMembers().isEmpty());
+	}
+
+	@Test
+	public void watch_followsChangesAndRelistsWhenExpired() throws Exception {
+
+		server.scale("foo", 2);
+		BlockingQueue<MembershipDelta> deltas = new LinkedBlockingQueue<>();
+		AtomicInteger loads = new AtomicInteger();
+		K8sDiscoveryMetrics metrics = new K8sDiscoveryMetrics() {
+			@Override
+			public void refreshed() {
+				loads.incrementAndGet();
+			}
+
+			@Override
+			public void skipped() {
+				loads.incrementAndGet();
+			}
+		};
+		try (K8sMemberDiscovery discovery = server.discovery("foo").setMetrics(metrics).addListener(deltas::add).startWatch()) {
+
+			assertEquals(2, deltas.poll(5, TimeUnit.SECONDS).getAdded().size());
+			awaitWatch();
+
+			server.scale("foo", 3);
+			MembershipDelta added = deltas.poll(5, TimeUnit.SECONDS);
+			assertNotNull(added);
+			assertEquals("foo-2", added.getAdded().get(0).getPodName());
+
+			server.expireWatches();
+			awaitWatch();
+			server.setReady("foo", "foo-0", false);
+			MembershipDelta notReady = deltas.poll(5, TimeUnit.SECONDS);
+			assertNotNull(notReady);
+			assertEquals("foo-0", notReady.getBecameNotReady().get(0).getPodName());
+			// relisted after the watch expired
+			assertEquals(2, server.requestCount(RELIST));
+			assertEquals("one outcome recorded per list", 2, loads.get());
+		}
+	}
+
+	@Test
+	public void watch_emptyServiceNotReloaded() throws Exception {
+
+		server.scale("foo", 0);
+		try (K8sMemberDiscovery discovery = server.discovery("foo").startWatch()) {
+			awaitWatch();
+			for (int i = 0; i < 3; i++) {
+				assertTrue(discovery.getAllMembers().isEmpty());
+			}
+			assertEquals("served from the watch", 1, server.requestCount(RELIST));
+			assertEquals(0, server.requestCount("/endpoints/foo"));
+
+			server.scale("foo", 2);
+			for (int i = 0; i < 100 && discovery.getAllMembers().isEmpty(); i++) {
+				Thread.sleep(20);
+			}
+			assertEquals(2, discovery.getAllMembers().size());
+			assertEquals(1, server.requestCount(RELIST));
+		}
+	}
+
+	@Test
+	public void watch_expiredUnchangedEndpoints_resumesFromList() throws Exception {
+
+		server.scale("foo", 2);
+		try (K8sMemberDiscovery discovery = server.discovery("foo").startWatch()) {
+			awaitWatch();
+
+			// the endpoints are unchanged so keep their resourceVersion from before the compaction
+			server.expireWatches();
+			for (int i = 0; i < 250 && server.requestCount("watch=true") < 2; i++) {
+				Thread.sleep(20);
+			}
+			Thread.sleep(200);
+			assertEquals("one relist, the watch resumes from the list resourceVersion", 2, server.requestCount(RELIST));
+			assertEquals(2, server.requestCount("watch=true"));
+
+			BlockingQueue<MembershipDelta> deltas = new LinkedBlockingQueue<>();
+			discovery.addListener(deltas::add);
+			server.scale("foo", 3);
+			MembershipDelta added = deltas.poll(5, TimeUnit.SECONDS);
+			assertNotNull(added);
+			assertEquals("foo-2", added.getAdded().get(0).getPodName());
+		}
+	}
+
+	@Test
+	public void watch_alwaysGone_relistsWithBackoff() throws Exception {
+
+		server.scale("foo", 2).watchGone(true);
+		try (K8sMemberDiscovery discovery = server.discovery("foo").startWatch()) {
+			Thread.sleep(1000);
+			// relists after 0, 500 and 1500ms rather than a tight relist and watch loop
+			int relists = server.requestCount(RELIST);
+			assertTrue("relists:" + relists, relists >= 1 && relists <= 3);
+			assertEquals(2, discovery.getAllMembers().size());
+
+			server.watchGone(false).scale("foo", 3);
+			for (int i = 0; i < 500 && discovery.getAllMembers().size() != 3; i++) {
+				Thread.sleep(20);
+			}
+			assertEquals(3, discovery.getAllMembers().size());
+		}
+	}
+
+	private void awaitWatch() throws InterruptedException {
+		for (int i = 0; i < 100 && server.watchCount() == 0; i++) {
+			Thread.sleep(20);
+		}
+		assertEquals(1, server.watchCount());
+	}
+
+	@Test
+	public void endpointSlices_paged() {
+
+		server.scale("foo", 9).sliceSize(2);
+		K8sMemberDiscovery discovery = server.discovery("foo")
+				.setMode(K8sDiscoveryMode.ENDPOINT_SLICES)
+				.setPageSize(2);
+
+		List<K8sServiceMember> members = discovery.getAllMembers();
+		assertEquals(9, members.size());
+		assertEquals("zone-0", members.get(0).getZone());
+		// 5 slices of 2 endpoints in pages of 2 slices
+		assertEquals(3, server.requestCount("/endpointslices"));
+	}
+
+	@Test
+	public void pods() {
+
+		server.scale("db", 3).setReady("db", "db-1", false);
+		K8sMemberDiscovery discovery = server.discovery("db").setMode(K8sDiscoveryMode.PODS);
+
+		assertEquals(2, discovery.getAllMembers().size());
+		assertEquals("db", discovery.getMembers().findPod("db-1").getLabels().get("app"));
+	}
+
+	@Test
+	public void faults_failThenRecover() {
+
+		server.scale("foo", 3);
+		K8sMemberDiscovery discovery = server.discovery("foo");
+
+		server.failNext(1, 500).truncateNext();
+		for (int i = 0; i < 2; i++) {
+			try {
+				discovery.reload();
+				fail();
+			} catch (IllegalStateException e) {
+				// expected
+			}
+		}
+		discovery.reload();
+		assertEquals(3, discovery.getAllMembers().size());
+		assertEquals(3, server.requestCount("/endpoints/foo"));
+	}
+
+	@Test
+	public void throttled_retriedAfterRetryAfter() {
+
+		server.scale("foo", 3);
+		K8sMemberDiscovery discovery = server.discovery("foo");
+
+		server.throttleNext(2, 1);
+		long start = System.currentTimeMillis();
+		assertEquals(3, discovery.getAllMembers().size());
+		assertTrue(System.currentTimeMillis() - start >= 2000);
+		assertEquals(3, server.requestCount("/endpoints/foo"));
+
+		// retries are limited
+		server.throttleNext(3, 0);
+		try {
+			discovery.reload();
+			fail();
+		} catch (IllegalStateException e) {
+			assertTrue(e.getCause().getMessage().contains("429"));
+		}
+	}
+
+	@Test
+	public void rateLimited() {
+
+		server.scale("foo", 1);
+		K8sMemberDiscovery discovery = server.discovery("foo").setRateLimit(20, 2);
+
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 6; i++) {
+			discovery.reload();
+		}
+		// 2 in the burst then 4 at 50ms intervals
+		assertTrue(System.currentTimeMillis() - start >= 180);
+	}
+
+	@Test
+	public void shared_oneLoadAndRefreshUntilLastClosed() throws Exception {
+
+		server.scale("foo", 3);
+		int before = SharedDiscovery.size();
+		K8sMemberDiscovery first = server.discovery("foo").setPodName("foo-0").setShared(true);
+		K8sMemberDiscovery second = server.discovery("foo").setPodName("foo-1").setShared(true);
+
+		assertEquals(3, first.getAllMembers().size());
+		assertEquals(3, second.getAllMembers().size());
+		assertEquals(1, server.requestCount("/endpoints/foo"));
+		assertEquals(2, second.getOtherIps().size());
+		assertTrue(second.getOtherMembers().stream().noneMatch(m -> "foo-1".equals(m.getPodName())));
+		assertEquals(before + 1, SharedDiscovery.size());
+
+		BlockingQueue<MembershipDelta> deltas = new LinkedBlockingQueue<>();
+		K8sMemberDiscovery third = server.discovery("foo").setShared(true).addListener(deltas::add);
+		third.startRefresh();
+		// joins with the members already loaded
+		assertEquals(3, deltas.poll(1, TimeUnit.SECONDS).getAdded().size());
+
+		// the refresh is already started
+		second.startRefresh();
+		server.scale("foo", 4);
+		first.reload();
+		assertEquals(1, deltas.poll(1, TimeUnit.SECONDS).getAdded().size());
+		assertEquals(4, second.getAllMembers().size());
+
+		try {
+			second.setRefreshInterval(1, TimeUnit.SECONDS);
+			fail("settings are not changed once the shared members are in use");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		first.close();
+		second.close();
+		assertEquals(before + 1, SharedDiscovery.size());
+		try {
+			first.getAllMembers();
+			fail("closed");
+		} catch (IllegalStateException e) {
+			// expected, does not subscribe again
+		}
+		third.close();
+		assertEquals(before, SharedDiscovery.size());
+	}
+
+	@Test
+	public void protobufAndGzip_negotiated() {
+
+		server.scale("foo", 200).setReady("foo", "foo-7", false).gzipThreshold(1024);
+		K8sMemberDiscovery discovery = server.discovery("foo").setPodName("foo-0");
+		assertEquals(199, discovery.getAllMembers().size());
+		assertEquals("foo-7", discovery.getNotReadyMembers().get(0).getPodName());
+		assertEquals(8080, discovery.getMember().getPort("http").getPort());
+
+		// unchanged resourceVersion
+		discovery.reload();
+		assertEquals(1, discovery.getSkippedRefreshCount());
+
+		// JSON when protobuf is not served
+		server.protobuf(false).scale("foo", 201);
+		discovery.reload();
+		assertEquals(200, discovery.getAllMembers().size());
+		assertEquals("foo-7", discovery.getNotReadyMembers().get(0).getPodName());
+
+		// JSON when protobuf is not requested
+		server.protobuf(true).scale("foo", 202);
+		discovery.setProtobuf(false).reload();
+		assertEquals(201, discovery.getAllMembers().size());
+	}
+
+	@Test
+	public void awaitMembers_wokenByWatch() throws Exception {
+
+		server.scale("foo", 1).setReady("foo", "foo-0", false);
+		try (K8sMemberDiscovery discovery = server.discovery("foo").setPodName("foo-0")) {
+
+			List<CompletableFuture<K8sServiceMembers>> waiters = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				waiters.add(discovery.awaitMembersAsync(3));
+			}
+			CompletableFuture<K8sServiceMembers> podReady = discovery.awaitMembersAsync(members -> {
+				K8sServiceMember pod = members.findPod("foo-0");
+				return pod != null && pod.isReady();
+			});
+			awaitWatch();
+
+			server.setReady("foo", "foo-0", true);
+			assertEquals(1, podReady.get(2, TimeUnit.SECONDS).getMembers().size());
+			for (CompletableFuture<K8sServiceMembers> waiter : waiters) {
+				assertFalse(waiter.isDone());
+			}
+
+			server.scale("foo", 3);
+			for (CompletableFuture<K8sServiceMembers> waiter : waiters) {
+				assertEquals(3, waiter.get(2, TimeUnit.SECONDS).getMembers().size());
+			}
+			// already satisfied
+			assertEquals(3, discovery.awaitMembers(2, 1, TimeUnit.MILLISECONDS).getMembers().size());
+
+			// the waiters shared the one watch (and its initial list)
+			assertEquals(1, server.watchCount());
+			assertEquals(1, server.requestCount("watch=true"));
+			assertEquals(1, server.requestCount(RELIST));
+		}
+	}
+
+	@Test
+	public void awaitMembers_timeout() {
+
+		server.scale("foo", 1);
+		try (K8sMemberDiscovery discovery = server.discovery("foo")) {
+			discovery.awaitMembers(2, 200, TimeUnit.MILLISECONDS);
+			fail();
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage().contains("Timed out"));
+		}
+	}
+
+	@Test
+	public void latency_concurrentReadersShareLoad() throws Exception {
+
+		server.scale("foo", 3).latency(200, TimeUnit.MILLISECONDS);
+		K8sMemberDiscovery discovery = server.discovery("foo");
+
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		try {
+			List<Future<List<K8sServiceMember>>> results = new ArrayList<>();
+			for (int i = 0; i < 16; i++) {
+				results.add(executor.submit(discovery::getAllMembers));
+			}
+			for (Future<List<K8sServiceMember>> result : results) {
+				assertEquals(3, result.get(5, TimeUnit.SECONDS).size());
+			}
+			assertEquals(1, server.requestCount("/endpoints/foo"));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void unauthorized_withoutToken() {
+
+		server.scale("foo", 1);
+		K8sMemberDiscovery discovery = server.discovery("foo").setAccountToken(server.tokenFile().getAbsolutePath() + ".missing");
+		try {
+			discovery.reload();
+			fail();
+		} catch (RuntimeException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package org.avaje.k8s.discovery;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JmxDiscoveryMetricsTest {
+
+	private static final String ENDPOINTS = "{\"metadata\":{\"resourceVersion\":\"1\"},\"subsets\":[{\"addresses\":[{\"ip\":\"10.0.0.1\",\"targetRef\":{\"name\":\"pod-1\"}}],\"notReadyAddresses\":[{\"ip\":\"10.0.0.2\",\"targetRef\":{\"name\":\"pod-2\"}}]}]}\n";
+
+	private HttpServer server;
+
+	private File token;
+
+	private final AtomicInteger status = new AtomicInteger(200);
+
+	@Before
+	public void setUp() throws IOException {
+		token = File.createTempFile("k8s-token", ".txt");
+		Files.write(token.toPath(), "token".getBytes(StandardCharsets.UTF_8));
+
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/api/v1/namespaces/dev/endpoints/foo", exchange -> {
+			byte[] bytes = ENDPOINTS.getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(status.get(), bytes.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(bytes);
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+		token.delete();
+	}
+
+	@Test
+	public void register_recordsLoads() throws Exception {
+
+		K8sMemberDiscovery discovery = new K8sMemberDiscovery("foo", "dev")
+				.setMasterUrl("http://localhost:" + server.getAddress().getPort())
+				.setAccountToken(token.getAbsolutePath());
+
+		assertEquals(-1, discovery.getSnapshotAgeMillis());
+		JmxDiscoveryMetrics metrics = JmxDiscoveryMetrics.register(discovery);
+
+		discovery.reload();
+		discovery.reload();
+
+		assertEquals(2, metrics.getFetchCount());
+		// the second load is skipped (unchanged) and not also counted as a success
+		assertEquals(1, metrics.getRefreshSuccessCount());
+		assertEquals(1, metrics.getRefreshSkipCount());
+		assertEquals(0, metrics.getRefreshFailureCount());
+		assertEquals(1, metrics.getReadyMembers());
+		assertEquals(1, metrics.getNotReadyMembers());
+		assertEquals(ENDPOINTS.length(), metrics.getPayloadBytesTotal() - metrics.getPayloadBytesLast());
+		assertTrue(metrics.getFetchLatencyP99Micros() >= metrics.getFetchLatencyP50Micros());
+		assertTrue(metrics.getSnapshotAgeMillis() >= 0);
+
+		status.set(500);
+		try {
+			discovery.reload();
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals(1, metrics.getRefreshFailureCount());
+		}
+
+		MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("org.avaje.k8s.discovery:type=Discovery,namespace=\"dev\",service=\"foo\"");
+		assertEquals(1L, mbeanServer.getAttribute(name, "RefreshSuccessCount"));
+		assertEquals(1, mbeanServer.getAttribute(name, "ReadyMembers"));
+		mbeanServer.unregisterMBean(name);
+	}
+
+	@Test
+	public void histogram_percentiles() {
+
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.percentileMicros(50));
+		for (int i = 0; i < 99; i++) {
+			histogram.record(100_000);
+		}
+		histogram.record(50_000_000);
+
+		assertEquals(100, histogram.count());
+		assertEquals(127, histogram.percentileMicros(50));
+		assertEquals(127, histogram.percentileMicros(99));
+		assertEquals(65535, histogram.percentileMicros(100));
+	}
+}
@@ -0,0 +1,223 @@
+package org.avaje.k8s.discovery;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class K8sDiscoveryClientTest {
+
+	private HttpServer server;
+
+	private File token;
+
+	private final AtomicInteger requests = new AtomicInteger();
+
+	private volatile String barVersion = "20";
+
+	@Before
+	public void setUp() throws IOException {
+		token = File.createTempFile("k8s-token", ".txt");
+		Files.write(token.toPath(), "token".getBytes(StandardCharsets.UTF_8));
+
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/api/v1/namespaces/dev/endpoints", exchange -> {
+			requests.incrementAndGet();
+			byte[] bytes = list(exchange.getRequestURI().getQuery()).getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, bytes.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(bytes);
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+		token.delete();
+	}
+
+	/**
+	 * The list paged by the limit and continue (the index of the next item) query parameters.
+	 */
+	private String list(String query) {
+		List<String> items = Arrays.asList(
+				endpoints("foo", "10", "10.0.0.1", "foo-1"),
+				endpoints("other", "15", "10.0.1.1", "other-1"),
+				endpoints("bar", barVersion, "10.0.2.1", "bar-1"));
+		int limit = items.size();
+		int from = 0;
+		for (String param : query == null ? new String[0] : query.split("&")) {
+			String[] pair = param.split("=", 2);
+			if (pair[0].equals("limit")) {
+				limit = Integer.parseInt(pair[1]);
+			} else if (pair[0].equals("continue")) {
+				from = Integer.parseInt(pair[1]);
+			}
+		}
+		int to = Math.min(items.size(), from + limit);
+		String continueToken = (to < items.size()) ? ",\"continue\":\"" + to + "\"" : "";
+		return "{\"kind\":\"EndpointsList\",\"metadata\":{\"resourceVersion\":\"99\"" + continueToken + "},\"items\":["
+				+ String.join(",", items.subList(from, to))
+				+ "]}";
+	}
+
+	private K8sDiscoveryClient client() {
+		return new K8sDiscoveryClient()
+				.setNamespace("dev")
+				.setMasterUrl("http://localhost:" + server.getAddress().getPort())
+				.setAccountToken(token.getAbsolutePath());
+	}
+
+	private static String endpoints(String name, String version, String ip, String pod) {
+		return "{\"metadata\":{\"name\":\"" + name + "\",\"namespace\":\"dev\",\"resourceVersion\":\"" + version + "\"},"
+				+ "\"subsets\":[{\"addresses\":[{\"ip\":\"" + ip + "\",\"nodeName\":\"n1\",\"targetRef\":{\"kind\":\"Pod\",\"name\":\"" + pod + "\"}}]}]}";
+	}
+
+	@Test
+	public void services_shareOneListRequest() {
+
+		K8sDiscoveryClient client = client();
+
+		K8sMemberDiscovery foo = client.discovery("foo");
+		K8sMemberDiscovery bar = client.discovery("bar");
+		K8sMemberDiscovery missing = client.discovery("missing");
+
+		assertEquals("10.0.0.1", foo.getAllIps().get(0));
+		assertEquals("10.0.2.1", bar.getAllIps().get(0));
+		assertEquals(1, requests.get());
+
+		K8sServiceMembers fooMembers = foo.getMembers();
+		K8sServiceMembers barMembers = bar.getMembers();
+		barVersion = "21";
+		client.reload();
+		assertEquals(2, requests.get());
+		// unchanged resourceVersion keeps the same instance
+		assertSame(fooMembers, foo.getMembers());
+		assertNotSame(barMembers, bar.getMembers());
+
+		client.startRefresh();
+		try {
+			assertTrue(missing.getMembers().isEmpty());
+		} finally {
+			client.close();
+		}
+	}
+
+	@Test
+	public void listIsPaged() {
+
+		K8sDiscoveryClient client = client().setPageSize(1);
+		K8sMemberDiscovery foo = client.discovery("foo");
+		K8sMemberDiscovery bar = client.discovery("bar", null);
+
+		assertEquals("10.0.2.1", bar.getAllIps().get(0));
+		assertEquals("10.0.0.1", foo.getAllIps().get(0));
+		assertEquals("one request per page", 3, requests.get());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void noNamespace() {
+		String podNamespace = System.clearProperty("POD_NAMESPACE");
+		try {
+			new K8sDiscoveryClient().discovery("foo", null);
+		} finally {
+			if (podNamespace != null) {
+				System.setProperty("POD_NAMESPACE", podNamespace);
+			}
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void setMode_notSupported() {
+		client().discovery("foo").setMode(K8sDiscoveryMode.PODS);
+	}
+
+	@Test
+	public void clientSettings_notSetOnView() {
+
+		K8sMemberDiscovery foo = client().discovery("foo");
+		List<Runnable> settings = Arrays.asList(
+				() -> foo.setMasterUrl("http://other"),
+				() -> foo.setAccountToken("other"),
+				() -> foo.setRateLimit(1, 1),
+				() -> foo.setPageSize(1),
+				() -> foo.setRefreshInterval(1, TimeUnit.SECONDS),
+				() -> foo.setNamespace("other"),
+				() -> foo.setShared(true),
+				foo::startWatch);
+		for (Runnable setting : settings) {
+			try {
+				setting.run();
+				fail();
+			} catch (IllegalStateException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void startRefresh_startsClientRefresh() throws Exception {
+
+		K8sDiscoveryClient client = client();
+		K8sMemberDiscovery foo = client.discovery("foo").setMaxStaleness(100, TimeUnit.MILLISECONDS);
+		K8sMemberDiscovery bar = client.discovery("bar");
+		try {
+			assertEquals("10.0.0.1", foo.getAllIps().get(0));
+			foo.startRefresh();
+			bar.startRefresh();
+			assertTrue(client.isRefreshing());
+			assertEquals("10.0.2.1", bar.getAllIps().get(0));
+			assertEquals("one list for both services and no refresh per service", 1, requests.get());
+
+			// not refreshed by the client within the max staleness
+			Thread.sleep(200);
+			try {
+				foo.getAllIps();
+				fail("stale");
+			} catch (IllegalStateException e) {
+				assertTrue(e.getMessage().contains("stale"));
+			}
+		} finally {
+			client.close();
+		}
+	}
+
+	@Test
+	public void close_removesService() {
+
+		K8sDiscoveryClient client = client();
+		K8sMemberDiscovery foo = client.discovery("foo");
+		K8sMemberDiscovery bar = client.discovery("bar");
+		foo.close();
+		assertEquals("10.0.2.1", bar.getAllIps().get(0));
+		try {
+			foo.getAllIps();
+			fail("closed");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		bar.close();
+		// no services left so nothing is requested
+		client.reload();
+		assertEquals(1, requests.get());
+	}
+}
@@ -2,20 +2,32 @@ package org.avaje.k8s.discovery;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNull;
 
 public class K8sMemberDiscoveryTest {
 
 
 	private K8sServiceMembers members() {
-		K8sServiceMembers members = new K8sServiceMembers();
-		members.add(true, new K8sServiceMember("1.2.3.4", "foo", "pod1", true));
-		members.add(true, new K8sServiceMember("1.2.3.5", "bar", "pod2", true));
-		members.add(true, new K8sServiceMember("1.2.3.6", "baz", "pod3", true));
-		return members;
+		List<K8sServiceMember> members = new ArrayList<>();
+		members.add(new K8sServiceMember("1.2.3.4", "foo", "pod1", true));
+		members.add(new K8sServiceMember("1.2.3.5", "bar", "pod2", true));
+		members.add(new K8sServiceMember("1.2.3.6", "baz", "pod3", true));
+		return new K8sServiceMembers(members, Collections.emptyList());
 	}
 
 	@Test
@@ -111,6 +123,99 @@ public class K8sMemberDiscoveryTest {
 		assertEquals("ip:1.2.3.6 pod:pod3 node:baz" , members.get(2).toString());
 	}
 
+	@Test
+	public void loadIfRequired_concurrentCallersShareLoad() throws Exception {
+
+		AtomicInteger loadCount = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+
+		K8sMemberDiscovery discovery = new TdDiscovery("") {
+			@Override
+			protected K8sServiceMembers loadAllMembers() {
+				loadCount.incrementAndGet();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				return super.loadAllMembers();
+			}
+		};
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<List<K8sServiceMember>>> results = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				results.add(executor.submit(discovery::getAllMembers));
+			}
+			Thread.sleep(100);
+			release.countDown();
+			for (Future<List<K8sServiceMember>> result : results) {
+				assertEquals(3, result.get(5, TimeUnit.SECONDS).size());
+			}
+			assertEquals(1, loadCount.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void loadMembersAsync_sharesLoad() throws Exception {
+
+		AtomicInteger loadCount = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+
+		K8sMemberDiscovery discovery = new TdDiscovery("") {
+			@Override
+			protected K8sServiceMembers loadAllMembers() {
+				loadCount.incrementAndGet();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				return super.loadAllMembers();
+			}
+		};
+
+		CompletableFuture<K8sServiceMembers> first = discovery.loadMembersAsync();
+		CompletableFuture<K8sServiceMembers> second = discovery.loadMembersAsync();
+		CompletableFuture<K8sServiceMembers> cancelled = discovery.loadMembersAsync();
+		assertFalse(first.isDone());
+		// cancelling one caller's future does not affect the others
+		assertTrue(cancelled.cancel(true));
+
+		release.countDown();
+		assertEquals(3, first.get(5, TimeUnit.SECONDS).getMembers().size());
+		assertSame("the result is shared", first.get(), second.get(5, TimeUnit.SECONDS));
+		assertEquals(1, loadCount.get());
+
+		// loaded so completes immediately
+		CompletableFuture<K8sServiceMembers> loaded = discovery.loadMembersAsync();
+		assertTrue(loaded.isDone());
+		assertSame(first.get(), loaded.get());
+	}
+
+	@Test
+	public void loadMembersAsync_failure() throws Exception {
+
+		K8sMemberDiscovery discovery = new TdDiscovery("") {
+			@Override
+			protected K8sServiceMembers loadAllMembers() {
+				throw new IllegalStateException("Error getting members");
+			}
+		};
+		discovery.setExecutor(Runnable::run);
+
+		CompletableFuture<K8sServiceMembers> future = discovery.loadMembersAsync();
+		assertTrue(future.isCompletedExceptionally());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void members_immutable() {
+		new TdDiscovery("").getMembers().getMembers().clear();
+	}
+
 	class TdDiscovery extends K8sMemberDiscovery {
 
 		public TdDiscovery(String serviceName) {
@@ -0,0 +1,102 @@
+package org.avaje.k8s.discovery;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class K8sServiceMembersTest {
+
+	private final K8sServiceMember pod1 = new K8sServiceMember("1.2.3.4", "node-a", "pod1", true);
+	private final K8sServiceMember pod2 = new K8sServiceMember("1.2.3.5", "node-b", "pod2", true);
+	private final K8sServiceMember pod3 = new K8sServiceMember("1.2.3.6", "node-a", "pod3", true);
+	private final K8sServiceMember pod4 = new K8sServiceMember("1.2.3.7", "node-b", "pod4", false);
+
+	private K8sServiceMembers members() {
+		return new K8sServiceMembers(Arrays.asList(pod1, pod2, pod3), Collections.singletonList(pod4));
+	}
+
+	@Test
+	public void findPod() {
+		K8sServiceMembers members = members();
+		assertSame(pod2, members.findPod("pod2"));
+		assertSame(pod4, members.findPod("pod4"));
+		assertNull(members.findPod("junk"));
+	}
+
+	@Test
+	public void findByIp() {
+		K8sServiceMembers members = members();
+		assertSame(pod3, members.findByIp("1.2.3.6"));
+		assertSame(pod4, members.findByIp("1.2.3.7"));
+		assertNull(members.findByIp("1.2.3.8"));
+	}
+
+	@Test
+	public void findByNode() {
+		K8sServiceMembers members = members();
+		assertEquals(Arrays.asList(pod1, pod3), members.findByNode("node-a"));
+		assertEquals(Arrays.asList(pod2, pod4), members.findByNode("node-b"));
+		assertTrue(members.findByNode("node-c").isEmpty());
+	}
+
+	@Test
+	public void getIps() {
+		assertEquals(Arrays.asList("1.2.3.4", "1.2.3.5", "1.2.3.6"), members().getIps());
+	}
+
+	@Test
+	public void getOtherMembers_computedOnce() {
+		K8sServiceMembers members = members();
+
+		List<K8sServiceMember> others = members.getOtherMembers("pod2");
+		assertEquals(Arrays.asList(pod1, pod3), others);
+		assertSame(others, members.getOtherMembers("pod2"));
+
+		List<String> ips = members.getOtherIps("pod2");
+		assertEquals(Arrays.asList("1.2.3.4", "1.2.3.6"), ips);
+		assertSame(ips, members.getOtherIps("pod2"));
+
+		assertEquals(Arrays.asList("1.2.3.5", "1.2.3.6"), members.getOtherIps("pod1"));
+	}
+
+	@Test
+	public void getOtherMembers_nullPodName() {
+		K8sServiceMembers members = members();
+
+		// pod name unknown (outside the cluster) so all the members are others
+		assertEquals(members.getMembers(), members.getOtherMembers(null));
+		assertEquals(members.getIps(), members.getOtherIps(null));
+		assertEquals(Arrays.asList(pod1, pod3), members.getOtherMembers("pod2"));
+	}
+
+	@Test
+	public void getRankedPeers_nodeThenZone() {
+		K8sServiceMember a1 = zoned("10.0.0.1", "node-a", "a1", "az-1");
+		K8sServiceMember b1 = zoned("10.0.0.2", "node-b", "b1", "az-1");
+		K8sServiceMember c1 = zoned("10.0.0.3", "node-c", "c1", "az-2");
+		K8sServiceMember a2 = zoned("10.0.0.4", "node-a", "a2", "az-1");
+		K8sServiceMember b2 = zoned("10.0.0.5", "node-b", "b2", "az-1");
+		K8sServiceMembers members = new K8sServiceMembers(Arrays.asList(a1, b1, c1, a2, b2), Collections.emptyList());
+
+		List<K8sServiceMember> ranked = members.getRankedPeers("a1");
+		assertEquals(Arrays.asList(a2, b1, b2, c1), ranked);
+		assertSame(ranked, members.getRankedPeers("a1"));
+		assertSame(members.getOtherMembers("a1"), members.getOtherMembers("a1"));
+
+		assertEquals(Arrays.asList(a1, b1, a2, b2), members.getRankedPeers("c1"));
+		// unknown pod is not ranked
+		assertEquals(members.getMembers(), members.getRankedPeers("other"));
+		assertEquals(members.getMembers(), members.getRankedPeers(null));
+	}
+
+	private static K8sServiceMember zoned(String ip, String node, String pod, String zone) {
+		return new K8sServiceMember(ip, node, pod, true, true, false, Collections.emptyMap(), zone, null, Collections.emptyList());
+	}
+}
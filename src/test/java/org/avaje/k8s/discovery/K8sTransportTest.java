@@ -0,0 +1,97 @@
+package org.avaje.k8s.discovery;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class K8sTransportTest {
+
+	private static final String ENDPOINTS = "{\"metadata\":{\"resourceVersion\":\"1\"},\"subsets\":[{\"addresses\":[{\"ip\":\"10.0.0.1\",\"targetRef\":{\"name\":\"pod-1\"}}]}]}\n";
+
+	private HttpServer server;
+
+	private File token;
+
+	private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+	private final List<String> authorization = new CopyOnWriteArrayList<>();
+
+	@Before
+	public void setUp() throws IOException {
+		token = File.createTempFile("k8s-token", ".txt");
+		Files.write(token.toPath(), "token-1\n".getBytes(StandardCharsets.UTF_8));
+
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/api/v1/namespaces/dev/endpoints/foo", exchange -> {
+			clientPorts.add(exchange.getRemoteAddress().getPort());
+			authorization.add(exchange.getRequestHeaders().getFirst("Authorization"));
+			byte[] bytes = ENDPOINTS.getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, bytes.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(bytes);
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+		token.delete();
+	}
+
+	@Test
+	public void reload_reusesConnection() {
+
+		K8sMemberDiscovery discovery = new K8sMemberDiscovery("foo", "dev")
+				.setMasterUrl("http://localhost:" + server.getAddress().getPort())
+				.setAccountToken(token.getAbsolutePath());
+
+		AtomicInteger changes = new AtomicInteger();
+		discovery.addListener(members -> changes.incrementAndGet());
+
+		discovery.reload();
+		K8sServiceMembers first = discovery.getMembers();
+		for (int i = 0; i < 4; i++) {
+			discovery.reload();
+			assertEquals("10.0.0.1", discovery.getMembers().findPod("pod-1").getIpAddress());
+			// resourceVersion unchanged so the same instance is kept
+			assertSame(first, discovery.getMembers());
+		}
+		assertEquals(4, discovery.getSkippedRefreshCount());
+		assertEquals(1, changes.get());
+		assertEquals(5, authorization.size());
+		assertEquals("Bearer token-1", authorization.get(4));
+		// keep-alive connection used for all the requests
+		assertEquals(1, clientPorts.size());
+	}
+
+	@Test
+	public void token_reloadedWhenModified() throws IOException {
+
+		K8sTransport transport = new K8sTransport("http://localhost", token.getAbsolutePath());
+		assertEquals("token-1", transport.token());
+
+		Files.write(token.toPath(), "token-2".getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(token.toPath(), FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+		assertEquals("token-2", transport.token());
+		assertEquals("token-2", transport.token());
+	}
+}
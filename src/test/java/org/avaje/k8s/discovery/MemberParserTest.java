@@ -2,10 +2,15 @@ package org.avaje.k8s.discovery;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class MemberParserTest {
@@ -23,6 +28,46 @@ public class MemberParserTest {
 		assertEquals(members.get(1).toString(), "ip:10.254.5.121 pod:foo-service-6788ccd559-khh5m node:ip-172-19-73-199.ap-southeast-2.compute.internal");
 	}
 
+	@Test
+	public void parse_repeatedStringsShared() {
+
+		String json = "{\"metadata\":{\"resourceVersion\":\"9\"},\"subsets\":[{\"addresses\":["
+				+ "{\"ip\":\"10.0.0.1\",\"nodeName\":\"node-a\"},{\"ip\":\"10.0.0.2\",\"nodeName\":\"node-a\"},"
+				+ "{\"ip\":\"10.0.0.3\",\"nodeName\":\"node-\\u0062\"}],"
+				+ "\"notReadyAddresses\":[{\"ip\":\"10.0.0.1\",\"nodeName\":\"node-b\"}]}]}";
+
+		K8sServiceMembers members = new MemberParser(json).parseJson();
+		List<K8sServiceMember> ready = members.getMembers();
+		assertSame(ready.get(0).getNodeName(), ready.get(1).getNodeName());
+		assertSame(ready.get(2).getNodeName(), members.getNotReady().get(0).getNodeName());
+		assertEquals("node-b", ready.get(2).getNodeName());
+		// ready member takes precedence
+		assertSame(ready.get(0), members.findByIp("10.0.0.1"));
+		assertEquals(2, members.findByNode("node-a").size());
+		assertEquals(2, members.findByNode("node-b").size());
+	}
+
+	@Test
+	public void parse_portsAfterAddresses() {
+
+		String json = "{\"metadata\":{\"resourceVersion\":\"9\"},\"subsets\":["
+				+ "{\"addresses\":[{\"ip\":\"10.0.0.1\",\"hostname\":\"db-0\",\"targetRef\":{\"name\":\"db-0\"}}],"
+				+ "\"notReadyAddresses\":[{\"ip\":\"10.0.0.2\",\"targetRef\":{\"name\":\"db-1\"}}],"
+				+ "\"ports\":[{\"name\":\"sql\",\"port\":5432,\"protocol\":\"TCP\"},{\"name\":\"metrics\",\"port\":9187}]},"
+				+ "{\"ports\":[{\"port\":8080}],\"addresses\":[{\"ip\":\"10.0.0.3\"}]}]}";
+
+		K8sServiceMembers members = new MemberParser(json).parseJson();
+
+		K8sServiceMember db0 = members.findPod("db-0");
+		assertEquals("db-0", db0.getHostname());
+		assertEquals(2, db0.getPorts().size());
+		assertEquals(5432, db0.getPort("sql").getPort());
+		assertEquals("metrics:9187/TCP", db0.getPort("metrics").toString());
+		assertNull(db0.getPort("http"));
+		assertEquals(db0.getPorts(), members.findPod("db-1").getPorts());
+		assertEquals("8080/TCP", members.findByIp("10.0.0.3").getPorts().get(0).toString());
+	}
+
 	@Test
 	public void parse_one() {
 
@@ -65,4 +110,77 @@ public class MemberParserTest {
 		assertNotNull(found);
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void parse_reorderedFields_scopedToAddress() {
+
+		String content = "{\"subsets\":[{\"ports\":[{\"port\":8370}],\"addresses\":["
+				+ "{\"targetRef\":{\"name\":\"pod-a\",\"resourceVersion\":\"7\"},\"ip\":\"10.0.0.1\"},"
+				+ "{\"nodeName\":\"node-b\",\"ip\":\"10.0.0.2\",\"targetRef\":{\"kind\":\"Pod\",\"name\":\"pod-b\"}}]}],"
+				+ "\"metadata\":{\"name\":\"foo\",\"resourceVersion\":\"42\"}}";
+
+		K8sServiceMembers members = new MemberParser(content).parseJson();
+
+		assertEquals("42", members.getResourceVersion());
+		assertEquals(2, members.getMembers().size());
+		// first address has no nodeName which must not be taken from the next address
+		assertEquals("ip:10.0.0.1 pod:pod-a node:null", members.getMembers().get(0).toString());
+		assertEquals("ip:10.0.0.2 pod:pod-b node:node-b", members.getMembers().get(1).toString());
+	}
+
+	@Test
+	public void parse_escapedAndUnicode() {
+
+		String content = "{ \"subsets\" : [ { \"addresses\" : [ { \"ip\" : \"10.0.0.1\", \"nodeName\" : \"n\\\"1\\u00e9\", "
+				+ "\"targetRef\" : { \"name\" : \"pöd-\\/1\" }, \"extra\" : [ 1, { \"a\" : \"]}\" }, null, true ] } ] } ] }";
+
+		K8sServiceMember member = new MemberParser(content).parseJson().getMembers().get(0);
+		assertEquals("10.0.0.1", member.getIpAddress());
+		assertEquals("n\"1é", member.getNodeName());
+		assertEquals("pöd-/1", member.getPodName());
+	}
+
+	@Test
+	public void parse_reuseAcrossStreams() throws IOException {
+
+		MemberParser parser = new MemberParser();
+		for (int i = 0; i < 3; i++) {
+			String content = "{\"metadata\":{\"resourceVersion\":\"" + i + "\"},\"subsets\":[{\"notReadyAddresses\":[{\"ip\":\"10.0.0." + i + "\"}]}]}";
+			K8sServiceMembers members = parser.parse(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+			assertEquals(String.valueOf(i), members.getResourceVersion());
+			assertEquals(0, members.getMembers().size());
+			assertEquals("10.0.0." + i, members.getNotReady().get(0).getIpAddress());
+		}
+	}
+
+	@Test
+	public void watch_multipleEvents() throws IOException {
+
+		String events = "{\"type\":\"ADDED\",\"object\":{\"metadata\":{\"resourceVersion\":\"1\"},\"subsets\":[{\"addresses\":[{\"ip\":\"10.0.0.1\"}]}]}}\n"
+				+ "{\"object\":{\"metadata\":{\"resourceVersion\":\"2\"}},\"type\":\"BOOKMARK\"}\n";
+
+		MemberParser parser = new MemberParser().watch(new ByteArrayInputStream(events.getBytes(StandardCharsets.UTF_8)));
+
+		WatchEvent added = parser.nextEvent();
+		assertEquals("ADDED", added.getType());
+		assertEquals(1, added.getMembers().getMembers().size());
+
+		WatchEvent bookmark = parser.nextEvent();
+		assertTrue(bookmark.isBookmark());
+		assertEquals("2", bookmark.getResourceVersion());
+
+		assertNull(parser.nextEvent());
+	}
+
+	@Test
+	public void parse_unchangedResourceVersion() throws IOException {
+
+		String content = "{\"metadata\":{\"resourceVersion\":\"42\"},\"subsets\":[{\"addresses\":[{\"ip\":\"10.0.0.1\"}]}]}";
+		MemberParser parser = new MemberParser();
+
+		assertNull(parser.parse(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), "42"));
+
+		K8sServiceMembers changed = parser.parse(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), "41");
+		assertEquals(1, changed.getMembers().size());
+	}
+
+}
@@ -0,0 +1,117 @@
+package org.avaje.k8s.discovery;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MemberPickerTest {
+
+	private static List<K8sServiceMember> members(int count) {
+		List<K8sServiceMember> list = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			list.add(new K8sServiceMember("10.0.0." + i, "node", "pod-" + i, true));
+		}
+		return Collections.unmodifiableList(list);
+	}
+
+	@Test
+	public void roundRobin() {
+		List<K8sServiceMember> three = members(3);
+		AtomicReference<List<K8sServiceMember>> current = new AtomicReference<>(three);
+		RoundRobinPicker picker = new RoundRobinPicker(current::get);
+
+		assertSame(three.get(0), picker.pick());
+		assertSame(three.get(1), picker.pick());
+		assertSame(three.get(2), picker.pick());
+		assertSame(three.get(0), picker.pick());
+
+		// carries on from the same position with the new members
+		List<K8sServiceMember> five = members(5);
+		current.set(five);
+		assertSame(five.get(4), picker.pick());
+
+		current.set(Collections.emptyList());
+		assertNull(picker.pick());
+	}
+
+	@Test
+	public void powerOfTwoChoices_prefersLessLoaded() {
+		List<K8sServiceMember> two = members(2);
+		Map<K8sServiceMember, Long> load = new HashMap<>();
+		load.put(two.get(0), 10L);
+		load.put(two.get(1), 1L);
+		LeastLoadedPicker picker = new LeastLoadedPicker(() -> two, load::get);
+
+		for (int i = 0; i < 20; i++) {
+			assertSame(two.get(1), picker.pick());
+		}
+		assertSame(two.get(0), new LeastLoadedPicker(() -> two.subList(0, 1), load::get).pick());
+		assertNull(new LeastLoadedPicker(Collections::emptyList, load::get).pick());
+	}
+
+	@Test
+	public void consistentHash_minimalMovement() {
+		List<K8sServiceMember> ten = members(10);
+		AtomicReference<List<K8sServiceMember>> current = new AtomicReference<>(ten);
+		HashRingPicker picker = new HashRingPicker(current::get);
+
+		Map<String, K8sServiceMember> before = new HashMap<>();
+		Map<K8sServiceMember, Integer> counts = new HashMap<>();
+		for (int i = 0; i < 1000; i++) {
+			K8sServiceMember member = picker.pick("key-" + i);
+			before.put("key-" + i, member);
+			counts.merge(member, 1, Integer::sum);
+			assertSame(member, picker.pick("key-" + i));
+		}
+		// reasonably balanced
+		assertEquals(10, counts.size());
+		for (int count : counts.values()) {
+			assertTrue("count " + count, count > 40 && count < 200);
+		}
+
+		// remove a member, only its keys move
+		K8sServiceMember removed = ten.get(3);
+		List<K8sServiceMember> nine = new ArrayList<>(ten);
+		nine.remove(removed);
+		current.set(nine);
+		for (Map.Entry<String, K8sServiceMember> entry : before.entrySet()) {
+			K8sServiceMember member = picker.pick(entry.getKey());
+			if (entry.getValue() == removed) {
+				assertNotEquals(removed, member);
+			} else {
+				assertSame(entry.getValue(), member);
+			}
+		}
+		current.set(Collections.emptyList());
+		assertNull(picker.pick("key-1"));
+	}
+
+	@Test
+	public void discovery_pickersExcludeCurrentPod() {
+		K8sServiceMembers snapshot = new K8sServiceMembers(members(3), Collections.emptyList());
+		K8sMemberDiscovery discovery = new K8sMemberDiscovery("foo") {
+			@Override
+			protected K8sServiceMembers loadAllMembers() {
+				return snapshot;
+			}
+		}.setPodName("pod-0");
+
+		K8sMemberPicker picker = discovery.roundRobin();
+		assertEquals(Arrays.asList("pod-1", "pod-2", "pod-1"),
+				Arrays.asList(picker.pick().getPodName(), picker.pick().getPodName(), picker.pick().getPodName()));
+		assertNotEquals("pod-0", discovery.consistentHash().pick("a").getPodName());
+		assertNotEquals("pod-0", discovery.powerOfTwoChoices(member -> 0).pick().getPodName());
+	}
+}
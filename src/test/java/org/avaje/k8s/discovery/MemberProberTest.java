@@ -0,0 +1,180 @@
+package org.avaje.k8s.discovery;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MemberProberTest {
+
+	private final Set<String> failing = ConcurrentHashMap.newKeySet();
+
+	private final AtomicReference<List<K8sServiceMember>> members = new AtomicReference<>(members(4));
+
+	private MemberProber prober;
+
+	@After
+	public void tearDown() {
+		if (prober != null) {
+			prober.stop();
+		}
+	}
+
+	private static List<K8sServiceMember> members(int count) {
+		List<K8sServiceMember> list = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			list.add(new K8sServiceMember("10.0.0." + i, "node", "pod-" + i, true));
+		}
+		return Collections.unmodifiableList(list);
+	}
+
+	private MemberProber prober(int maxEjectionPercent) {
+		// probe on the calling thread such that each probeAll() completes the checks
+		prober = new MemberProber("foo", members::get, member -> !failing.contains(member.getIpAddress()),
+				1000, 2, 2, maxEjectionPercent, 1, Runnable::run);
+		return prober;
+	}
+
+	@Test
+	public void ejectsAfterFailures_readmitsAfterSuccesses() {
+
+		MemberProber prober = prober(50);
+		List<K8sServiceMember> all = members.get();
+		prober.probeAll();
+		assertSame(all, prober.healthy(all));
+
+		failing.add("10.0.0.1");
+		prober.probeAll();
+		assertSame("one failure does not eject", all, prober.healthy(all));
+		prober.probeAll();
+		assertTrue(prober.isEjected(all.get(1)));
+		List<K8sServiceMember> healthy = prober.healthy(all);
+		assertEquals(3, healthy.size());
+		assertFalse(healthy.contains(all.get(1)));
+		assertSame("view reused while unchanged", healthy, prober.healthy(all));
+
+		failing.clear();
+		prober.probeAll();
+		assertTrue("one success does not re-admit", prober.isEjected(all.get(1)));
+		prober.probeAll();
+		assertFalse(prober.isEjected(all.get(1)));
+		assertSame(all, prober.healthy(all));
+	}
+
+	@Test
+	public void maxEjectionPercent() {
+
+		MemberProber prober = prober(50);
+		List<K8sServiceMember> all = members.get();
+		for (K8sServiceMember member : all) {
+			failing.add(member.getIpAddress());
+		}
+		prober.probeAll();
+		prober.probeAll();
+		prober.probeAll();
+		assertEquals("at most half of 4 are ejected", 2, prober.healthy(all).size());
+	}
+
+	@Test
+	public void reportFailure_ejects() {
+
+		MemberProber prober = prober(50);
+		List<K8sServiceMember> all = members.get();
+		prober.probeAll();
+		prober.record(all.get(2), false);
+		prober.record(all.get(2), false);
+		assertTrue(prober.isEjected(all.get(2)));
+		assertEquals(3, prober.healthy(all).size());
+	}
+
+	@Test
+	public void removedMembers_pruned() {
+
+		MemberProber prober = prober(50);
+		List<K8sServiceMember> all = members.get();
+		failing.add("10.0.0.3");
+		prober.probeAll();
+		prober.probeAll();
+		assertEquals(3, prober.healthy(all).size());
+
+		List<K8sServiceMember> three = members(3);
+		members.set(three);
+		prober.probeAll();
+		assertSame(three, prober.healthy(three));
+		assertFalse(prober.isEjected(all.get(3)));
+	}
+
+	@Test
+	public void tcpCheck() throws Exception {
+
+		K8sServiceMember local = new K8sServiceMember("127.0.0.1", "node", "pod-0", true);
+		int port;
+		try (ServerSocket serverSocket = new ServerSocket(0)) {
+			port = serverSocket.getLocalPort();
+			assertTrue(K8sHealthCheck.tcp(port, 1000).isHealthy(local));
+		}
+		try {
+			K8sHealthCheck.tcp(port, 1000).isHealthy(local);
+			throw new AssertionError("expected connect to fail");
+		} catch (IOException e) {
+			// expected, the server socket is closed
+		}
+		assertTrue("members without the named port are not checked", K8sHealthCheck.tcp("http", 1000).isHealthy(local));
+	}
+
+	@Test
+	public void tcpDefaultPort_skipsUdpPorts() throws Exception {
+
+		try (ServerSocket serverSocket = new ServerSocket(0)) {
+			int port = serverSocket.getLocalPort();
+			// nothing accepts TCP connections on port 1 so connecting to the UDP port would fail
+			K8sServiceMember dns = new K8sServiceMember("127.0.0.1", "node", "pod-0", true, true, false, Collections.emptyMap(), null, null,
+					Arrays.asList(new K8sServicePort("dns", 1, "UDP"), new K8sServicePort("http", port, "TCP")));
+			assertTrue(K8sHealthCheck.tcpDefaultPort(1000).isHealthy(dns));
+			assertTrue(K8sHealthCheck.tcp((String) null, 1000).isHealthy(dns));
+
+			K8sServiceMember udpOnly = new K8sServiceMember("127.0.0.1", "node", "pod-1", true, true, false, Collections.emptyMap(), null, null,
+					Collections.singletonList(new K8sServicePort("dns", 1, "UDP")));
+			assertTrue("members without a TCP port are not checked", K8sHealthCheck.tcpDefaultPort(1000).isHealthy(udpOnly));
+		}
+	}
+
+	@Test
+	public void discovery_ejectsFromPickers() throws Exception {
+
+		try (FakeKubeApiServer server = new FakeKubeApiServer("dev")) {
+			server.scale("foo", 3);
+			K8sMemberDiscovery discovery = server.discovery("foo").setPodName("foo-0");
+			String down = discovery.getOtherMembers().get(0).getIpAddress();
+			try (K8sMemberDiscovery probing = discovery
+					.setHealthCheck(member -> !member.getIpAddress().equals(down))
+					.setProbeInterval(20, TimeUnit.MILLISECONDS)
+					.startProbing()) {
+
+				K8sMemberPicker picker = probing.roundRobin();
+				long deadline = System.currentTimeMillis() + 5000;
+				while (probing.getHealthyMembers().size() != 1 && System.currentTimeMillis() < deadline) {
+					Thread.sleep(10);
+				}
+				assertEquals(1, probing.getHealthyMembers().size());
+				for (int i = 0; i < 4; i++) {
+					assertFalse(down.equals(picker.pick().getIpAddress()));
+				}
+			}
+		}
+	}
+}
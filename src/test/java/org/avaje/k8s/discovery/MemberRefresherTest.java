@@ -0,0 +1,124 @@
+package org.avaje.k8s.discovery;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MemberRefresherTest {
+
+	@Test
+	public void refresh_onInterval() throws Exception {
+
+		CountingDiscovery discovery = new CountingDiscovery();
+		discovery.setRefreshInterval(20, TimeUnit.MILLISECONDS).startRefresh();
+		try {
+			waitFor(() -> discovery.loads.get() >= 3);
+			assertEquals("1.2.3.4", discovery.getAllIps().get(0));
+		} finally {
+			discovery.close();
+		}
+		int loads = discovery.loads.get();
+		Thread.sleep(100);
+		assertEquals(loads, discovery.loads.get());
+	}
+
+	@Test
+	public void refresh_failing_servesLastGood_untilStale() throws Exception {
+
+		CountingDiscovery discovery = new CountingDiscovery();
+		discovery.setRefreshInterval(20, TimeUnit.MILLISECONDS)
+				.setMaxStaleness(300, TimeUnit.MILLISECONDS);
+
+		assertEquals(1, discovery.getAllMembers().size());
+		discovery.failing.set(true);
+		discovery.startRefresh();
+		try {
+			waitFor(() -> discovery.loads.get() >= 2);
+			// refresh failing but still serve the last good members
+			assertEquals(1, discovery.getAllMembers().size());
+
+			Thread.sleep(400);
+			try {
+				discovery.getAllMembers();
+				fail();
+			} catch (IllegalStateException e) {
+				assertTrue(e.getMessage().contains("stale"));
+			}
+		} finally {
+			discovery.close();
+		}
+	}
+
+	@Test
+	public void stop_duringReload_notRescheduled() throws Exception {
+
+		AtomicInteger loads = new AtomicInteger();
+		AtomicReference<MemberRefresher> ref = new AtomicReference<>();
+		MemberRefresher refresher = new MemberRefresher("svc", () -> {
+			loads.incrementAndGet();
+			// closed while reloading
+			ref.get().stop();
+			throw new IllegalStateException("Error getting members");
+		}, 10, 0);
+		ref.set(refresher);
+		refresher.start(false);
+
+		waitFor(() -> loads.get() >= 1);
+		Thread.sleep(100);
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	public void nextDelay_withJitter() {
+
+		MemberRefresher refresher = new MemberRefresher("svc", () -> {}, 1000, 0.2);
+		for (int i = 0; i < 100; i++) {
+			long delay = refresher.nextDelay();
+			assertTrue(delay >= 800 && delay <= 1200);
+		}
+		assertEquals(1000, new MemberRefresher("svc", () -> {}, 1000, 0).nextDelay());
+	}
+
+	private static void waitFor(Condition condition) throws InterruptedException {
+		long until = System.currentTimeMillis() + 5000;
+		while (!condition.met()) {
+			if (System.currentTimeMillis() > until) {
+				fail("timed out waiting for condition");
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	interface Condition {
+		boolean met();
+	}
+
+	static class CountingDiscovery extends K8sMemberDiscovery {
+
+		final AtomicInteger loads = new AtomicInteger();
+
+		final AtomicBoolean failing = new AtomicBoolean();
+
+		CountingDiscovery() {
+			super("svc", "dev");
+		}
+
+		@Override
+		protected K8sServiceMembers loadAllMembers() {
+			loads.incrementAndGet();
+			if (failing.get()) {
+				throw new IllegalStateException("Error getting members");
+			}
+			K8sServiceMember member = new K8sServiceMember("1.2.3.4", "node", "pod", true);
+			return new K8sServiceMembers(Collections.singletonList(member), Collections.emptyList());
+		}
+	}
+}
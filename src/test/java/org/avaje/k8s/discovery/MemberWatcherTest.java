@@ -0,0 +1,171 @@
+package org.avaje.k8s.discovery;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class MemberWatcherTest {
+
+	private static final String LIST = "{\"kind\":\"EndpointsList\",\"metadata\":{\"resourceVersion\":\"100\"},\"items\":[{\"kind\":\"Endpoints\",\"metadata\":{\"name\":\"foo\",\"resourceVersion\":\"95\"},\"subsets\":[{\"addresses\":[{\"ip\":\"10.0.0.1\",\"nodeName\":\"n1\",\"targetRef\":{\"kind\":\"Pod\",\"name\":\"foo-1\",\"resourceVersion\":\"90\"}}]}]}]}";
+
+	private static final String ADDED = "{\"type\":\"MODIFIED\",\"object\":{\"kind\":\"Endpoints\",\"metadata\":{\"name\":\"foo\",\"resourceVersion\":\"101\"},\"subsets\":[{\"addresses\":[{\"ip\":\"10.0.0.1\",\"nodeName\":\"n1\",\"targetRef\":{\"kind\":\"Pod\",\"name\":\"foo-1\"}},{\"ip\":\"10.0.0.2\",\"nodeName\":\"n2\",\"targetRef\":{\"kind\":\"Pod\",\"name\":\"foo-2\"}}]}]}}";
+
+	private static final String DELETED = "{\"type\":\"DELETED\",\"object\":{\"kind\":\"Endpoints\",\"metadata\":{\"name\":\"foo\",\"resourceVersion\":\"102\"},\"subsets\":[]}}";
+
+	private static final String GONE = "{\"type\":\"ERROR\",\"object\":{\"kind\":\"Status\",\"apiVersion\":\"v1\",\"metadata\":{},\"status\":\"Failure\",\"message\":\"too old resource version\",\"reason\":\"Expired\",\"code\":410}}";
+
+	private HttpServer server;
+
+	private File token;
+
+	private final AtomicInteger listCount = new AtomicInteger();
+
+	private final BlockingQueue<String> watchQueries = new LinkedBlockingQueue<>();
+
+	private volatile String[] watchEvents = {};
+
+	@Before
+	public void setUp() throws IOException {
+		token = File.createTempFile("k8s-token", ".txt");
+		Files.write(token.toPath(), "test-token".getBytes(StandardCharsets.UTF_8));
+
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/api/v1/namespaces/dev/endpoints", exchange -> {
+			if (exchange.getRequestURI().getQuery().contains("watch=true")) {
+				watch(exchange);
+			} else {
+				listCount.incrementAndGet();
+				send(exchange, LIST);
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+		token.delete();
+	}
+
+	private void watch(HttpExchange exchange) throws IOException {
+		watchQueries.add(exchange.getRequestURI().getQuery());
+		String[] events = watchEvents;
+		watchEvents = new String[0];
+		exchange.sendResponseHeaders(200, 0);
+		try (OutputStream os = exchange.getResponseBody()) {
+			for (String event : events) {
+				os.write((event + "\n").getBytes(StandardCharsets.UTF_8));
+				os.flush();
+			}
+			if (events.length == 0) {
+				// hold the watch open a little before the server ends it
+				sleep(200);
+			}
+		}
+	}
+
+	private void send(HttpExchange exchange, String content) throws IOException {
+		byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(200, bytes.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(bytes);
+		}
+	}
+
+	private K8sMemberDiscovery discovery(BlockingQueue<K8sServiceMembers> changes) {
+		return new K8sMemberDiscovery("foo", "dev")
+				.setMasterUrl("http://localhost:" + server.getAddress().getPort())
+				.setAccountToken(token.getAbsolutePath())
+				.addListener(delta -> changes.add(delta.getMembers()));
+	}
+
+	@Test
+	public void watch_events() throws Exception {
+
+		watchEvents = new String[]{ADDED, DELETED};
+
+		BlockingQueue<K8sServiceMembers> changes = new LinkedBlockingQueue<>();
+		try (K8sMemberDiscovery discovery = discovery(changes).startWatch()) {
+
+			K8sServiceMembers listed = changes.poll(5, TimeUnit.SECONDS);
+			assertNotNull(listed);
+			assertEquals("95", listed.getResourceVersion());
+			assertEquals(1, listed.getMembers().size());
+
+			K8sServiceMembers added = changes.poll(5, TimeUnit.SECONDS);
+			assertNotNull(added);
+			List<K8sServiceMember> members = added.getMembers();
+			assertEquals(2, members.size());
+			assertEquals("ip:10.0.0.2 pod:foo-2 node:n2", members.get(1).toString());
+
+			K8sServiceMembers deleted = changes.poll(5, TimeUnit.SECONDS);
+			assertNotNull(deleted);
+			assertTrue(deleted.isEmpty());
+			assertEquals("102", deleted.getResourceVersion());
+
+			// watches from the resourceVersion of the list rather than of the endpoints
+			assertTrue(watchQueries.poll(5, TimeUnit.SECONDS).contains("resourceVersion=100"));
+			// resumes from the last seen resourceVersion without relisting
+			assertTrue(watchQueries.poll(5, TimeUnit.SECONDS).contains("resourceVersion=102"));
+			assertEquals(1, listCount.get());
+		}
+	}
+
+	@Test
+	public void watch_gone_relists() throws Exception {
+
+		watchEvents = new String[]{GONE};
+
+		BlockingQueue<K8sServiceMembers> changes = new LinkedBlockingQueue<>();
+		try (K8sMemberDiscovery discovery = discovery(changes).startWatch()) {
+
+			assertNotNull(changes.poll(5, TimeUnit.SECONDS));
+			// 410 Gone results in a second list (and watch from the listed resourceVersion)
+			assertTrue(watchQueries.poll(5, TimeUnit.SECONDS).contains("resourceVersion=100"));
+			assertTrue(watchQueries.poll(5, TimeUnit.SECONDS).contains("resourceVersion=100"));
+			assertEquals(2, listCount.get());
+			// the relisted endpoints are unchanged
+			assertEquals(1, discovery.getSkippedRefreshCount());
+			assertEquals("ip:10.0.0.1 pod:foo-1 node:n1", discovery.getAllMembers().get(0).toString());
+		}
+	}
+
+	@Test
+	public void parseEvent() {
+
+		WatchEvent event = new MemberParser(ADDED).parseEvent();
+		assertEquals("MODIFIED", event.getType());
+		assertEquals("101", event.getResourceVersion());
+		assertEquals(2, event.getMembers().getMembers().size());
+
+		WatchEvent gone = new MemberParser(GONE).parseEvent();
+		assertTrue(gone.isError());
+		assertEquals(410, gone.getCode());
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
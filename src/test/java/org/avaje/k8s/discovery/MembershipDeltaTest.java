@@ -0,0 +1,71 @@
+package org.avaje.k8s.discovery;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MembershipDeltaTest {
+
+	private static K8sServiceMember member(String ip, String pod, boolean ready) {
+		return new K8sServiceMember(ip, "node", pod, ready);
+	}
+
+	private static K8sServiceMembers members(K8sServiceMember... members) {
+		List<K8sServiceMember> all = Arrays.asList(members);
+		return new K8sServiceMembers(
+				all.stream().filter(K8sServiceMember::isReady).collect(Collectors.toList()),
+				all.stream().filter(it -> !it.isReady()).collect(Collectors.toList()));
+	}
+
+	@Test
+	public void of_changes() {
+
+		K8sServiceMembers previous = members(
+				member("10.0.0.1", "pod1", true),
+				member("10.0.0.2", "pod2", true),
+				member("10.0.0.3", "pod3", false),
+				member("10.0.0.4", "pod4", true));
+
+		K8sServiceMembers current = members(
+				member("10.0.0.1", "pod1", true),
+				member("10.0.0.2", "pod2", false),
+				member("10.0.0.3", "pod3", true),
+				member("10.0.0.9", "pod4", true),
+				member("10.0.0.5", "pod5", false));
+
+		MembershipDelta delta = MembershipDelta.of(previous, current);
+
+		assertEquals("[ip:10.0.0.9 pod:pod4 node:node, ip:10.0.0.5 pod:pod5 node:node]", delta.getAdded().toString());
+		// pod4 changed IP address
+		assertEquals("[ip:10.0.0.4 pod:pod4 node:node]", delta.getRemoved().toString());
+		assertEquals("[ip:10.0.0.3 pod:pod3 node:node]", delta.getBecameReady().toString());
+		assertEquals("[ip:10.0.0.2 pod:pod2 node:node]", delta.getBecameNotReady().toString());
+	}
+
+	@Test
+	public void of_previousNull() {
+
+		MembershipDelta delta = MembershipDelta.of(null, members(member("10.0.0.1", "pod1", true)));
+		assertEquals(1, delta.getAdded().size());
+		assertTrue(delta.getPrevious().isEmpty());
+	}
+
+	@Test
+	public void of_matchedByIp_whenNoPodName() {
+
+		K8sServiceMembers previous = members(member("10.0.0.1", null, true));
+		K8sServiceMembers current = new K8sServiceMembers(Collections.emptyList(), Collections.singletonList(member("10.0.0.1", null, false)));
+
+		MembershipDelta delta = MembershipDelta.of(previous, current);
+		assertEquals(1, delta.getBecameNotReady().size());
+		assertTrue(delta.getAdded().isEmpty());
+		assertTrue(delta.getRemoved().isEmpty());
+		assertTrue(MembershipDelta.of(current, current).isEmpty());
+	}
+}
@@ -0,0 +1,112 @@
+package org.avaje.k8s.discovery;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PodParserTest {
+
+	private static final String PAGE_1 = "{\"kind\":\"PodList\",\"apiVersion\":\"v1\",\"metadata\":{\"resourceVersion\":\"700\",\"continue\":\"next\"},\"items\":["
+			+ "{\"metadata\":{\"name\":\"db-0\",\"namespace\":\"dev\",\"labels\":{\"app\":\"db\",\"statefulset.kubernetes.io/pod-name\":\"db-0\"},"
+			+ "\"managedFields\":[{\"manager\":\"kubelet\",\"fieldsV1\":{\"f:status\":{}}}]},"
+			+ "\"spec\":{\"containers\":[{\"name\":\"db\",\"image\":\"postgres\",\"ports\":[{\"containerPort\":5432}]}],\"nodeName\":\"n1\"},"
+			+ "\"status\":{\"phase\":\"Running\",\"conditions\":[{\"type\":\"Initialized\",\"status\":\"True\"},{\"status\":\"True\",\"type\":\"Ready\"}],\"podIP\":\"10.0.0.1\",\"podIPs\":[{\"ip\":\"10.0.0.1\"}]}},"
+			+ "{\"status\":{\"podIP\":\"10.0.0.2\",\"conditions\":[{\"type\":\"Ready\",\"status\":\"False\"}]},\"spec\":{\"nodeName\":\"n2\"},\"metadata\":{\"name\":\"db-1\",\"labels\":{\"app\":\"db\"}}}"
+			+ "]}";
+
+	private static final String PAGE_2 = "{\"kind\":\"PodList\",\"metadata\":{\"resourceVersion\":\"701\"},\"items\":["
+			+ "{\"metadata\":{\"name\":\"db-2\",\"deletionTimestamp\":\"2024-01-01T00:00:00Z\"},\"spec\":{\"nodeName\":\"n1\"},"
+			+ "\"status\":{\"podIP\":\"10.0.0.3\",\"conditions\":[{\"type\":\"Ready\",\"status\":\"True\"}]}},"
+			+ "{\"metadata\":{\"name\":\"db-3\"},\"spec\":{},\"status\":{\"phase\":\"Running\"}}"
+			+ "]}";
+
+	@Test
+	public void parse_pages() throws IOException {
+
+		PodParser parser = new PodParser();
+		parser.start();
+		assertEquals("next", parser.parsePage(stream(PAGE_1)));
+		assertNull(parser.parsePage(stream(PAGE_2)));
+
+		K8sServiceMembers members = parser.members();
+		assertEquals("700", members.getResourceVersion());
+
+		List<K8sServiceMember> ready = members.getMembers();
+		assertEquals(1, ready.size());
+		K8sServiceMember db0 = ready.get(0);
+		assertEquals("ip:10.0.0.1 pod:db-0 node:n1", db0.toString());
+		assertEquals("db", db0.getLabels().get("app"));
+		assertEquals("db-0", db0.getLabels().get("statefulset.kubernetes.io/pod-name"));
+
+		// db-3 has no IP so is not a member
+		assertEquals(2, members.getNotReady().size());
+		K8sServiceMember db1 = members.findPod("db-1");
+		assertFalse(db1.isReady());
+		assertFalse(db1.isTerminating());
+
+		K8sServiceMember db2 = members.findPod("db-2");
+		assertFalse(db2.isReady());
+		assertTrue(db2.isServing());
+		assertTrue(db2.isTerminating());
+		assertTrue(db2.getLabels().isEmpty());
+	}
+
+	@Test
+	public void loadAllMembers_paged() throws IOException {
+
+		File token = File.createTempFile("k8s-token", ".txt");
+		Files.write(token.toPath(), "token".getBytes(StandardCharsets.UTF_8));
+
+		List<String> queries = new CopyOnWriteArrayList<>();
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/api/v1/namespaces/dev/pods", exchange -> {
+			String query = exchange.getRequestURI().getQuery();
+			queries.add(query);
+			byte[] bytes = (query.contains("continue=next") ? PAGE_2 : PAGE_1).getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, bytes.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(bytes);
+			}
+		});
+		server.start();
+		try {
+			K8sMemberDiscovery discovery = new K8sMemberDiscovery("db", "dev")
+					.setMode(K8sDiscoveryMode.PODS)
+					.setLabelSelector("app=db,tier in (data)")
+					.setPageSize(2)
+					.setPodName("db-0")
+					.setMasterUrl("http://localhost:" + server.getAddress().getPort())
+					.setAccountToken(token.getAbsolutePath());
+
+			assertEquals(1, discovery.getAllMembers().size());
+			assertTrue(discovery.getOtherMembers().isEmpty());
+			assertEquals("10.0.0.1", discovery.getMemberIp());
+
+			assertEquals(2, queries.size());
+			assertEquals("labelSelector=app=db,tier+in+(data)&fieldSelector=status.phase=Running&limit=2", queries.get(0));
+			assertEquals("labelSelector=app=db,tier+in+(data)&fieldSelector=status.phase=Running&limit=2&continue=next", queries.get(1));
+		} finally {
+			server.stop(0);
+			token.delete();
+		}
+	}
+
+	private static InputStream stream(String content) {
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,124 @@
+package org.avaje.k8s.discovery;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProtobufMemberParserTest {
+
+	private static byte[] endpoints(String resourceVersion, int addresses) {
+		ProtobufWriter subset = new ProtobufWriter();
+		for (int i = 0; i < addresses; i++) {
+			ProtobufWriter targetRef = new ProtobufWriter()
+					.string(1, "Pod")
+					.string(2, "dev")
+					.string(3, "foo-" + i)
+					.string(4, "5741bf67-dba7-11e7-a4ff-" + i);
+			ProtobufWriter address = new ProtobufWriter()
+					.string(1, "10.0.0." + i)
+					.message(2, targetRef)
+					.string(3, "host-" + i)
+					.string(4, "node-" + (i % 2));
+			// every third address not ready
+			subset.message(i % 3 == 2 ? 2 : 1, address);
+		}
+		subset.message(3, new ProtobufWriter().string(1, "http").varint(2, 8080).string(3, "TCP"));
+		subset.message(3, new ProtobufWriter().string(1, "grpc").varint(2, 9090).string(4, "h2c"));
+
+		ProtobufWriter metadata = new ProtobufWriter()
+				.string(1, "foo")
+				.string(3, "dev")
+				.string(5, "f2fa8d37-c2d9-11e7-b9c2-02424c321446")
+				.string(6, resourceVersion)
+				.varint(7, 3)
+				// unknown fields of other wire types are skipped
+				.fixed32(90, 42)
+				.fixed64(91, 42L);
+		return ProtobufWriter.envelope("Endpoints", new ProtobufWriter().message(1, metadata).message(2, subset));
+	}
+
+	@Test
+	public void parse() throws IOException {
+
+		ProtobufMemberParser parser = new ProtobufMemberParser();
+		byte[] content = endpoints("123", 6);
+		K8sServiceMembers members = parser.parse(new ByteArrayInputStream(content));
+
+		assertEquals("123", members.getResourceVersion());
+		assertEquals(content.length, parser.getBytesRead());
+
+		List<K8sServiceMember> ready = members.getMembers();
+		assertEquals(4, ready.size());
+		assertEquals(2, members.getNotReady().size());
+
+		K8sServiceMember first = ready.get(0);
+		assertEquals("10.0.0.0", first.getIpAddress());
+		assertEquals("foo-0", first.getPodName());
+		assertEquals("node-0", first.getNodeName());
+		assertEquals("host-0", first.getHostname());
+		assertTrue(first.isReady());
+		assertEquals(8080, first.getPort("http").getPort());
+		assertEquals("TCP", first.getPort("grpc").getProtocol());
+
+		K8sServiceMember notReady = members.getNotReady().get(0);
+		assertEquals("foo-2", notReady.getPodName());
+		assertEquals(9090, notReady.getPort("grpc").getPort());
+	}
+
+	@Test
+	public void parse_largeContent_exceedsBuffer() throws IOException {
+
+		ProtobufMemberParser parser = new ProtobufMemberParser();
+		K8sServiceMembers members = parser.parse(new ByteArrayInputStream(endpoints("9", 300)));
+		assertEquals(200, members.getMembers().size());
+		assertEquals(100, members.getNotReady().size());
+		assertEquals("foo-299", members.getNotReady().get(99).getPodName());
+	}
+
+	@Test
+	public void parse_unchangedResourceVersion_returnsNull() throws IOException {
+
+		ProtobufMemberParser parser = new ProtobufMemberParser();
+		byte[] content = endpoints("123", 100);
+		assertNull(parser.parse(new ByteArrayInputStream(content), "123"));
+		assertEquals("123", parser.parse(new ByteArrayInputStream(content), "122").getResourceVersion());
+	}
+
+	@Test
+	public void parse_truncated_throws() {
+
+		byte[] content = endpoints("123", 10);
+		byte[] truncated = new byte[content.length - 7];
+		System.arraycopy(content, 0, truncated, 0, truncated.length);
+		try {
+			new ProtobufMemberParser().parse(new ByteArrayInputStream(truncated));
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void parse_notProtobuf_throws() {
+		try {
+			new ProtobufMemberParser().parse(new ByteArrayInputStream("{\"kind\":\"Endpoints\"}".getBytes()));
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("magic"));
+		}
+	}
+
+	@Test
+	public void isProtobuf() {
+		assertTrue(ProtobufMemberParser.isProtobuf("application/vnd.kubernetes.protobuf"));
+		assertTrue(!ProtobufMemberParser.isProtobuf("application/json"));
+		assertTrue(!ProtobufMemberParser.isProtobuf(null));
+	}
+}
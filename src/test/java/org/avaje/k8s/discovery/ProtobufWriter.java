@@ -0,0 +1,86 @@
+package org.avaje.k8s.discovery;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the protobuf wire format to build kubernetes protobuf content for tests.
+ */
+class ProtobufWriter {
+
+	private static final byte[] MAGIC = {'k', '8', 's', 0};
+
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	/**
+	 * Return the content with the magic prefix and runtime.Unknown envelope of the given message.
+	 */
+	static byte[] envelope(String kind, ProtobufWriter message) {
+		ProtobufWriter unknown = new ProtobufWriter()
+				.message(1, new ProtobufWriter().string(1, "v1").string(2, kind))
+				.message(2, message)
+				.string(3, "")
+				.string(4, "");
+		byte[] content = unknown.toByteArray();
+		byte[] bytes = new byte[MAGIC.length + content.length];
+		System.arraycopy(MAGIC, 0, bytes, 0, MAGIC.length);
+		System.arraycopy(content, 0, bytes, MAGIC.length, content.length);
+		return bytes;
+	}
+
+	ProtobufWriter string(int field, String value) {
+		if (value != null) {
+			bytes(field, value.getBytes(StandardCharsets.UTF_8));
+		}
+		return this;
+	}
+
+	ProtobufWriter varint(int field, long value) {
+		tag(field, ProtobufReader.WIRE_VARINT);
+		writeVarint(value);
+		return this;
+	}
+
+	ProtobufWriter fixed32(int field, int value) {
+		tag(field, ProtobufReader.WIRE_FIXED32);
+		for (int i = 0; i < 4; i++) {
+			out.write(value >>> (i * 8));
+		}
+		return this;
+	}
+
+	ProtobufWriter fixed64(int field, long value) {
+		tag(field, ProtobufReader.WIRE_FIXED64);
+		for (int i = 0; i < 8; i++) {
+			out.write((int) (value >>> (i * 8)));
+		}
+		return this;
+	}
+
+	ProtobufWriter message(int field, ProtobufWriter message) {
+		return bytes(field, message.toByteArray());
+	}
+
+	ProtobufWriter bytes(int field, byte[] value) {
+		tag(field, ProtobufReader.WIRE_LENGTH_DELIMITED);
+		writeVarint(value.length);
+		out.write(value, 0, value.length);
+		return this;
+	}
+
+	byte[] toByteArray() {
+		return out.toByteArray();
+	}
+
+	private void tag(int field, int wireType) {
+		writeVarint((field << 3) | wireType);
+	}
+
+	private void writeVarint(long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+}
@@ -0,0 +1,59 @@
+package org.avaje.k8s.discovery;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterTest {
+
+	@Test
+	public void reserve_burstThenRate() {
+
+		RateLimiter limiter = new RateLimiter(10, 3);
+		long now = System.nanoTime();
+		assertEquals(0, limiter.reserve(now));
+		assertEquals(0, limiter.reserve(now));
+		assertEquals(0, limiter.reserve(now));
+		// the 4th and 5th wait 100ms and 200ms
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(100), limiter.reserve(now), 1000);
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(200), limiter.reserve(now), 1000);
+		// refilled after a second
+		assertEquals(0, limiter.reserve(now + TimeUnit.SECONDS.toNanos(1)));
+	}
+
+	@Test
+	public void reserve_unlimited_paused() {
+
+		RateLimiter limiter = new RateLimiter(0, 1);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(0, limiter.reserve(System.nanoTime()));
+		}
+		limiter.pause(500);
+		long wait = limiter.reserve(System.nanoTime());
+		assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(400) && wait <= TimeUnit.MILLISECONDS.toNanos(500));
+	}
+
+	@Test
+	public void retryAfterMillis() {
+		assertEquals(3000, K8sTransport.retryAfterMillis("3"));
+		assertEquals(1000, K8sTransport.retryAfterMillis(null));
+		assertEquals(1000, K8sTransport.retryAfterMillis("Wed, 21 Oct 2015 07:28:00 GMT"));
+	}
+
+	@Test
+	public void backoff_decorrelatedJitter() {
+
+		Backoff backoff = new Backoff(100, 2000);
+		long previous = 100;
+		for (int i = 0; i < 50; i++) {
+			long delay = backoff.next();
+			assertTrue(delay >= 100 && delay <= Math.min(2000, previous * 3));
+			previous = delay;
+		}
+		backoff.reset();
+		assertTrue(backoff.next() <= 300);
+	}
+}
@@ -0,0 +1,107 @@
+package org.avaje.k8s.discovery;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotFileTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private K8sServiceMembers members() {
+		return new K8sServiceMembers("42",
+				Arrays.asList(
+						new K8sServiceMember("10.0.0.1", "node-a", "pod-1", true, true, false, Collections.singletonMap("app", "foo"), null, null, Collections.emptyList()),
+						new K8sServiceMember("10.0.0.2", null, "pod-é", true)),
+				Collections.singletonList(new K8sServiceMember("10.0.0.3", "node-b", "pod-3", false, true, true, Collections.emptyMap(), null, null, Collections.emptyList())));
+	}
+
+	@Test
+	public void write_read() throws IOException {
+
+		File file = new File(folder.getRoot(), "dir/foo.members");
+		long timestamp = System.currentTimeMillis() - 1000;
+		new SnapshotFile(file).write(members(), timestamp);
+
+		SnapshotFile.Entry entry = new SnapshotFile(file).read(60_000);
+		assertEquals(timestamp, entry.timestamp);
+		K8sServiceMembers read = entry.members;
+		assertEquals("42", read.getResourceVersion());
+		assertEquals(2, read.getMembers().size());
+		assertEquals("node-a", read.findPod("pod-1").getNodeName());
+		assertEquals("foo", read.findPod("pod-1").getLabels().get("app"));
+		assertNull(read.findPod("pod-é").getNodeName());
+		K8sServiceMember notReady = read.findByIp("10.0.0.3");
+		assertFalse(notReady.isReady());
+		assertTrue(notReady.isServing());
+		assertTrue(notReady.isTerminating());
+		// no temp files left behind
+		assertEquals(1, file.getParentFile().list().length);
+	}
+
+	@Test
+	public void read_tooOld() throws IOException {
+
+		File file = new File(folder.getRoot(), "foo.members");
+		new SnapshotFile(file).write(members(), System.currentTimeMillis() - 120_000);
+		assertNull(new SnapshotFile(file).read(60_000));
+	}
+
+	@Test
+	public void read_missingOrCorrupt() throws IOException {
+
+		File file = new File(folder.getRoot(), "foo.members");
+		assertNull(new SnapshotFile(file).read(60_000));
+
+		Files.write(file.toPath(), "not a snapshot".getBytes(StandardCharsets.UTF_8));
+		assertNull(new SnapshotFile(file).read(60_000));
+
+		new SnapshotFile(file).write(members(), System.currentTimeMillis());
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 5));
+		assertNull(new SnapshotFile(file).read(60_000));
+	}
+
+	@Test
+	public void discovery_servesSnapshotWhileRevalidating() throws Exception {
+
+		File file = new File(folder.getRoot(), "foo.members");
+		new K8sMemberDiscovery("foo") {
+			@Override
+			protected K8sServiceMembers loadAllMembers() {
+				return members();
+			}
+		}.setSnapshotFile(file).reload();
+		assertTrue(file.exists());
+
+		CompletableFuture<Void> release = new CompletableFuture<>();
+		K8sMemberDiscovery discovery = new K8sMemberDiscovery("foo") {
+			@Override
+			protected K8sServiceMembers loadAllMembers() {
+				release.join();
+				throw new IllegalStateException("master unavailable");
+			}
+		}.setSnapshotFile(file).setSnapshotMaxAge(1, TimeUnit.MINUTES);
+
+		// served from the snapshot without waiting for the master
+		assertEquals(2, discovery.getAllMembers().size());
+		assertTrue(discovery.getSnapshotAgeMillis() >= 0);
+		release.complete(null);
+		assertEquals(2, discovery.getAllIps().size());
+	}
+}
@@ -0,0 +1,48 @@
+package org.avaje.k8s.discovery;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class StringDictionaryTest {
+
+	@Test
+	public void intern_chars() {
+
+		StringDictionary dictionary = new StringDictionary();
+		String first = dictionary.intern("node-1".toCharArray(), 6);
+		assertSame(first, dictionary.intern("node-1x".toCharArray(), 6));
+		assertEquals("node", dictionary.intern("node-1".toCharArray(), 4));
+		assertEquals(2, dictionary.size());
+	}
+
+	@Test
+	public void intern_growsTable() {
+
+		StringDictionary dictionary = new StringDictionary();
+		String[] values = new String[1000];
+		for (int i = 0; i < values.length; i++) {
+			char[] chars = ("ip-172-19-72-" + i + ".compute.internal").toCharArray();
+			values[i] = dictionary.intern(chars, chars.length);
+		}
+		assertEquals(1000, dictionary.size());
+		for (int i = 0; i < values.length; i++) {
+			byte[] bytes = ("ip-172-19-72-" + i + ".compute.internal").getBytes(StandardCharsets.US_ASCII);
+			assertSame(values[i], dictionary.intern(bytes, 0, bytes.length));
+		}
+	}
+
+	@Test
+	public void intern_nonAsciiBytes_notInterned() {
+
+		StringDictionary dictionary = new StringDictionary();
+		byte[] bytes = "zone-é".getBytes(StandardCharsets.UTF_8);
+		String value = dictionary.intern(bytes, 0, bytes.length);
+		assertEquals("zone-é", value);
+		assertNotSame(value, dictionary.intern(bytes, 0, bytes.length));
+	}
+}
@@ -0,0 +1,218 @@
+package org.avaje.k8s.discovery;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Local stub DNS server for tests answering A and AAAA queries over UDP and TCP.
+ * <p>
+ * The IPv4 addresses of a name are the A records and the IPv6 addresses the AAAA records.
+ * UDP responses with more addresses than the UDP limit are truncated (TC flag set) such
+ * that the client retries over TCP. Queries for unknown names get NXDOMAIN.
+ */
+class StubDnsServer implements AutoCloseable {
+
+	private final DatagramSocket udp;
+
+	private final ServerSocket tcp;
+
+	private final Map<String, List<String>> records = new ConcurrentHashMap<>();
+
+	private final AtomicInteger udpQueries = new AtomicInteger();
+
+	private final AtomicInteger tcpQueries = new AtomicInteger();
+
+	private volatile int ttl = 30;
+
+	private volatile int udpLimit = 100;
+
+	private volatile int failRcode;
+
+	private volatile boolean drop;
+
+	StubDnsServer() {
+		try {
+			tcp = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+			udp = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), tcp.getLocalPort()));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		start("stub-dns-udp", this::serveUdp);
+		start("stub-dns-tcp", this::serveTcp);
+	}
+
+	private static void start(String name, Runnable runnable) {
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	String host() {
+		return InetAddress.getLoopbackAddress().getHostAddress();
+	}
+
+	int port() {
+		return tcp.getLocalPort();
+	}
+
+	StubDnsServer record(String name, List<String> ips) {
+		records.put(name, ips);
+		return this;
+	}
+
+	StubDnsServer ttl(int ttl) {
+		this.ttl = ttl;
+		return this;
+	}
+
+	/**
+	 * Set the number of addresses above which UDP responses are truncated.
+	 */
+	StubDnsServer udpLimit(int udpLimit) {
+		this.udpLimit = udpLimit;
+		return this;
+	}
+
+	/**
+	 * Fail queries with the given rcode (0 to stop failing).
+	 */
+	StubDnsServer failRcode(int failRcode) {
+		this.failRcode = failRcode;
+		return this;
+	}
+
+	/**
+	 * Set to not respond (queries time out).
+	 */
+	StubDnsServer drop(boolean drop) {
+		this.drop = drop;
+		return this;
+	}
+
+	int udpQueries() {
+		return udpQueries.get();
+	}
+
+	int tcpQueries() {
+		return tcpQueries.get();
+	}
+
+	@Override
+	public void close() {
+		udp.close();
+		try {
+			tcp.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	private void serveUdp() {
+		byte[] buffer = new byte[512];
+		while (!udp.isClosed()) {
+			try {
+				DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+				udp.receive(packet);
+				udpQueries.incrementAndGet();
+				if (drop) {
+					continue;
+				}
+				byte[] response = respond(buffer, packet.getLength(), true);
+				udp.send(new DatagramPacket(response, response.length, packet.getSocketAddress()));
+			} catch (IOException e) {
+				// closed
+			}
+		}
+	}
+
+	private void serveTcp() {
+		while (!tcp.isClosed()) {
+			try (Socket socket = tcp.accept()) {
+				tcpQueries.incrementAndGet();
+				DataInputStream in = new DataInputStream(socket.getInputStream());
+				byte[] query = new byte[in.readUnsignedShort()];
+				in.readFully(query);
+				byte[] response = respond(query, query.length, false);
+				DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+				out.writeShort(response.length);
+				out.write(response);
+				out.flush();
+			} catch (IOException e) {
+				// closed
+			}
+		}
+	}
+
+	private byte[] respond(byte[] query, int length, boolean udp) {
+		ByteBuffer in = ByteBuffer.wrap(query, 0, length);
+		int id = in.getShort() & 0xFFFF;
+		in.position(12);
+		StringBuilder name = new StringBuilder();
+		int labelLength;
+		while ((labelLength = in.get()) != 0) {
+			if (name.length() > 0) {
+				name.append('.');
+			}
+			byte[] label = new byte[labelLength];
+			in.get(label);
+			name.append(new String(label));
+		}
+		int type = in.getShort();
+		in.getShort();
+		int questionEnd = in.position();
+
+		List<String> ips = records.get(name.toString());
+		if (ips != null) {
+			// the addresses of the queried family
+			ips = ips.stream().filter(ip -> ip.contains(":") == (type == 28)).collect(Collectors.toList());
+		}
+		int rcode = failRcode != 0 ? failRcode : (ips == null ? 3 : 0);
+		boolean truncated = rcode == 0 && udp && ips.size() > udpLimit;
+		int answers = (rcode == 0 && !truncated) ? ips.size() : 0;
+
+		ByteBuffer out = ByteBuffer.allocate(questionEnd + answers * 28);
+		out.putShort((short) id);
+		out.putShort((short) (0x8180 | (truncated ? 0x0200 : 0) | rcode));
+		out.putShort((short) 1);
+		out.putShort((short) answers);
+		out.putShort((short) 0);
+		out.putShort((short) 0);
+		out.put(query, 12, questionEnd - 12);
+		for (int i = 0; i < answers; i++) {
+			// pointer to the name in the question
+			out.putShort((short) 0xC00C);
+			out.putShort((short) type);
+			out.putShort((short) 1);
+			out.putInt(ttl);
+			byte[] address = address(ips.get(i));
+			out.putShort((short) address.length);
+			out.put(address);
+		}
+		byte[] response = new byte[out.position()];
+		out.flip();
+		out.get(response);
+		return response;
+	}
+
+	private static byte[] address(String ip) {
+		try {
+			return InetAddress.getByName(ip).getAddress();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}